@@ -0,0 +1,79 @@
+package net.trajano.wagon.git.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import net.trajano.wagon.git.internal.GitUri;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@link GitUri#resolve(String)} which is called for every resource
+ * transferred.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class GitUriBenchmark {
+
+    /**
+     * Base URI as it would be built from the site URL. A resource with "##"
+     * comes from a site URL that used "##" to separate the directory.
+     */
+    @Param({
+        "",
+        "project/",
+        "project##"
+    })
+    public String baseResource;
+
+    /**
+     * Git URI resources are resolved against.
+     */
+    private GitUri gitUri;
+
+    /**
+     * Resource name as passed to the wagon.
+     */
+    @Param({
+        "index.html",
+        "apidocs/net/trajano/wagon/git/internal/class-use/AbstractGitWagon.html",
+        "images/logo%20large.png",
+        "css/site style.css",
+        "../other.git?gh-pages#apidocs/index.html",
+        "../../trajano/other.git?master#module/"
+    })
+    public String resource;
+
+    /**
+     * Resolves the resource.
+     *
+     * @return resolved URI
+     */
+    @Benchmark
+    public GitUri resolve() {
+
+        return gitUri.resolve(resource);
+    }
+
+    /**
+     * Creates the Git URI.
+     */
+    @Setup
+    public void setUp() {
+
+        gitUri = new GitUri("ssh://git@github.com/trajano/wagon-git.git", "gh-pages", baseResource.length() == 0 ? null : baseResource);
+    }
+}
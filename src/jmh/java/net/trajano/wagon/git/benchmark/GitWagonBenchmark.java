@@ -0,0 +1,146 @@
+package net.trajano.wagon.git.benchmark;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import net.trajano.wagon.git.GitWagon;
+
+import org.apache.maven.wagon.repository.Repository;
+import org.codehaus.plexus.util.FileUtils;
+import org.eclipse.jgit.api.Git;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures mapping resources to the working copy of a local repository. The
+ * repository has a directory with {@link #files} files and is cloned once
+ * before the measurements so only the mapping is measured.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class GitWagonBenchmark {
+
+    /**
+     * Use bare mode.
+     */
+    @Param({
+        "false",
+        "true"
+    })
+    public boolean bare;
+
+    /**
+     * Number of files in the directory.
+     */
+    @Param({
+        "100",
+        "5000"
+    })
+    public int files;
+
+    /**
+     * Remote repository directory.
+     */
+    private File gitRemoteDirectory;
+
+    /**
+     * Wagon connected to the remote.
+     */
+    private GitWagon wagon;
+
+    /**
+     * Gets the file for a resource in the large directory.
+     *
+     * @return file
+     */
+    @Benchmark
+    public File getFileForResource() throws Exception {
+
+        return wagon.getFileForResource("apidocs/file" + files / 2 + ".html");
+    }
+
+    /**
+     * Lists the large directory.
+     *
+     * @return names
+     */
+    @Benchmark
+    public List<String> getFileList() throws Exception {
+
+        return wagon.getFileList("apidocs");
+    }
+
+    /**
+     * Checks a resource exists in the large directory.
+     *
+     * @return <code>true</code>
+     */
+    @Benchmark
+    public boolean resourceExists() throws Exception {
+
+        return wagon.resourceExists("apidocs/file" + files / 2 + ".html");
+    }
+
+    /**
+     * Creates the remote repository and connects the wagon to it.
+     */
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+
+        gitRemoteDirectory = File.createTempFile("remote", null);
+        gitRemoteDirectory.delete();
+        final Git remote = Git.init()
+            .setDirectory(gitRemoteDirectory)
+            .call();
+        final File apidocs = new File(gitRemoteDirectory, "apidocs");
+        apidocs.mkdir();
+        for (int i = 0; i < files; ++i) {
+            final FileOutputStream out = new FileOutputStream(new File(apidocs, "file" + i + ".html"));
+            out.write(("<html><body>" + i + "</body></html>").getBytes("UTF-8"));
+            out.close();
+        }
+        remote.add()
+            .addFilepattern(".")
+            .call();
+        remote.commit()
+            .setMessage("site")
+            .call();
+        remote.branchCreate()
+            .setName("gh-pages")
+            .call();
+        remote.close();
+
+        wagon = new GitWagon();
+        wagon.setBare(bare);
+        wagon.connect(new Repository("gh", "git:" + gitRemoteDirectory.toURI() + "?gh-pages#"));
+        // clones the repository.
+        wagon.resourceExists("apidocs/file0.html");
+    }
+
+    /**
+     * Disconnects the wagon and removes the remote repository.
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+
+        wagon.disconnect();
+        FileUtils.deleteDirectory(gitRemoteDirectory);
+    }
+}
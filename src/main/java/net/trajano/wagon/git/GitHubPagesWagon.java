@@ -6,15 +6,19 @@ import java.net.HttpURLConnection;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.ResourceBundle;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import org.apache.commons.lang3.StringUtils;
+import org.apache.maven.wagon.ConnectionException;
 import org.apache.maven.wagon.ResourceDoesNotExistException;
 import org.apache.maven.wagon.Wagon;
+import org.apache.maven.wagon.authentication.AuthenticationException;
 import org.codehaus.plexus.component.annotations.Component;
-import org.eclipse.jgit.api.Git;
 import org.eclipse.jgit.api.errors.GitAPIException;
 import org.xbill.DNS.CNAMERecord;
 import org.xbill.DNS.Lookup;
@@ -23,6 +27,7 @@ import org.xbill.DNS.Type;
 
 import net.trajano.wagon.git.internal.AbstractGitWagon;
 import net.trajano.wagon.git.internal.GitUri;
+import net.trajano.wagon.git.internal.ResolutionCache;
 
 /**
  * Github Pages Wagon.
@@ -63,10 +68,52 @@ public class GitHubPagesWagon extends AbstractGitWagon {
     }
 
     /**
-     * Builds a GitUri from a GitHub Pages URL. It performs a DNS lookup for the
-     * CNAME if the host does not match {@link #GITHUB_PAGES_HOST_PATTERN}.
-     * {@inheritDoc}
-     * 
+     * URL the resources are resolved against. This is determined on first use
+     * after each connect.
+     */
+    private URI baseUri;
+
+    /**
+     * Indicates {@link #baseUri} is the repository URL with its redirects
+     * followed. This is only the case when the redirect just changes the host,
+     * then the resources are resolved against it without further HTTP requests.
+     */
+    private boolean baseUriRedirected;
+
+    /**
+     * Git URIs of the GitHub Pages repositories keyed by the URL of the
+     * repository without a trailing slash. These are cleared on each connect.
+     */
+    private final ConcurrentMap<URI, GitUri> repositoryGitUris = new ConcurrentHashMap<URI, GitUri>();
+
+    /**
+     * Persistent cache of redirects and CNAME lookups. This is created on first
+     * use if {@link #resolutionCacheTtl} is set.
+     */
+    private ResolutionCache resolutionCache;
+
+    /**
+     * Number of seconds the redirect and CNAME lookups are kept in the
+     * persistent cache. Zero disables the persistent cache.
+     */
+    private long resolutionCacheTtl;
+
+    /**
+     * URLs with the redirects followed keyed by the requested URL.
+     */
+    private final ConcurrentMap<URI, URI> resolvedUris = new ConcurrentHashMap<URI, URI>();
+
+    /**
+     * GitHub user names keyed by host.
+     */
+    private final ConcurrentMap<String, String> usernames = new ConcurrentHashMap<String, String>();
+
+    /**
+     * Builds a GitUri from a GitHub Pages URL. It follows HTTP redirects and
+     * performs a DNS lookup for the CNAME if the host does not match
+     * {@link #GITHUB_PAGES_HOST_PATTERN}. Both lookups are remembered for the
+     * life of the wagon. {@inheritDoc}
+     *
      * @param nonNormalizedUri
      *            non-normalized URI.
      */
@@ -74,32 +121,24 @@ public class GitHubPagesWagon extends AbstractGitWagon {
     public GitUri buildGitUri(final URI nonNormalizedUri) throws IOException,
         URISyntaxException {
 
-        final URI uri = nonNormalizedUri.normalize();
-        final URI finalUri;
-        // Resolve redirects if needed.
-        if ("http".equals(uri.getScheme()) || "https".equals(uri.getScheme())) {
-            final HttpURLConnection urlConnection = (HttpURLConnection) uri.toURL().openConnection();
-            urlConnection.connect();
-            urlConnection.getResponseCode();
-            finalUri = urlConnection.getURL().toURI();
-            urlConnection.disconnect();
-        } else {
-            finalUri = uri;
-        }
-        final Matcher m = GITHUB_PAGES_HOST_PATTERN.matcher(finalUri.getHost());
-        final String username;
-        if (m.matches()) {
-            username = m.group(1);
-        } else {
-            final String cnameHost = getCnameForHost(finalUri.getHost());
-            final Matcher m2 = GITHUB_PAGES_HOST_PATTERN.matcher(cnameHost);
-            if (!m2.matches()) {
-                throw new URISyntaxException(finalUri.toASCIIString(),
-                    String.format(R.getString("invalidGitHubPagesHost"), uri));
-            }
-            username = m2.group(1);
-        }
+        return buildGitUriFromFinalUri(followRedirects(nonNormalizedUri.normalize()));
+    }
 
+    /**
+     * Builds a GitUri from a GitHub Pages URL whose redirects have already been
+     * followed.
+     *
+     * @param finalUri
+     *            URI with the redirects followed
+     * @return Git URI
+     * @throws IOException
+     * @throws URISyntaxException
+     *             the host is not a GitHub Pages host.
+     */
+    private GitUri buildGitUriFromFinalUri(final URI finalUri) throws IOException,
+        URISyntaxException {
+
+        final String username = getUsername(finalUri);
         if ("".equals(finalUri.getPath()) || "/".equals(finalUri.getPath())) {
             return buildRootUri(username);
         } else {
@@ -107,6 +146,39 @@ public class GitHubPagesWagon extends AbstractGitWagon {
         }
     }
 
+    /**
+     * Builds a GitUri from a GitHub Pages URL whose redirects have not been
+     * followed. The redirects are only followed for the URL of the repository
+     * the resource is in, which is remembered until the next connect.
+     *
+     * @param resourceUri
+     *            normalized URI of the resource
+     * @return Git URI
+     * @throws IOException
+     * @throws URISyntaxException
+     *             the host is not a GitHub Pages host.
+     */
+    private GitUri buildGitUriFromRepository(final URI resourceUri) throws IOException,
+        URISyntaxException {
+
+        final Matcher pathMatcher = GITHUB_PAGES_PATH_PATTERN.matcher(resourceUri.getPath());
+        if (!pathMatcher.matches()) {
+            return buildGitUri(resourceUri);
+        }
+        final URI repositoryUri = new URI(resourceUri.getScheme(), resourceUri.getAuthority(), "/" + pathMatcher.group(1), null, null);
+        GitUri repositoryGitUri = repositoryGitUris.get(repositoryUri);
+        if (repositoryGitUri == null) {
+            repositoryGitUri = buildGitUri(repositoryUri);
+            repositoryGitUris.put(repositoryUri, repositoryGitUri);
+        }
+        final String path = pathMatcher.group(2);
+        if (path == null) {
+            return repositoryGitUri;
+        }
+        final String resource = repositoryGitUri.getResource() == null ? "" : repositoryGitUri.getResource();
+        return new GitUri(repositoryGitUri.getGitRepositoryUri(), repositoryGitUri.getBranchName(), resource.endsWith("/") ? resource + path.substring(1) : resource + path);
+    }
+
     /**
      * Builds the project Github URI.
      *
@@ -138,6 +210,101 @@ public class GitHubPagesWagon extends AbstractGitWagon {
         return new GitUri("ssh://git@github.com/" + username + "/" + username + ".github.io.git", "master", "/");
     }
 
+    /**
+     * Gets the persistent resolution cache.
+     *
+     * @return resolution cache or <code>null</code> if it is not enabled.
+     * @throws IOException
+     *             unable to read the cache file
+     */
+    private synchronized ResolutionCache getResolutionCache() throws IOException {
+
+        if (resolutionCache == null && resolutionCacheTtl > 0) {
+            resolutionCache = new ResolutionCache(new File(getCacheDirectory(), "github-pages.properties"),
+                resolutionCacheTtl * 1000L);
+        }
+        return resolutionCache;
+    }
+
+    /**
+     * Gets the GitHub user name for the host of a GitHub Pages URL.
+     *
+     * @param finalUri
+     *            URI with the redirects followed
+     * @return user name
+     * @throws IOException
+     * @throws URISyntaxException
+     *             the host is not a GitHub Pages host.
+     */
+    private String getUsername(final URI finalUri) throws IOException,
+        URISyntaxException {
+
+        final String host = finalUri.getHost();
+        final Matcher m = GITHUB_PAGES_HOST_PATTERN.matcher(host);
+        if (m.matches()) {
+            return m.group(1);
+        }
+        final String cachedUsername = usernames.get(host);
+        if (cachedUsername != null) {
+            return cachedUsername;
+        }
+        final String cacheKey = "cname." + host;
+        String cnameHost = getResolutionCache() == null ? null : getResolutionCache().get(cacheKey);
+        if (cnameHost == null) {
+            cnameHost = getCnameForHost(host);
+            if (cnameHost != null && getResolutionCache() != null) {
+                getResolutionCache().put(cacheKey, cnameHost);
+            }
+        }
+        final Matcher m2 = cnameHost == null ? null : GITHUB_PAGES_HOST_PATTERN.matcher(cnameHost);
+        if (m2 == null || !m2.matches()) {
+            throw new URISyntaxException(finalUri.toASCIIString(),
+                String.format(R.getString("invalidGitHubPagesHost"), finalUri));
+        }
+        usernames.put(host, m2.group(1));
+        return m2.group(1);
+    }
+
+    /**
+     * Follows the HTTP redirects of a URL using a HEAD request. Non-HTTP URIs
+     * are returned as is.
+     *
+     * @param uri
+     *            normalized URI
+     * @return URI after redirects.
+     * @throws IOException
+     * @throws URISyntaxException
+     */
+    private URI followRedirects(final URI uri) throws IOException,
+        URISyntaxException {
+
+        if (!"http".equals(uri.getScheme()) && !"https".equals(uri.getScheme())) {
+            return uri;
+        }
+        final URI cachedUri = resolvedUris.get(uri);
+        if (cachedUri != null) {
+            return cachedUri;
+        }
+        final String cacheKey = "redirect." + uri.toASCIIString();
+        final String persistedUri = getResolutionCache() == null ? null : getResolutionCache().get(cacheKey);
+        final URI finalUri;
+        if (persistedUri != null) {
+            finalUri = new URI(persistedUri);
+        } else {
+            final HttpURLConnection urlConnection = (HttpURLConnection) uri.toURL().openConnection();
+            urlConnection.setRequestMethod("HEAD");
+            urlConnection.connect();
+            urlConnection.getResponseCode();
+            finalUri = urlConnection.getURL().toURI();
+            urlConnection.disconnect();
+            if (getResolutionCache() != null) {
+                getResolutionCache().put(cacheKey, finalUri.toASCIIString());
+            }
+        }
+        resolvedUris.put(uri, finalUri);
+        return finalUri;
+    }
+
     /**
      * Gets the CNAME record for the host.
      *
@@ -160,7 +327,12 @@ public class GitHubPagesWagon extends AbstractGitWagon {
     }
 
     /**
-     * Does resolution a different way.
+     * Does resolution a different way. The resource is resolved against the
+     * repository URL. When the redirect of the repository URL only changes the
+     * host, the resource is resolved against the redirected URL so no HTTP
+     * request is made per resource. Otherwise the redirects are followed once
+     * for the GitHub Pages repository the resolved URL is in and the rest of
+     * its path is appended to the resource of that repository.
      *
      * @param resourceName
      *            resource name
@@ -172,24 +344,65 @@ public class GitHubPagesWagon extends AbstractGitWagon {
         IOException,
         URISyntaxException {
 
+        if (baseUri == null) {
+            final URI repositoryUri = URI.create(URI.create(getRepository().getUrl()).getSchemeSpecificPart())
+                .normalize();
+            final URI redirectedUri = followRedirects(repositoryUri);
+            baseUriRedirected = isHostRedirect(repositoryUri, redirectedUri);
+            baseUri = baseUriRedirected ? redirectedUri : repositoryUri;
+        }
         // /foo/bar/foo.git + ../bar.git == /foo/bar/bar.git + /
         // /foo/bar/foo.git + ../bar.git/abc == /foo/bar/bar.git + /abc
-        final GitUri resolved = buildGitUri(URI.create(URI.create(getRepository().getUrl()).getSchemeSpecificPart())
-            .resolve(resourceName.replace(" ", "%20")));
-        Git resourceGit;
+        final URI resourceUri = baseUri.resolve(resourceName.replace(" ", "%20"))
+            .normalize();
+        final GitUri resolved = baseUriRedirected ? buildGitUriFromFinalUri(resourceUri) : buildGitUriFromRepository(resourceUri);
         try {
-            resourceGit = getGit(resolved.getGitRepositoryUri());
+            getGit(resolved.getGitRepositoryUri());
         } catch (final ResourceDoesNotExistException e) {
             LOG.throwing(this.getClass().getName(), "getFileForResource", e);
             return null;
         }
+        return getWorkTreeFile(resolved.getGitRepositoryUri(), resolved.getResource());
+    }
 
-        final File workTree = resourceGit.getRepository().getWorkTree();
-        final File resolvedFile = new File(workTree, resolved.getResource());
-        if (!resolvedFile.getCanonicalPath().startsWith(workTree.getCanonicalPath())) {
-            throw new IOException(
-                String.format("The resolved file '%s' is not in work tree '%s'", resolvedFile, workTree));
-        }
-        return resolvedFile;
+    /**
+     * Checks if a redirect only changes the scheme, host or port of a URL.
+     *
+     * @param uri
+     *            URL
+     * @param redirectedUri
+     *            URL with the redirects followed
+     * @return <code>true</code> if the path and query are unchanged.
+     */
+    private static boolean isHostRedirect(final URI uri,
+        final URI redirectedUri) {
+
+        return StringUtils.equals(uri.getRawPath(), redirectedUri.getRawPath())
+            && StringUtils.equals(uri.getRawQuery(), redirectedUri.getRawQuery());
+    }
+
+    /**
+     * Clears the base URL and the repository Git URIs so they are determined
+     * again for the repository that is being connected to. {@inheritDoc}
+     */
+    @Override
+    protected void openConnectionInternal() throws ConnectionException,
+        AuthenticationException {
+
+        baseUri = null;
+        repositoryGitUris.clear();
+        super.openConnectionInternal();
+    }
+
+    /**
+     * Sets how long redirect and CNAME lookups are kept in a persistent cache
+     * between builds.
+     *
+     * @param resolutionCacheTtl
+     *            time to live in seconds, zero disables the persistent cache.
+     */
+    public void setResolutionCacheTtl(final long resolutionCacheTtl) {
+
+        this.resolutionCacheTtl = resolutionCacheTtl;
     }
 }
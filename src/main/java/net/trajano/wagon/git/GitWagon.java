@@ -4,7 +4,6 @@ import java.io.File;
 import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
-import java.util.ResourceBundle;
 import java.util.logging.Logger;
 
 import net.trajano.wagon.git.internal.AbstractGitWagon;
@@ -13,7 +12,6 @@ import net.trajano.wagon.git.internal.GitUri;
 import org.apache.maven.wagon.ResourceDoesNotExistException;
 import org.apache.maven.wagon.Wagon;
 import org.codehaus.plexus.component.annotations.Component;
-import org.eclipse.jgit.api.Git;
 import org.eclipse.jgit.api.errors.GitAPIException;
 
 /**
@@ -37,14 +35,8 @@ public class GitWagon extends AbstractGitWagon {
      */
     private static final String MESSAGES = "META-INF/Messages";
 
-    /**
-     * Resource bundle.
-     */
-    private static final ResourceBundle R;
-
     static {
         LOG = Logger.getLogger("net.trajano.wagon.git", MESSAGES);
-        R = ResourceBundle.getBundle(MESSAGES);
     }
 
     /**
@@ -73,22 +65,13 @@ public class GitWagon extends AbstractGitWagon {
         // /foo/bar/foo.git + ../bar.git == /foo/bar/bar.git + /
         // /foo/bar/foo.git + ../bar.git/abc == /foo/bar/bar.git + /abc
         final GitUri resolved = getGitUri().resolve(resourceName);
-        Git resourceGit;
         try {
-            resourceGit = getGit(resolved.getGitRepositoryUri());
+            getGit(resolved.getGitRepositoryUri());
         } catch (final ResourceDoesNotExistException e) {
             LOG.throwing(this.getClass()
                 .getName(), "getFileForResource", e);
             return null;
         }
-
-        final File workTree = resourceGit.getRepository()
-            .getWorkTree();
-        final File resolvedFile = new File(workTree, resolved.getResource());
-        if (!resolvedFile.getCanonicalPath()
-            .startsWith(workTree.getCanonicalPath())) {
-            throw new IOException(String.format(R.getString("notInWorkTree"), resolvedFile, workTree));
-        }
-        return resolvedFile;
+        return getWorkTreeFile(resolved.getGitRepositoryUri(), resolved.getResource());
     }
 }
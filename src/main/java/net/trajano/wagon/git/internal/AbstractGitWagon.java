@@ -6,17 +6,34 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
 import java.net.URI;
 import java.net.URISyntaxException;
-import java.util.LinkedList;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Map.Entry;
+import java.util.Map;
+import java.util.Properties;
 import java.util.ResourceBundle;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import net.trajano.wagon.git.internal.SessionMetrics.Phase;
+
 import org.apache.maven.wagon.ConnectionException;
 import org.apache.maven.wagon.InputData;
 import org.apache.maven.wagon.OutputData;
@@ -25,14 +42,20 @@ import org.apache.maven.wagon.StreamWagon;
 import org.apache.maven.wagon.TransferFailedException;
 import org.apache.maven.wagon.authentication.AuthenticationException;
 import org.apache.maven.wagon.authorization.AuthorizationException;
+import org.apache.maven.wagon.events.TransferEvent;
+import org.apache.maven.wagon.events.TransferListener;
+import org.apache.maven.wagon.resource.Resource;
 import org.codehaus.plexus.util.FileUtils;
 import org.eclipse.jgit.api.Git;
 import org.eclipse.jgit.api.errors.GitAPIException;
-import org.eclipse.jgit.api.errors.InvalidRemoteException;
-import org.eclipse.jgit.errors.NoRemoteRepositoryException;
+import org.eclipse.jgit.dircache.DirCache;
+import org.eclipse.jgit.dircache.DirCacheEntry;
 import org.eclipse.jgit.lib.Constants;
-import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.ObjectLoader;
 import org.eclipse.jgit.transport.CredentialsProvider;
+import org.eclipse.jgit.transport.Transport;
 import org.eclipse.jgit.transport.UsernamePasswordCredentialsProvider;
 
 /**
@@ -61,20 +84,219 @@ public abstract class AbstractGitWagon extends StreamWagon {
     }
 
     /**
-     * Credentials provider.
+     * Write uploads directly into the object database and commit from an in
+     * memory index rather than through the work tree.
+     */
+    private boolean bare;
+
+    /**
+     * Directory holding the persistent clones. Defaults to
+     * <code>~/.m2/wagon-git</code>.
+     */
+    private File cacheDirectory = new File(System.getProperty("user.home"), ".m2/wagon-git"); //$NON-NLS-1$ //$NON-NLS-2$
+
+    /**
+     * Persistent clones of the connection.
+     */
+    private CloneCache cloneCache;
+
+    /**
+     * Makes the clones of the connection.
+     */
+    private Cloner cloner;
+
+    /**
+     * Maximum number of repositories committed and pushed at the same time when
+     * the connection is closed.
      */
-    private CredentialsProvider credentialsProvider;
+    private int closeThreads = 4;
 
     /**
      * Git cache.
      */
-    private final ConcurrentMap<String, Git> gitCache = new ConcurrentHashMap<String, Git>();
+    private final ConcurrentMap<String, WorkingCopy> gitCache = new ConcurrentHashMap<String, WorkingCopy>();
 
     /**
      * Git URI.
      */
     private GitUri gitUri;
 
+    /**
+     * Hold the clones in memory rather than on disk. Writes are done as in
+     * {@link #bare} mode.
+     */
+    private boolean inMemory;
+
+    /**
+     * Size in bytes of the fetched objects above which a clone held in memory
+     * is replaced by one on disk. Zero does not limit the size.
+     */
+    private long inMemoryLimit;
+
+    /**
+     * Transport configuration shared by the clones, fetches and pushes of the
+     * connection so the SSH sessions are reused.
+     */
+    private JSchAgentCapableTransportConfigCallback transportConfigCallback;
+
+    /**
+     * Serializes the transfer events sent while uploading in parallel.
+     */
+    private final Object transferEventLock = new Object();
+
+    /**
+     * Number of transfer listeners. Progress events carry the transferred bytes
+     * so when files are copied without passing them through the JVM the file is
+     * only read for the progress events if there are listeners.
+     */
+    private int transferListeners;
+
+    /**
+     * Metrics of the current session.
+     */
+    private SessionMetrics metrics;
+
+    /**
+     * File the metrics of each session are appended to as a line of JSON.
+     * Metrics are only logged if this is not set.
+     */
+    private File metricsFile;
+
+    /**
+     * Delete files in the destination of {@link #putDirectory(File, String)}
+     * that are not in the source directory.
+     */
+    private boolean mirror;
+
+    /**
+     * Clone without checking out the work tree. Reads are served from the
+     * object database and writes are done as in {@link #bare} mode.
+     */
+    private boolean noCheckout;
+
+    /**
+     * Maximum delta chain depth of the pack sent on push. Zero uses the JGit
+     * default.
+     */
+    private int packDepth;
+
+    /**
+     * Number of threads used to search for deltas when building the pack sent
+     * on push. Zero uses the JGit default of one per processor.
+     */
+    private int packThreads;
+
+    /**
+     * Number of objects compared with each object when searching for deltas for
+     * the pack sent on push. Zero uses the JGit default.
+     */
+    private int packWindow;
+
+    /**
+     * Number of commits kept on the branch when its history is trimmed. The
+     * history is only rewritten once the branch has twice as many commits so it
+     * is not force pushed on every deploy. Zero keeps the whole history.
+     */
+    private int historyLimit;
+
+    /**
+     * Commits and pushes the working copies of the connection.
+     */
+    private Pusher pusher;
+
+    /**
+     * Number of times a rejected push is retried after replaying the changes
+     * onto the updated branch.
+     */
+    private int pushRetries = 5;
+
+    /**
+     * Keep clones in {@link #cacheDirectory} between sessions rather than
+     * cloning into a temporary directory each time.
+     */
+    private boolean persistentCache;
+
+    /**
+     * Maximum number of files uploaded at the same time by
+     * {@link #putDirectory(File, String)}. Defaults to the number of
+     * processors.
+     */
+    private int putThreads = Runtime.getRuntime()
+        .availableProcessors();
+
+    /**
+     * Local repositories whose objects seed the clones, keyed by the remote git
+     * repository URI.
+     */
+    private Properties referenceRepositories = new Properties();
+
+    /**
+     * Clone remotes on the local file system by referring to their object
+     * database through <code>objects/info/alternates</code> rather than copying
+     * the objects.
+     */
+    private boolean shareLocalObjects;
+
+    /**
+     * Share the working copies with the other wagons of the JVM using
+     * {@link WorkingCopyRegistry} so a multi-module build clones and pushes
+     * each repository once. In a Maven build the push happens when the build
+     * ends, otherwise when the last wagon using the working copy is
+     * disconnected.
+     */
+    private boolean shareWorkingCopies;
+
+    /**
+     * Commits and pushes shared working copies when they are released or
+     * flushed. A flush happens after the wagon was disconnected so the SSH
+     * sessions opened for the push are closed again.
+     */
+    private final WorkingCopyRegistry.Finisher sharedWorkingCopyFinisher = new WorkingCopyRegistry.Finisher() {
+
+        @Override
+        public void finish(final WorkingCopy workingCopy) throws GitAPIException,
+            IOException {
+
+            try {
+                pusher.commitAndPush(workingCopy);
+            } finally {
+                transportConfigCallback.close();
+            }
+        }
+    };
+
+    /**
+     * Only fetch the branch that is being deployed to rather than every branch
+     * and tag in the remote.
+     */
+    private boolean singleBranch;
+
+    /**
+     * Only check out the directory given by the resource of {@link #gitUri}.
+     * The rest of the branch is kept in the index so it is carried over to the
+     * commit.
+     */
+    private boolean sparseCheckout;
+
+    /**
+     * Computes the blob ID of a file without inserting it.
+     *
+     * @param file
+     *            file
+     * @return blob ID
+     * @throws IOException
+     *             I/O error
+     */
+    private static ObjectId blobId(final File file) throws IOException {
+
+        final InputStream in = new FileInputStream(file);
+        try {
+            return new ObjectInserter.Formatter().idFor(Constants.OBJ_BLOB, file.length(), in);
+        } finally {
+            in.close();
+        }
+    }
+
     /**
      * Builds the wagon specific Git URI based on the repository URL. This is
      * subclasses can make it public rather than protected to allow testing of
@@ -92,39 +314,81 @@ public abstract class AbstractGitWagon extends StreamWagon {
     /**
      * This will commit the local changes and push them to the repository. If
      * the method is unable to push to the repository without force, it will
-     * throw an exception. {@inheritDoc}
+     * throw an exception. The repositories are committed and pushed in parallel
+     * using up to {@link #closeThreads} threads. All the repositories are
+     * processed even if some fail and the failures are reported together.
+     * Shared working copies are released, they are pushed by the last wagon
+     * that releases them unless {@link SharedWorkingCopyFlusher} pushes them
+     * when the build ends. {@inheritDoc}
      */
     @Override
     public void closeConnection() throws ConnectionException {
 
+        if (gitCache.isEmpty()) {
+            transportConfigCallback.close();
+            reportMetrics();
+            return;
+        }
+        final Map<WorkingCopy, Future<Void>> futures = new LinkedHashMap<WorkingCopy, Future<Void>>();
+        final ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(closeThreads, gitCache.size())));
+        final StringBuilder failures = new StringBuilder();
+        Throwable firstFailure = null;
         try {
-            for (final Entry<String, Git> gitEntry : gitCache.entrySet()) {
-                final Git git = gitEntry.getValue();
-                git.add()
-                    .addFilepattern(".") //$NON-NLS-1$
-                    .call();
-                git.commit()
-                    .setMessage(R.getString("commitmessage")) //$NON-NLS-1$
-                    .call();
-                git.push()
-                    .setRemote(gitEntry.getKey())
-                    .setCredentialsProvider(credentialsProvider)
-                    .setTransportConfigCallback(new JSchAgentCapableTransportConfigCallback(getAuthenticationInfo()))
-                    .call();
-                git.close();
-                FileUtils.deleteDirectory(git.getRepository()
-                    .getDirectory());
+            for (final WorkingCopy workingCopy : gitCache.values()) {
+                futures.put(workingCopy, executor.submit(new Callable<Void>() {
+
+                    @Override
+                    public Void call() throws GitAPIException,
+                        IOException {
+
+                        if (shareWorkingCopies) {
+                            WorkingCopyRegistry.getInstance()
+                                .release(getRegistryKey(workingCopy.getGitRepositoryUri()), sharedWorkingCopyFinisher);
+                        } else {
+                            pusher.commitAndPush(workingCopy);
+                        }
+                        return null;
+                    }
+                }));
             }
-        } catch (final GitAPIException e) {
-            throw new ConnectionException(e.getMessage(), e);
-        } catch (final IOException e) {
+            for (final Map.Entry<WorkingCopy, Future<Void>> entry : futures.entrySet()) {
+                try {
+                    entry.getValue()
+                        .get();
+                } catch (final ExecutionException e) {
+                    LOG.log(Level.SEVERE, "pushfailed", new Object[] { //$NON-NLS-1$
+                        entry.getKey()
+                            .getGitRepositoryUri(),
+                        e.getCause()
+                            .getMessage()
+                    });
+                    failures.append(format(R.getString("pushfailedentry"), entry.getKey() //$NON-NLS-1$
+                        .getGitRepositoryUri(), e.getCause()
+                            .getMessage()));
+                    if (firstFailure == null) {
+                        firstFailure = e.getCause();
+                    }
+                }
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread()
+                .interrupt();
             throw new ConnectionException(e.getMessage(), e);
+        } finally {
+            executor.shutdownNow();
+            gitCache.clear();
+            transportConfigCallback.close();
+            reportMetrics();
+        }
+        if (firstFailure != null) {
+            throw new ConnectionException(format(R.getString("pushfailures"), failures), firstFailure); //$NON-NLS-1$
         }
     }
 
     /**
      * This will read from the working copy. File modification date would not be
-     * available as it does not really have any meaningful value. {@inheritDoc}
+     * available as it does not really have any meaningful value. In bare mode
+     * the blob is streamed from the object database. {@inheritDoc}
      *
      * @throws ResourceDoesNotExistException
      *             when the file does not exist
@@ -139,13 +403,27 @@ public abstract class AbstractGitWagon extends StreamWagon {
         try {
             final File file = getFileForResource(inputData.getResource()
                 .getName());
+            if (isBare()) {
+                final WorkingCopy workingCopy = getWorkingCopy(file);
+                final ObjectId blobId = workingCopy.getBlob(workingCopy.getPath(file));
+                if (blobId == null) {
+                    throw new ResourceDoesNotExistException(format(R.getString("filenotfound"), file)); //$NON-NLS-1$
+                }
+                final ObjectLoader loader = workingCopy.getGit()
+                    .getRepository()
+                    .open(blobId, Constants.OBJ_BLOB);
+                inputData.setInputStream(metrics.meter(Phase.GET, loader.openStream()));
+                inputData.getResource()
+                    .setContentLength(loader.getSize());
+                return;
+            }
             if (!file.exists()) {
                 throw new ResourceDoesNotExistException(format(R.getString("filenotfound"), file)); //$NON-NLS-1$
             }
             if (!file.canRead()) {
                 throw new AuthorizationException(format(R.getString("cannotreadfile"), file)); //$NON-NLS-1$
             }
-            inputData.setInputStream(new FileInputStream(file));
+            inputData.setInputStream(metrics.meter(Phase.GET, new FileInputStream(file)));
             inputData.getResource()
                 .setContentLength(file.length());
         } catch (final IOException e) {
@@ -158,7 +436,8 @@ public abstract class AbstractGitWagon extends StreamWagon {
     }
 
     /**
-     * This will write to the working copy. {@inheritDoc}
+     * This will write to the working copy. In bare mode the data is written
+     * into the object database instead. {@inheritDoc}
      */
     @Override
     public void fillOutputData(final OutputData outputData) throws TransferFailedException {
@@ -166,6 +445,18 @@ public abstract class AbstractGitWagon extends StreamWagon {
         try {
             final File file = getFileForResource(outputData.getResource()
                 .getName());
+            if (isBare()) {
+                final WorkingCopy workingCopy = getWorkingCopy(file);
+                final String path = workingCopy.getPath(file);
+                if (path.length() == 0 || outputData.getResource()
+                    .getName()
+                    .endsWith("/")) { //$NON-NLS-1$
+                    throw new TransferFailedException(format(R.getString("invalidpath"), outputData.getResource() //$NON-NLS-1$
+                        .getName()));
+                }
+                outputData.setOutputStream(metrics.meter(Phase.PUT, new BlobOutputStream(workingCopy, path)));
+                return;
+            }
             if (!file.getParentFile()
                 .mkdirs()
                 && !file.getParentFile()
@@ -173,7 +464,9 @@ public abstract class AbstractGitWagon extends StreamWagon {
                 throw new TransferFailedException(format(R.getString("unabletocreatedirs"), //$NON-NLS-1$
                     file.getParentFile()));
             }
-            outputData.setOutputStream(new FileOutputStream(file));
+            final WorkingCopy workingCopy = getWorkingCopy(file);
+            workingCopy.touch(workingCopy.getPath(file));
+            outputData.setOutputStream(metrics.meter(Phase.PUT, new FileOutputStream(file)));
         } catch (final IOException e) {
             throw new TransferFailedException(e.getMessage(), e);
         } catch (final GitAPIException e) {
@@ -184,199 +477,1319 @@ public abstract class AbstractGitWagon extends StreamWagon {
     }
 
     /**
-     * This will get the file object for the given resource relative to the
-     * {@link Git} specified for the connection. It will handle resources where
-     * it jumps up past the parent folder.
+     * Adds a transfer listener and counts it. {@inheritDoc}
+     */
+    @Override
+    public void addTransferListener(final TransferListener listener) {
+
+        super.addTransferListener(listener);
+        ++transferListeners;
+    }
+
+    /**
+     * Removes a transfer listener. {@inheritDoc}
+     */
+    @Override
+    public void removeTransferListener(final TransferListener listener) {
+
+        if (hasTransferListener(listener)) {
+            --transferListeners;
+        }
+        super.removeTransferListener(listener);
+    }
+
+    /**
+     * Copies between file channels using
+     * {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)}
+     * so the operating system can copy the data without passing it through the
+     * JVM. The copy starts at the current position of both channels. If the
+     * source is truncated while it is copied, the copy stops at its new end.
      *
-     * @param resourceName
-     *            resource name.
-     * @return file used for the resource.
+     * @param in
+     *            source channel
+     * @param out
+     *            destination channel
+     * @return number of bytes copied
      * @throws IOException
-     * @throws GitAPIException
-     *             problem with the GIT API.
-     * @throws URISyntaxException
-     * @throws ResourceDoesNotExistException
+     *             I/O error or nothing could be copied while the source still
+     *             has more bytes.
      */
-    protected abstract File getFileForResource(String resourceName) throws GitAPIException,
-        IOException,
-        URISyntaxException;
+    private static long transfer(final FileChannel in,
+        final FileChannel out) throws IOException {
+
+        final long start = in.position();
+        final long size = in.size();
+        long position = start;
+        while (position < size) {
+            final long transferred = in.transferTo(position, size - position, out);
+            if (transferred == 0) {
+                final long currentSize = in.size();
+                if (position < currentSize) {
+                    throw new IOException(format(R.getString("transferstalled"), position - start, currentSize - start)); //$NON-NLS-1$
+                }
+                break;
+            }
+            position += transferred;
+        }
+        in.position(position);
+        return position - start;
+    }
 
     /**
-     * {@inheritDoc}
-     * <p>
-     * Warnings are suppressed for false positive with Sonar and multiple
-     * exceptions on public API. {@inheritDoc}
-     * </p>
+     * Gets the file in the work tree to read a resource from. The transfer
+     * error event is sent if the file cannot be read.
+     *
+     * @param resource
+     *            resource
+     * @param requestType
+     *            request type of the transfer error event
+     * @return file
+     * @throws TransferFailedException
+     * @throws ResourceDoesNotExistException
+     * @throws AuthorizationException
      */
-    @Override
-    @SuppressWarnings("all")
-    public List<String> getFileList(final String directory) throws TransferFailedException,
+    private File getSourceFile(final Resource resource,
+        final int requestType) throws TransferFailedException,
         ResourceDoesNotExistException,
         AuthorizationException {
 
-        final File dir;
+        final File file;
         try {
-            dir = getFileForResource(directory);
+            file = getFileForResource(resource.getName());
         } catch (final GitAPIException e) {
-            throw new AuthorizationException(e.getMessage(), e);
+            fireTransferError(resource, e, requestType);
+            throw new TransferFailedException(e.getMessage(), e);
         } catch (final IOException e) {
+            fireTransferError(resource, e, requestType);
             throw new TransferFailedException(e.getMessage(), e);
         } catch (final URISyntaxException e) {
-            throw new ResourceDoesNotExistException(e.getMessage(), e);
+            fireTransferError(resource, e, requestType);
+            throw new TransferFailedException(e.getMessage(), e);
         }
-        final File[] files = dir.listFiles();
-        if (files == null) {
-            throw new ResourceDoesNotExistException(format(R.getString("dirnotfound"), dir)); //$NON-NLS-1$
+        if (file == null || !file.isFile()) {
+            final ResourceDoesNotExistException e = new ResourceDoesNotExistException(format(R.getString("filenotfound"), file == null ? resource.getName() : file)); //$NON-NLS-1$
+            fireTransferError(resource, e, requestType);
+            throw e;
         }
-        final List<String> list = new LinkedList<String>();
-        for (final File file : files) {
-            String name = file.getName();
-            if (file.isDirectory() && !name.endsWith("/")) { //$NON-NLS-1$
-                name += "/"; // NOPMD this is easier to read. //$NON-NLS-1$
-            }
-            list.add(name);
+        if (!file.canRead()) {
+            final AuthorizationException e = new AuthorizationException(format(R.getString("cannotreadfile"), file)); //$NON-NLS-1$
+            fireTransferError(resource, e, requestType);
+            throw e;
         }
-        return list;
+        resource.setContentLength(file.length());
+        resource.setLastModified(file.lastModified());
+        return file;
     }
 
     /**
-     * This will create or refresh the working copy. If the working copy cannot
-     * be pulled cleanly this method will fail.
+     * Gets the file in the work tree to write a resource to. Its directory is
+     * created and it is marked as touched. The transfer error event is sent if
+     * that fails.
      *
-     * @param gitRepositoryUri
-     *            remote git repository URI string
-     * @return git
-     * @throws GitAPIException
-     * @throws IOException
-     * @throws URISyntaxException
-     * @throws ResourceDoesNotExistException
-     *             remote repository does not exist.
+     * @param resource
+     *            resource
+     * @return file
+     * @throws TransferFailedException
      */
-    protected Git getGit(final String gitRepositoryUri) throws GitAPIException,
-        IOException,
-        URISyntaxException,
-        ResourceDoesNotExistException {
-
-        final Git cachedGit = gitCache.get(gitRepositoryUri);
-        if (cachedGit != null) {
-            return cachedGit;
-        }
-        final File gitDir = File.createTempFile(gitRepositoryUri.replaceAll("[^A-Za-z]", "_"), "wagon-git"); //$NON-NLS-1$
-        gitDir.delete();
-        gitDir.mkdir();
+    private File getDestinationFile(final Resource resource) throws TransferFailedException {
 
-        if (getAuthenticationInfo().getPassphrase() != null) {
-            credentialsProvider = new PassphraseCredentialsProvider(getAuthenticationInfo().getPassphrase());
-        } else {
-            credentialsProvider = new UsernamePasswordCredentialsProvider(getAuthenticationInfo().getUserName(), getAuthenticationInfo().getPassword() == null ? "" //$NON-NLS-1$
-                            : getAuthenticationInfo().getPassword());
-        }
         try {
-            final Git git = Git.cloneRepository()
-                .setURI(gitRepositoryUri)
-                .setCredentialsProvider(credentialsProvider)
-                .setBranch(gitUri.getBranchName())
-                .setDirectory(gitDir)
-                .setTransportConfigCallback(new JSchAgentCapableTransportConfigCallback(getAuthenticationInfo()))
-                .call();
-            if (!gitUri.getBranchName()
-                .equals(git.getRepository()
-                    .getBranch())) {
-                LOG.log(Level.INFO, "missingbranch", gitUri.getBranchName());
-                final RefUpdate refUpdate = git.getRepository()
-                    .getRefDatabase()
-                    .newUpdate(Constants.HEAD, true);
-                refUpdate.setForceUpdate(true);
-                refUpdate.link("refs/heads/" + gitUri.getBranchName()); //$NON-NLS-1$
-            }
-            gitCache.put(gitRepositoryUri, git);
-            return git;
-        } catch (final InvalidRemoteException e) {
-            throw new ResourceDoesNotExistException(e.getMessage(), e);
-        } catch (final NoRemoteRepositoryException e) {
-            throw new ResourceDoesNotExistException(e.getMessage(), e);
+            final File file = getFileForResource(resource.getName());
+            if (file == null) {
+                throw new IOException(format(R.getString("noworkingcopy"), resource.getName())); //$NON-NLS-1$
+            }
+            final File parent = file.getParentFile();
+            if (!parent.mkdirs() && !parent.isDirectory()) {
+                throw new IOException(format(R.getString("unabletocreatedirs"), parent)); //$NON-NLS-1$
+            }
+            final WorkingCopy workingCopy = getWorkingCopy(file);
+            workingCopy.touch(workingCopy.getPath(file));
+            return file;
+        } catch (final GitAPIException e) {
+            fireTransferError(resource, e, TransferEvent.REQUEST_PUT);
+            throw new TransferFailedException(e.getMessage(), e);
+        } catch (final IOException e) {
+            fireTransferError(resource, e, TransferEvent.REQUEST_PUT);
+            throw new TransferFailedException(e.getMessage(), e);
+        } catch (final URISyntaxException e) {
+            fireTransferError(resource, e, TransferEvent.REQUEST_PUT);
+            throw new TransferFailedException(e.getMessage(), e);
         }
     }
 
-    protected GitUri getGitUri() {
-
-        return gitUri;
-    }
-
     /**
-     * Sets the initial git URI.
+     * Copies the file from the work tree with a file channel rather than
+     * through streams. In bare mode the resource is streamed from the object
+     * database instead. {@inheritDoc}
      */
     @Override
-    protected void openConnectionInternal() throws ConnectionException,
-        AuthenticationException {
+    public void get(final String resourceName,
+        final File destination) throws TransferFailedException,
+        ResourceDoesNotExistException,
+        AuthorizationException {
 
-        URI uri;
+        if (isBare()) {
+            super.get(resourceName, destination);
+            return;
+        }
+        final Resource resource = new Resource(resourceName);
+        fireGetInitiated(resource, destination);
+        final File source = getSourceFile(resource, TransferEvent.REQUEST_GET);
+        createParentDirectories(destination);
+        fireGetStarted(resource, destination);
+        final long start = System.nanoTime();
         try {
-            uri = new URI(new URI(getRepository().getUrl()
-                .replace("##", "#")).getSchemeSpecificPart()).normalize();
-            gitUri = buildGitUri(uri);
-        } catch (final URISyntaxException e) {
-            throw new ConnectionException(e.getMessage(), e);
+            final FileInputStream in = new FileInputStream(source);
+            try {
+                final FileOutputStream out = new FileOutputStream(destination);
+                try {
+                    metrics.record(Phase.GET, start, transfer(in.getChannel(), out.getChannel()));
+                } finally {
+                    out.close();
+                }
+            } finally {
+                in.close();
+            }
         } catch (final IOException e) {
-            throw new ConnectionException(e.getMessage(), e);
+            fireTransferError(resource, e, TransferEvent.REQUEST_GET);
+            throw new TransferFailedException(e.getMessage(), e);
         }
+        if (transferListeners > 0) {
+            postProcessListeners(resource, destination, TransferEvent.REQUEST_GET);
+        }
+        fireGetCompleted(resource, destination);
     }
 
     /**
-     * If the destination directory is not inside the source directory (denoted
-     * by starting with "../"), then another git repository is registered.
-     * Warnings are suppressed for false positive with Sonar and multiple
-     * exceptions on public API. {@inheritDoc}
+     * Copies the file from the work tree with a file channel when the stream
+     * writes to a file. {@inheritDoc}
      */
     @Override
-    @SuppressWarnings("all")
-    public void putDirectory(final File sourceDirectory,
-        final String destinationDirectory) throws TransferFailedException,
-        ResourceDoesNotExistException,
+    public void getToStream(final String resourceName,
+        final OutputStream stream) throws ResourceDoesNotExistException,
+        TransferFailedException,
         AuthorizationException {
 
+        if (isBare() || !(stream instanceof FileOutputStream)) {
+            super.getToStream(resourceName, stream);
+            return;
+        }
+        final Resource resource = new Resource(resourceName);
+        fireGetInitiated(resource, null);
+        final File source = getSourceFile(resource, TransferEvent.REQUEST_GET);
+        fireGetStarted(resource, null);
+        final long start = System.nanoTime();
         try {
-            if (!sourceDirectory.isDirectory()) {
-                throw new ResourceDoesNotExistException(format(R.getString("dirnotfound"), sourceDirectory)); //$NON-NLS-1$
-            }
-            final File fileForResource = getFileForResource(destinationDirectory);
-            if (fileForResource == null) {
-                throw new ResourceDoesNotExistException(format(R.getString("dirnotfound"), destinationDirectory)); //$NON-NLS-1$
+            final FileInputStream in = new FileInputStream(source);
+            try {
+                metrics.record(Phase.GET, start, transfer(in.getChannel(), ((FileOutputStream) stream).getChannel()));
+            } finally {
+                in.close();
             }
-            FileUtils.copyDirectoryStructure(sourceDirectory, fileForResource);
         } catch (final IOException e) {
+            fireTransferError(resource, e, TransferEvent.REQUEST_GET);
             throw new TransferFailedException(e.getMessage(), e);
-        } catch (final GitAPIException e) {
-            throw new TransferFailedException(e.getMessage(), e);
-        } catch (final URISyntaxException e) {
-            throw new TransferFailedException(e.getMessage(), e);
         }
+        if (transferListeners > 0) {
+            postProcessListeners(resource, source, TransferEvent.REQUEST_GET);
+        }
+        fireGetCompleted(resource, null);
     }
 
     /**
-     * {@inheritDoc}
+     * Copies the file into the work tree with a file channel rather than
+     * through streams. In bare mode the file is streamed into the object
+     * database instead. {@inheritDoc}
      */
     @Override
-    public boolean resourceExists(final String resourceName) throws TransferFailedException {
+    public void put(final File source,
+        final String destination) throws TransferFailedException,
+        ResourceDoesNotExistException,
+        AuthorizationException {
 
-        final File file;
+        if (isBare()) {
+            super.put(source, destination);
+            return;
+        }
+        final Resource resource = new Resource(destination);
+        firePutInitiated(resource, source);
+        if (!source.isFile()) {
+            final TransferFailedException e = new TransferFailedException(format(R.getString("filenotfound"), source)); //$NON-NLS-1$
+            fireTransferError(resource, e, TransferEvent.REQUEST_PUT);
+            throw e;
+        }
+        resource.setContentLength(source.length());
+        resource.setLastModified(source.lastModified());
+        final File file = getDestinationFile(resource);
+        firePutStarted(resource, source);
+        final long start = System.nanoTime();
         try {
-            file = getFileForResource(resourceName);
-        } catch (final GitAPIException e) {
-            throw new TransferFailedException(e.getMessage(), e);
+            final FileInputStream in = new FileInputStream(source);
+            try {
+                final FileOutputStream out = new FileOutputStream(file);
+                try {
+                    metrics.record(Phase.PUT, start, transfer(in.getChannel(), out.getChannel()));
+                } finally {
+                    out.close();
+                }
+            } finally {
+                in.close();
+            }
         } catch (final IOException e) {
+            fireTransferError(resource, e, TransferEvent.REQUEST_PUT);
             throw new TransferFailedException(e.getMessage(), e);
-        } catch (final URISyntaxException e) {
-            throw new TransferFailedException(e.getMessage(), e);
         }
+        if (transferListeners > 0) {
+            postProcessListeners(resource, source, TransferEvent.REQUEST_PUT);
+        }
+        firePutCompleted(resource, source);
+    }
 
-        if (resourceName.endsWith("/")) { //$NON-NLS-1$
-            return file.isDirectory();
+    /**
+     * Copies the file into the work tree with a file channel when the stream
+     * reads from a file. {@inheritDoc}
+     */
+    @Override
+    public void putFromStream(final InputStream stream,
+        final String destination) throws TransferFailedException,
+        ResourceDoesNotExistException,
+        AuthorizationException {
+
+        if (isBare() || !(stream instanceof FileInputStream)) {
+            super.putFromStream(stream, destination);
+            return;
+        }
+        putFromFileStream((FileInputStream) stream, new Resource(destination));
+    }
+
+    /**
+     * Copies the file into the work tree with a file channel when the stream
+     * reads from a file. {@inheritDoc}
+     */
+    @Override
+    public void putFromStream(final InputStream stream,
+        final String destination,
+        final long contentLength,
+        final long lastModified) throws TransferFailedException,
+        ResourceDoesNotExistException,
+        AuthorizationException {
+
+        if (isBare() || !(stream instanceof FileInputStream)) {
+            super.putFromStream(stream, destination, contentLength, lastModified);
+            return;
+        }
+        final Resource resource = new Resource(destination);
+        resource.setContentLength(contentLength);
+        resource.setLastModified(lastModified);
+        putFromFileStream((FileInputStream) stream, resource);
+    }
+
+    /**
+     * Copies the rest of a file stream into the work tree with a file channel.
+     *
+     * @param stream
+     *            file stream, it is not closed.
+     * @param resource
+     *            resource
+     * @throws TransferFailedException
+     * @throws ResourceDoesNotExistException
+     * @throws AuthorizationException
+     */
+    private void putFromFileStream(final FileInputStream stream,
+        final Resource resource) throws TransferFailedException,
+        ResourceDoesNotExistException,
+        AuthorizationException {
+
+        firePutInitiated(resource, null);
+        final File file = getDestinationFile(resource);
+        firePutStarted(resource, null);
+        final long start = System.nanoTime();
+        try {
+            final FileOutputStream out = new FileOutputStream(file);
+            try {
+                metrics.record(Phase.PUT, start, transfer(stream.getChannel(), out.getChannel()));
+            } finally {
+                out.close();
+            }
+        } catch (final IOException e) {
+            fireTransferError(resource, e, TransferEvent.REQUEST_PUT);
+            throw new TransferFailedException(e.getMessage(), e);
+        }
+        if (transferListeners > 0) {
+            postProcessListeners(resource, file, TransferEvent.REQUEST_PUT);
+        }
+        firePutCompleted(resource, null);
+    }
+
+    /**
+     * Directory holding the persistent clones and other data kept between
+     * builds.
+     *
+     * @return cache directory
+     */
+    protected File getCacheDirectory() {
+
+        return cacheDirectory;
+    }
+
+    /**
+     * This will get the file object for the given resource relative to the
+     * {@link Git} specified for the connection. It will handle resources where
+     * it jumps up past the parent folder.
+     *
+     * @param resourceName
+     *            resource name.
+     * @return file used for the resource.
+     * @throws IOException
+     * @throws GitAPIException
+     *             problem with the GIT API.
+     * @throws URISyntaxException
+     * @throws ResourceDoesNotExistException
+     */
+    protected abstract File getFileForResource(String resourceName) throws GitAPIException,
+        IOException,
+        URISyntaxException;
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Warnings are suppressed for false positive with Sonar and multiple
+     * exceptions on public API. {@inheritDoc}
+     * </p>
+     */
+    @Override
+    @SuppressWarnings("all")
+    public List<String> getFileList(final String directory) throws TransferFailedException,
+        ResourceDoesNotExistException,
+        AuthorizationException {
+
+        final File dir;
+        try {
+            dir = getFileForResource(directory);
+        } catch (final GitAPIException e) {
+            throw new AuthorizationException(e.getMessage(), e);
+        } catch (final IOException e) {
+            throw new TransferFailedException(e.getMessage(), e);
+        } catch (final URISyntaxException e) {
+            throw new ResourceDoesNotExistException(e.getMessage(), e);
+        }
+        final SortedSet<String> names;
+        try {
+            final WorkingCopy workingCopy = getWorkingCopy(dir);
+            final String path = workingCopy.getPath(dir);
+            names = isIndexed(workingCopy, path) ? workingCopy.getNames(path) : null;
+        } catch (final IOException e) {
+            throw new TransferFailedException(e.getMessage(), e);
+        }
+        if (names != null) {
+            return new ArrayList<String>(names);
+        }
+        if (isBare()) {
+            throw new ResourceDoesNotExistException(format(R.getString("dirnotfound"), dir)); //$NON-NLS-1$
+        }
+        final File[] files = dir.listFiles();
+        if (files == null) {
+            throw new ResourceDoesNotExistException(format(R.getString("dirnotfound"), dir)); //$NON-NLS-1$
+        }
+        final List<String> list = new ArrayList<String>(files.length);
+        for (final File file : files) {
+            String name = file.getName();
+            if (file.isDirectory() && !name.endsWith("/")) { //$NON-NLS-1$
+                name += "/"; // NOPMD this is easier to read. //$NON-NLS-1$
+            }
+            list.add(name);
+        }
+        return list;
+    }
+
+    /**
+     * Collects the files of a directory.
+     *
+     * @param sourceDirectory
+     *            source directory
+     * @param path
+     *            repository path of the destination directory, an empty string
+     *            for the root.
+     * @param sourceFiles
+     *            receives the source files keyed by their repository path
+     * @param sourcePaths
+     *            receives the repository paths of the source files and
+     *            directories, the latter ending with "/".
+     * @throws IOException
+     *             I/O error
+     */
+    private static void collectFiles(final File sourceDirectory,
+        final String path,
+        final Map<String, File> sourceFiles,
+        final Set<String> sourcePaths) throws IOException {
+
+        final File[] files = sourceDirectory.listFiles();
+        if (files == null) {
+            throw new IOException(format(R.getString("dirnotfound"), sourceDirectory)); //$NON-NLS-1$
+        }
+        for (final File file : files) {
+            final String filePath = path.length() == 0 ? file.getName() : path + "/" + file.getName(); //$NON-NLS-1$
+            if (file.isDirectory()) {
+                sourcePaths.add(filePath + "/"); //$NON-NLS-1$
+                collectFiles(file, filePath, sourceFiles, sourcePaths);
+            } else {
+                sourcePaths.add(filePath);
+                sourceFiles.put(filePath, file);
+            }
+        }
+    }
+
+    /**
+     * Copies a file using
+     * {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)}
+     * so the operating system can copy the data without passing it through the
+     * JVM. The parent directories are created if needed.
+     *
+     * @param source
+     *            source file
+     * @param destination
+     *            destination file
+     * @throws IOException
+     *             I/O error
+     */
+    private static void copyFile(final File source,
+        final File destination) throws IOException {
+
+        final File parent = destination.getParentFile();
+        if (!parent.mkdirs() && !parent.isDirectory()) {
+            throw new IOException(format(R.getString("unabletocreatedirs"), parent)); //$NON-NLS-1$
+        }
+        final FileInputStream in = new FileInputStream(source);
+        try {
+            final FileOutputStream out = new FileOutputStream(destination);
+            try {
+                transfer(in.getChannel(), out.getChannel());
+            } finally {
+                out.close();
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Deletes the files in the destination directory that are not in the source
+     * directory. The files that are in the index are marked as touched so they
+     * are removed from it when the commit is made.
+     *
+     * @param workingCopy
+     *            working copy
+     * @param index
+     *            index of the working copy as read before the copy
+     * @param destinationDirectory
+     *            destination directory in the work tree
+     * @param path
+     *            repository path of the destination directory, an empty string
+     *            for the root.
+     * @param sourcePaths
+     *            repository paths of the source files and directories
+     * @throws IOException
+     *             I/O error
+     */
+    private void deleteExtraneous(final WorkingCopy workingCopy,
+        final DirCache index,
+        final File destinationDirectory,
+        final String path,
+        final Set<String> sourcePaths) throws IOException {
+
+        deleteExtraneousFiles(destinationDirectory, path, sourcePaths);
+        final String prefix = path.length() == 0 ? path : path + "/"; //$NON-NLS-1$
+        for (int i = 0; i < index.getEntryCount(); ++i) {
+            final String entryPath = index.getEntry(i)
+                .getPathString();
+            if (entryPath.startsWith(prefix) && !sourcePaths.contains(entryPath)) {
+                workingCopy.touch(entryPath);
+            }
+        }
+    }
+
+    /**
+     * Deletes the files and directories in the work tree that are not in the
+     * source directory.
+     *
+     * @param directory
+     *            directory in the work tree
+     * @param path
+     *            repository path of the directory, an empty string for the
+     *            root.
+     * @param sourcePaths
+     *            repository paths of the source files and directories
+     * @throws IOException
+     *             I/O error
+     */
+    private void deleteExtraneousFiles(final File directory,
+        final String path,
+        final Set<String> sourcePaths) throws IOException {
+
+        final File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (final File file : files) {
+            if (path.length() == 0 && Constants.DOT_GIT.equals(file.getName())) {
+                continue;
+            }
+            final String filePath = path.length() == 0 ? file.getName() : path + "/" + file.getName(); //$NON-NLS-1$
+            if (file.isDirectory() && sourcePaths.contains(filePath + "/")) { //$NON-NLS-1$
+                deleteExtraneousFiles(file, filePath, sourcePaths);
+            } else if (!sourcePaths.contains(filePath)) {
+                FileUtils.forceDelete(file);
+            }
+        }
+    }
+
+    /**
+     * This will create or refresh the working copy. If the working copy cannot
+     * be pulled cleanly this method will fail.
+     *
+     * @param gitRepositoryUri
+     *            remote git repository URI string
+     * @return git
+     * @throws GitAPIException
+     * @throws IOException
+     * @throws URISyntaxException
+     * @throws ResourceDoesNotExistException
+     *             remote repository does not exist.
+     */
+    protected Git getGit(final String gitRepositoryUri) throws GitAPIException,
+        IOException,
+        URISyntaxException,
+        ResourceDoesNotExistException {
+
+        final WorkingCopy cachedWorkingCopy = gitCache.get(gitRepositoryUri);
+        if (cachedWorkingCopy != null) {
+            return cachedWorkingCopy.getGit();
+        }
+
+        final WorkingCopy workingCopy;
+        if (shareWorkingCopies) {
+            workingCopy = WorkingCopyRegistry.getInstance()
+                .acquire(getRegistryKey(gitRepositoryUri), new WorkingCopyRegistry.Factory() {
+
+                    @Override
+                    public WorkingCopy newWorkingCopy() throws GitAPIException,
+                        IOException,
+                        URISyntaxException,
+                        ResourceDoesNotExistException {
+
+                        final long start = System.nanoTime();
+                        final WorkingCopy workingCopy = openWorkingCopy(gitRepositoryUri);
+                        metrics.record(Phase.CLONE, start, 0);
+                        return workingCopy;
+                    }
+                });
+        } else {
+            final long start = System.nanoTime();
+            workingCopy = openWorkingCopy(gitRepositoryUri);
+            metrics.record(Phase.CLONE, start, 0);
+        }
+        gitCache.put(gitRepositoryUri, workingCopy);
+        return workingCopy.getGit();
+    }
+
+    /**
+     * Gets the key of a working copy in {@link WorkingCopyRegistry}. Besides
+     * the repository and branch it includes the settings that change how the
+     * clone is made or written to so wagons only share compatible clones.
+     *
+     * @param gitRepositoryUri
+     *            remote git repository URI string
+     * @return key
+     */
+    private String getRegistryKey(final String gitRepositoryUri) {
+
+        final String sparsePath = getSparsePath(gitRepositoryUri);
+        return gitRepositoryUri + "?" + gitUri.getBranchName() + (isBare() ? " bare" : "") + (sparsePath == null ? "" : " sparse=" + sparsePath); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$
+    }
+
+    /**
+     * Gets the file for a resource in the work tree of a repository obtained
+     * from {@link #getGit(String)}.
+     *
+     * @param gitRepositoryUri
+     *            remote git repository URI string
+     * @param resource
+     *            resource path relative to the work tree
+     * @return file
+     * @throws IOException
+     *             the file is not in the work tree.
+     */
+    protected File getWorkTreeFile(final String gitRepositoryUri,
+        final String resource) throws IOException {
+
+        final WorkingCopy workingCopy = gitCache.get(gitRepositoryUri);
+        final File workTree = workingCopy.getWorkTree();
+        final File file = new File(workTree, resource);
+        if (!workingCopy.isInWorkTree(file)) {
+            throw new IOException(format(R.getString("notInWorkTree"), file, workTree)); //$NON-NLS-1$
+        }
+        return file;
+    }
+
+    /**
+     * Gets the working copy whose work tree contains the file.
+     *
+     * @param file
+     *            file obtained from {@link #getFileForResource(String)}
+     * @return working copy
+     * @throws IOException
+     *             the file is not in any working copy.
+     */
+    private WorkingCopy getWorkingCopy(final File file) throws IOException {
+
+        if (file != null) {
+            for (final WorkingCopy workingCopy : gitCache.values()) {
+                if (workingCopy.getPath(file) != null) {
+                    return workingCopy;
+                }
+            }
+        }
+        throw new IOException(format(R.getString("noworkingcopy"), file)); //$NON-NLS-1$
+    }
+
+    /**
+     * Gets the directory to check out when {@link #sparseCheckout} is enabled.
+     * Only the repository of {@link #gitUri} is checked out sparsely.
+     *
+     * @param gitRepositoryUri
+     *            remote git repository URI string
+     * @return repository path of the directory or <code>null</code> if the
+     *         whole branch is to be checked out.
+     */
+    private String getSparsePath(final String gitRepositoryUri) {
+
+        if (!sparseCheckout || gitUri.getResource() == null || !gitRepositoryUri.equals(gitUri.getGitRepositoryUri())) {
+            return null;
+        }
+        final String path = FileUtils.normalize("/" + gitUri.getResource() + "/"); //$NON-NLS-1$ //$NON-NLS-2$
+        if (path == null || "/".equals(path)) { //$NON-NLS-1$
+            return null;
+        }
+        return path.substring(1, path.length() - 1);
+    }
+
+    protected GitUri getGitUri() {
+
+        return gitUri;
+    }
+
+    /**
+     * Checks if a file in the work tree has the same contents as the source
+     * file. The blob ID from the index is used for the work tree file if its
+     * stat data shows it has not been modified since it was checked out.
+     *
+     * @param entry
+     *            index entry, may be <code>null</code>
+     * @param source
+     *            source file
+     * @param destination
+     *            file in the work tree
+     * @return <code>true</code> if the contents are the same.
+     * @throws IOException
+     *             I/O error
+     */
+    private static boolean isSameContent(final DirCacheEntry entry,
+        final File source,
+        final File destination) throws IOException {
+
+        if (!destination.isFile() || destination.length() != source.length()) {
+            return false;
+        }
+        final ObjectId destinationId;
+        if (entry != null && !entry.isSmudged() && entry.getLength() == destination.length() && entry.getLastModified() == destination.lastModified()) {
+            destinationId = entry.getObjectId();
+        } else {
+            destinationId = blobId(destination);
+        }
+        return destinationId.equals(blobId(source));
+    }
+
+    /**
+     * Checks if reads and writes go through the object database rather than the
+     * work tree.
+     *
+     * @return <code>true</code> if {@link #bare}, {@link #noCheckout} or
+     *         {@link #inMemory} is set.
+     */
+    private boolean isBare() {
+
+        return bare || noCheckout || inMemory;
+    }
+
+    /**
+     * Opens a working copy held in memory if it is enabled and fits in
+     * {@link #inMemoryLimit}, then from the persistent cache if it is enabled
+     * and available, otherwise clones into a temporary directory. The clones
+     * are made by {@link #cloner} and kept in {@link #cloneCache}.
+     *
+     * @param gitRepositoryUri
+     *            remote git repository URI string
+     * @return working copy
+     * @throws GitAPIException
+     * @throws IOException
+     * @throws URISyntaxException
+     * @throws ResourceDoesNotExistException
+     *             remote repository does not exist.
+     */
+    private WorkingCopy openWorkingCopy(final String gitRepositoryUri) throws GitAPIException,
+        IOException,
+        URISyntaxException,
+        ResourceDoesNotExistException {
+
+        WorkingCopy workingCopy = null;
+        if (inMemory) {
+            workingCopy = cloner.openInMemory(gitRepositoryUri, new File(System.getProperty("java.io.tmpdir"), "wagon-git-memory-" + cloneCache.getKey(gitRepositoryUri)), inMemoryLimit); //$NON-NLS-1$ //$NON-NLS-2$
+        }
+        if (workingCopy == null && persistentCache) {
+            workingCopy = cloneCache.open(gitRepositoryUri, getSparsePath(gitRepositoryUri));
+        }
+        if (workingCopy == null) {
+            final File gitDir = File.createTempFile(gitRepositoryUri.replaceAll("[^A-Za-z]", "_"), "wagon-git"); //$NON-NLS-1$
+            gitDir.delete();
+            gitDir.mkdir();
+            workingCopy = new WorkingCopy(gitRepositoryUri, cloner.cloneRepository(gitRepositoryUri, gitDir, cloner.getAlternateObjectsDirectory(gitRepositoryUri), getSparsePath(gitRepositoryUri)), null);
+        }
+        return workingCopy;
+    }
+
+    /**
+     * Sets the initial git URI and creates the collaborators that clone, cache
+     * and push the repositories of the connection with the current settings.
+     */
+    @Override
+    protected void openConnectionInternal() throws ConnectionException,
+        AuthenticationException {
+
+        transportConfigCallback = new JSchAgentCapableTransportConfigCallback(getAuthenticationInfo());
+        metrics = new SessionMetrics();
+        URI uri;
+        try {
+            final URI repositoryUrl = new URI(getRepository().getUrl()
+                .replace("##", "#"));
+            // the fragment is kept as it names the directory being deployed
+            // to which is used for sparse checkouts.
+            if (repositoryUrl.getRawFragment() == null) {
+                uri = new URI(repositoryUrl.getSchemeSpecificPart()).normalize();
+            } else {
+                uri = new URI(repositoryUrl.getRawSchemeSpecificPart() + "#" + repositoryUrl.getRawFragment()).normalize(); //$NON-NLS-1$
+            }
+            final long start = System.nanoTime();
+            gitUri = buildGitUri(uri);
+            metrics.record(Phase.RESOLVE, start, 0);
+        } catch (final URISyntaxException e) {
+            throw new ConnectionException(e.getMessage(), e);
+        } catch (final IOException e) {
+            throw new ConnectionException(e.getMessage(), e);
+        }
+
+        final CredentialsProvider credentialsProvider;
+        if (getAuthenticationInfo().getPassphrase() != null) {
+            credentialsProvider = new PassphraseCredentialsProvider(getAuthenticationInfo().getPassphrase());
+        } else {
+            credentialsProvider = new UsernamePasswordCredentialsProvider(getAuthenticationInfo().getUserName(), getAuthenticationInfo().getPassword() == null ? "" //$NON-NLS-1$
+                            : getAuthenticationInfo().getPassword());
+        }
+        cloner = new Cloner(gitUri.getBranchName(), credentialsProvider, transportConfigCallback, metrics, noCheckout, singleBranch, shareLocalObjects, referenceRepositories);
+        cloneCache = new CloneCache(cacheDirectory, gitUri.getBranchName(), cloner);
+        pusher = new Pusher(credentialsProvider, transportConfigCallback, metrics, isBare(), historyLimit, pushRetries, packDepth, packThreads, packWindow);
+    }
+
+    /**
+     * Logs the metrics of the session and appends them to {@link #metricsFile}
+     * if it is set. Failing to write the file is logged rather than failing the
+     * deploy.
+     */
+    private void reportMetrics() {
+
+        LOG.log(Level.INFO, "sessionmetrics", new Object[] { //$NON-NLS-1$
+            getRepository().getUrl(),
+            metrics.getElapsedMillis(),
+            metrics.toSummary()
+        });
+        if (metricsFile == null) {
+            return;
+        }
+        try {
+            metrics.appendJson(metricsFile, getRepository().getUrl());
+        } catch (final IOException e) {
+            LOG.log(Level.WARNING, "metricsfilefailed", new Object[] { //$NON-NLS-1$
+                metricsFile,
+                e.getMessage()
+            });
+        }
+    }
+
+    /**
+     * If the destination directory is not inside the source directory (denoted
+     * by starting with "../"), then another git repository is registered. Only
+     * the files that are new or have changed are copied into the work tree. In
+     * {@link #mirror} mode files in the destination directory that are not in
+     * the source directory are deleted. Warnings are suppressed for false
+     * positive with Sonar and multiple exceptions on public API. {@inheritDoc}
+     */
+    @Override
+    @SuppressWarnings("all")
+    public void putDirectory(final File sourceDirectory,
+        final String destinationDirectory) throws TransferFailedException,
+        ResourceDoesNotExistException,
+        AuthorizationException {
+
+        final long start = System.nanoTime();
+        try {
+            if (!sourceDirectory.isDirectory()) {
+                throw new ResourceDoesNotExistException(format(R.getString("dirnotfound"), sourceDirectory)); //$NON-NLS-1$
+            }
+            final File fileForResource = getFileForResource(destinationDirectory);
+            if (fileForResource == null) {
+                throw new ResourceDoesNotExistException(format(R.getString("dirnotfound"), destinationDirectory)); //$NON-NLS-1$
+            }
+            final WorkingCopy workingCopy = getWorkingCopy(fileForResource);
+            final String path = workingCopy.getPath(fileForResource);
+            final Map<String, File> sourceFiles = new TreeMap<String, File>();
+            final Set<String> sourcePaths = new HashSet<String>();
+            collectFiles(sourceDirectory, path, sourceFiles, sourcePaths);
+            if (isBare()) {
+                uploadFiles(workingCopy, null, sourceFiles);
+                if (mirror) {
+                    for (final String existingPath : workingCopy.getPaths(path)) {
+                        if (!sourcePaths.contains(existingPath)) {
+                            workingCopy.stageDeletion(existingPath);
+                        }
+                    }
+                }
+            } else {
+                if (!fileForResource.mkdirs() && !fileForResource.isDirectory()) {
+                    throw new IOException(format(R.getString("unabletocreatedirs"), fileForResource)); //$NON-NLS-1$
+                }
+                final DirCache index = workingCopy.getGit()
+                    .getRepository()
+                    .readDirCache();
+                uploadFiles(workingCopy, index, sourceFiles);
+                if (mirror) {
+                    deleteExtraneous(workingCopy, index, fileForResource, path, sourcePaths);
+                }
+            }
+        } catch (final IOException e) {
+            throw new TransferFailedException(e.getMessage(), e);
+        } catch (final GitAPIException e) {
+            throw new TransferFailedException(e.getMessage(), e);
+        } catch (final URISyntaxException e) {
+            throw new TransferFailedException(e.getMessage(), e);
+        } finally {
+            metrics.record(Phase.PUT_DIRECTORY, start, 0);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean resourceExists(final String resourceName) throws TransferFailedException {
+
+        final File file;
+        try {
+            file = getFileForResource(resourceName);
+        } catch (final GitAPIException e) {
+            throw new TransferFailedException(e.getMessage(), e);
+        } catch (final IOException e) {
+            throw new TransferFailedException(e.getMessage(), e);
+        } catch (final URISyntaxException e) {
+            throw new TransferFailedException(e.getMessage(), e);
+        }
+
+        try {
+            final WorkingCopy workingCopy = getWorkingCopy(file);
+            final String path = workingCopy.getPath(file);
+            if (isIndexed(workingCopy, path)) {
+                if (resourceName.endsWith("/")) { //$NON-NLS-1$
+                    return workingCopy.isDirectory(path);
+                }
+                return workingCopy.getBlob(path) != null || workingCopy.isDirectory(path);
+            }
+        } catch (final IOException e) {
+            throw new TransferFailedException(e.getMessage(), e);
+        }
+
+        if (resourceName.endsWith("/")) { //$NON-NLS-1$
+            return file.isDirectory();
         }
 
         return file.exists();
     }
 
+    /**
+     * Checks if a path can be looked up in the tree of HEAD of a working copy
+     * instead of the file system. This is always the case in {@link #bare}
+     * mode. When checked out, the work tree only matches HEAD if the whole
+     * branch was checked out and the path was not written in this session.
+     *
+     * @param workingCopy
+     *            working copy
+     * @param path
+     *            repository path
+     * @return <code>true</code> if the path is looked up in HEAD.
+     */
+    private boolean isIndexed(final WorkingCopy workingCopy,
+        final String path) {
+
+        return isBare() || getSparsePath(workingCopy.getGitRepositoryUri()) == null && !workingCopy.isTouched(path);
+    }
+
+    /**
+     * Enables bare mode where uploads are written into the object database
+     * rather than the work tree.
+     *
+     * @param bare
+     *            <code>true</code> to write uploads into the object database.
+     */
+    public void setBare(final boolean bare) {
+
+        this.bare = bare;
+    }
+
+    /**
+     * Sets the directory holding the persistent clones.
+     *
+     * @param cacheDirectory
+     *            cache directory
+     */
+    public void setCacheDirectory(final File cacheDirectory) {
+
+        this.cacheDirectory = cacheDirectory;
+    }
+
+    /**
+     * Sets the number of commits kept on the branch when its history is
+     * trimmed.
+     *
+     * @param historyLimit
+     *            number of commits, zero to keep the whole history.
+     */
+    public void setHistoryLimit(final int historyLimit) {
+
+        this.historyLimit = historyLimit;
+    }
+
+    /**
+     * Enables holding the clones in memory so a deploy does not write to the
+     * local disk. This implies bare mode.
+     *
+     * @param inMemory
+     *            <code>true</code> to hold the clones in memory.
+     */
+    public void setInMemory(final boolean inMemory) {
+
+        this.inMemory = inMemory;
+    }
+
+    /**
+     * Sets the size of the fetched objects above which a clone is made on disk
+     * rather than held in memory.
+     *
+     * @param inMemoryLimit
+     *            size in bytes, zero to not limit the size.
+     */
+    public void setInMemoryLimit(final long inMemoryLimit) {
+
+        this.inMemoryLimit = inMemoryLimit;
+    }
+
+    /**
+     * Sets the maximum number of repositories committed and pushed at the same
+     * time when the connection is closed.
+     *
+     * @param closeThreads
+     *            number of threads
+     */
+    public void setCloseThreads(final int closeThreads) {
+
+        this.closeThreads = closeThreads;
+    }
+
+    /**
+     * Sets the file the metrics of each session are appended to as a line of
+     * JSON.
+     *
+     * @param metricsFile
+     *            metrics file
+     */
+    public void setMetricsFile(final File metricsFile) {
+
+        this.metricsFile = metricsFile;
+    }
+
+    /**
+     * Enables mirror mode where {@link #putDirectory(File, String)} deletes the
+     * files that are not in the source directory.
+     *
+     * @param mirror
+     *            <code>true</code> to delete files not in the source directory.
+     */
+    public void setMirror(final boolean mirror) {
+
+        this.mirror = mirror;
+    }
+
+    /**
+     * Sets the maximum number of files uploaded at the same time by
+     * {@link #putDirectory(File, String)}.
+     *
+     * @param putThreads
+     *            number of threads
+     */
+    public void setPutThreads(final int putThreads) {
+
+        this.putThreads = putThreads;
+    }
+
+    /**
+     * Sets the maximum delta chain depth of the pack sent on push.
+     *
+     * @param packDepth
+     *            depth, zero for the JGit default.
+     */
+    public void setPackDepth(final int packDepth) {
+
+        this.packDepth = packDepth;
+    }
+
+    /**
+     * Sets the number of threads used to search for deltas when building the
+     * pack sent on push.
+     *
+     * @param packThreads
+     *            number of threads, zero for the JGit default.
+     */
+    public void setPackThreads(final int packThreads) {
+
+        this.packThreads = packThreads;
+    }
+
+    /**
+     * Sets the number of objects compared with each object when searching for
+     * deltas for the pack sent on push.
+     *
+     * @param packWindow
+     *            window size, zero for the JGit default.
+     */
+    public void setPackWindow(final int packWindow) {
+
+        this.packWindow = packWindow;
+    }
+
+    /**
+     * Sets the number of times a push that was rejected because someone else
+     * updated the branch is retried.
+     *
+     * @param pushRetries
+     *            number of retries, zero to fail on the first rejection.
+     */
+    public void setPushRetries(final int pushRetries) {
+
+        this.pushRetries = pushRetries;
+    }
+
+    /**
+     * Enables cloning without a checkout. This implies bare mode.
+     *
+     * @param noCheckout
+     *            <code>true</code> to skip checking out the work tree.
+     */
+    public void setNoCheckout(final boolean noCheckout) {
+
+        this.noCheckout = noCheckout;
+    }
+
+    /**
+     * Enables the persistent clone cache.
+     *
+     * @param persistentCache
+     *            <code>true</code> to keep clones between sessions.
+     */
+    public void setPersistentCache(final boolean persistentCache) {
+
+        this.persistentCache = persistentCache;
+    }
+
+    /**
+     * Sets the local repositories, usually mirrors, whose objects seed the
+     * clones like <code>git clone --reference</code> does. The keys are remote
+     * git repository URIs and the values the paths of the repositories.
+     *
+     * @param referenceRepositories
+     *            reference repositories keyed by remote URI.
+     */
+    public void setReferenceRepositories(final Properties referenceRepositories) {
+
+        this.referenceRepositories = referenceRepositories;
+    }
+
+    /**
+     * Limits clones to the branch that is being deployed to.
+     *
+     * @param singleBranch
+     *            <code>true</code> to only fetch the deployment branch.
+     */
+    public void setSingleBranch(final boolean singleBranch) {
+
+        this.singleBranch = singleBranch;
+    }
+
+    /**
+     * Enables cloning remotes on the local file system by referring to their
+     * objects like <code>git clone --shared</code> does.
+     *
+     * @param shareLocalObjects
+     *            <code>true</code> to share the objects of local remotes.
+     */
+    public void setShareLocalObjects(final boolean shareLocalObjects) {
+
+        this.shareLocalObjects = shareLocalObjects;
+    }
+
+    /**
+     * Enables sharing working copies with the other wagons of the JVM so each
+     * repository is cloned and pushed once per build.
+     *
+     * @param shareWorkingCopies
+     *            <code>true</code> to share working copies.
+     */
+    public void setShareWorkingCopies(final boolean shareWorkingCopies) {
+
+        this.shareWorkingCopies = shareWorkingCopies;
+    }
+
+    /**
+     * Enables sparse checkout of the directory given in the repository URL.
+     *
+     * @param sparseCheckout
+     *            <code>true</code> to only check out the deployed directory.
+     */
+    public void setSparseCheckout(final boolean sparseCheckout) {
+
+        this.sparseCheckout = sparseCheckout;
+    }
+
+    /**
+     * Uploads a file into the working copy. In bare mode the file is staged as
+     * a blob, otherwise it is copied into the work tree unless the work tree
+     * already has the same contents. Put events are sent to the transfer
+     * listeners one at a time as the listeners are not expected to be thread
+     * safe.
+     *
+     * @param workingCopy
+     *            working copy
+     * @param index
+     *            index of the working copy, <code>null</code> in bare mode.
+     * @param path
+     *            repository path
+     * @param source
+     *            source file
+     * @throws IOException
+     *             I/O error
+     */
+    private void uploadFile(final WorkingCopy workingCopy,
+        final DirCache index,
+        final String path,
+        final File source) throws IOException {
+
+        final Resource resource = new Resource(path);
+        resource.setContentLength(source.length());
+        resource.setLastModified(source.lastModified());
+        synchronized (transferEventLock) {
+            firePutInitiated(resource, source);
+            firePutStarted(resource, source);
+        }
+        final long start = System.nanoTime();
+        try {
+            if (index == null) {
+                workingCopy.reserve(path, source.length());
+                final InputStream in = new FileInputStream(source);
+                try {
+                    workingCopy.insertBlob(path, source.length(), in);
+                } finally {
+                    in.close();
+                }
+                metrics.record(Phase.PUT, start, source.length());
+            } else {
+                final File destination = new File(workingCopy.getGit()
+                    .getRepository()
+                    .getWorkTree(), path);
+                if (isSameContent(index.getEntry(path), source, destination)) {
+                    metrics.record(Phase.PUT, start, 0);
+                } else {
+                    workingCopy.touch(path);
+                    copyFile(source, destination);
+                    metrics.record(Phase.PUT, start, source.length());
+                }
+            }
+        } catch (final IOException e) {
+            synchronized (transferEventLock) {
+                fireTransferError(resource, e, TransferEvent.REQUEST_PUT);
+            }
+            throw e;
+        }
+        synchronized (transferEventLock) {
+            firePutCompleted(resource, source);
+        }
+    }
+
+    /**
+     * Uploads files into the working copy in parallel using up to
+     * {@link #putThreads} threads.
+     *
+     * @param workingCopy
+     *            working copy
+     * @param index
+     *            index of the working copy, <code>null</code> in bare mode.
+     * @param sourceFiles
+     *            source files keyed by repository path
+     * @throws IOException
+     *             I/O error
+     */
+    private void uploadFiles(final WorkingCopy workingCopy,
+        final DirCache index,
+        final Map<String, File> sourceFiles) throws IOException {
+
+        if (sourceFiles.isEmpty()) {
+            return;
+        }
+        final ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(putThreads, sourceFiles.size())));
+        try {
+            final List<Future<Void>> futures = new ArrayList<Future<Void>>(sourceFiles.size());
+            for (final Map.Entry<String, File> sourceFile : sourceFiles.entrySet()) {
+                futures.add(executor.submit(new Callable<Void>() {
+
+                    @Override
+                    public Void call() throws IOException {
+
+                        uploadFile(workingCopy, index, sourceFile.getKey(), sourceFile.getValue());
+                        return null;
+                    }
+                }));
+            }
+            for (final Future<Void> future : futures) {
+                future.get();
+            }
+        } catch (final ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        } catch (final InterruptedException e) {
+            Thread.currentThread()
+                .interrupt();
+            throw new InterruptedIOException(e.getMessage());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
     /**
      * Directory copy is supported.
      *
@@ -1,11 +1,18 @@
 package net.trajano.wagon.git.internal;
 
 import java.io.File;
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
 
 import org.apache.maven.wagon.authentication.AuthenticationInfo;
 
+import org.eclipse.jgit.errors.TransportException;
+import org.eclipse.jgit.transport.CredentialsProvider;
 import org.eclipse.jgit.transport.JschConfigSessionFactory;
 import org.eclipse.jgit.transport.OpenSshConfig.Host;
+import org.eclipse.jgit.transport.RemoteSession;
+import org.eclipse.jgit.transport.URIish;
 import org.eclipse.jgit.util.FS;
 
 import com.jcraft.jsch.HostKey;
@@ -23,22 +30,162 @@ import com.jcraft.jsch.agentproxy.connector.SSHAgentConnector;
 import com.jcraft.jsch.agentproxy.usocket.JNAUSocketFactory;
 
 /**
- * A {@link JschConfigSessionFactory} that tries to use an ssh-agent.
+ * A {@link JschConfigSessionFactory} that tries to use an ssh-agent. The
+ * factory is meant to be kept for a wagon session, the {@link JSch} instance is
+ * created once and the SSH sessions are kept open in a
+ * {@link RemoteSessionPool} between the clone, fetch and push until
+ * {@link #close()} is called.
  *
  * @author Archimedes
  */
 public final class AgentJschConfigSessionFactory extends JschConfigSessionFactory {
 
+    /**
+     * Opens a single session. {@link JschConfigSessionFactory} holds its lock
+     * while connecting, so a new opener is used for each session so that
+     * sessions to different hosts are opened in parallel. The {@link JSch}
+     * instance of the outer factory is shared.
+     */
+    private final class SessionOpener extends JschConfigSessionFactory {
+
+        /**
+         * The session created by
+         * {@link #createSession(Host, String, String, int, FS)}.
+         */
+        private Session createdSession;
+
+        /**
+         * Does nothing. {@inheritDoc}
+         */
+        @Override
+        protected void configure(final Host hc,
+            final Session session) {
+
+        }
+
+        /**
+         * Uses the {@link JSch} instance of the outer factory. {@inheritDoc}
+         */
+        @Override
+        protected JSch createDefaultJSch(final FS fs) throws JSchException {
+
+            return getSharedJSch(fs);
+        }
+
+        /**
+         * Records the session so it can be checked when it is reused.
+         * {@inheritDoc}
+         */
+        @Override
+        protected Session createSession(final Host hc,
+            final String user,
+            final String host,
+            final int port,
+            final FS fs) throws JSchException {
+
+            createdSession = super.createSession(hc, user, host, port, fs);
+            return createdSession;
+        }
+    }
+
     /**
      * Authentication info.
      */
     private final AuthenticationInfo authenticationInfo;
 
+    /**
+     * SSH sessions keyed by the remote sessions that wrap them.
+     */
+    private final Map<RemoteSession, Session> jschSessions = Collections.synchronizedMap(new WeakHashMap<RemoteSession, Session>());
+
+    /**
+     * Sessions kept open.
+     */
+    private final RemoteSessionPool pool = new RemoteSessionPool(new RemoteSessionPool.Opener() {
+
+        @Override
+        public boolean isOpen(final RemoteSession session) {
+
+            final Session jschSession = jschSessions.get(session);
+            return jschSession != null && jschSession.isConnected();
+        }
+
+        @Override
+        public RemoteSession open(final URIish uri,
+            final CredentialsProvider credentialsProvider,
+            final FS fs,
+            final int tms) throws TransportException {
+
+            final SessionOpener opener = new SessionOpener();
+            final RemoteSession session = opener.getSession(uri, credentialsProvider, fs, tms);
+            if (opener.createdSession != null) {
+                jschSessions.put(session, opener.createdSession);
+            }
+            return session;
+        }
+    });
+
+    /**
+     * JSch instance shared by the sessions, created on first use.
+     */
+    private JSch sharedJSch;
+
     public AgentJschConfigSessionFactory(final AuthenticationInfo authenticationInfo) {
 
         this.authenticationInfo = authenticationInfo;
     }
 
+    /**
+     * Disconnects the SSH sessions that were kept open.
+     */
+    public void close() {
+
+        pool.close();
+    }
+
+    /**
+     * Reuses an open session to the same user, host and port. A session that
+     * was disconnected by the server is replaced. The factory is not locked
+     * while connecting. {@inheritDoc}
+     */
+    @Override
+    public RemoteSession getSession(final URIish uri,
+        final CredentialsProvider credentialsProvider,
+        final FS fs,
+        final int tms) throws TransportException {
+
+        return pool.getSession(uri, credentialsProvider, fs, tms);
+    }
+
+    /**
+     * Gets the {@link JSch} instance shared by the sessions.
+     *
+     * @param fs
+     *            file system
+     * @return JSch
+     * @throws JSchException
+     *             unable to create the instance.
+     */
+    private synchronized JSch getSharedJSch(final FS fs) throws JSchException {
+
+        if (sharedJSch == null) {
+            sharedJSch = createDefaultJSch(fs);
+        }
+        return sharedJSch;
+    }
+
+    /**
+     * Keeps the sessions that are reused open, they are disconnected by
+     * {@link #close()}. {@inheritDoc}
+     */
+    @Override
+    public void releaseSession(final RemoteSession session) {
+
+        if (!pool.contains(session)) {
+            super.releaseSession(session);
+        }
+    }
+
     /**
      * Does nothing. {@inheritDoc}
      */
@@ -57,14 +204,7 @@ public final class AgentJschConfigSessionFactory extends JschConfigSessionFactor
 
         try {
             final JSch jsch = new JSch();
-            // Use the known hosts in the home folder. There is no common Maven
-            // setting for this as of yet.
-            File knownHosts = new File(System.getProperty("user.home"), ".ssh/known_hosts");
-            if (knownHosts.exists()) {
-                jsch.setKnownHosts(knownHosts.getAbsolutePath());
-            } else {
-                jsch.setHostKeyRepository(new AcceptAllHostKeyRepository());
-            }
+            setHostKeyRepository(jsch);
             if (authenticationInfo.getPrivateKey() != null) {
                 if (authenticationInfo.getPassphrase() != null) {
                     jsch.addIdentity(authenticationInfo.getPrivateKey(), authenticationInfo.getPassphrase());
@@ -84,4 +224,23 @@ public final class AgentJschConfigSessionFactory extends JschConfigSessionFactor
             return super.createDefaultJSch(fs);
         }
     }
+
+    /**
+     * Uses the known hosts in the home folder. There is no common Maven setting
+     * for this as of yet. The known hosts file is shared by all sessions in the
+     * JVM through {@link IndexedHostKeyRepository} so it is only parsed again
+     * when it changes.
+     *
+     * @param jsch
+     *            JSch
+     */
+    private static void setHostKeyRepository(final JSch jsch) {
+
+        final File knownHosts = new File(System.getProperty("user.home"), ".ssh/known_hosts");
+        if (knownHosts.exists()) {
+            jsch.setHostKeyRepository(IndexedHostKeyRepository.getInstance(knownHosts));
+        } else {
+            jsch.setHostKeyRepository(new AcceptAllHostKeyRepository());
+        }
+    }
 }
@@ -0,0 +1,126 @@
+package net.trajano.wagon.git.internal;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import org.eclipse.jgit.util.TemporaryBuffer;
+
+/**
+ * An {@link OutputStream} that stages what is written as a blob in a
+ * {@link WorkingCopy} when it is closed. JGit needs the size of an object
+ * before it can be inserted, so the data is held in a {@link TemporaryBuffer}
+ * that is kept in memory for small files and spills to a file in the git
+ * directory for larger ones. Repositories held in memory do not have a git
+ * directory so the data is kept in memory for them, each write is reserved with
+ * {@link WorkingCopy#reserve(String, long)} first so the upload fails rather
+ * than going over the in memory limit.
+ */
+public class BlobOutputStream extends OutputStream {
+
+    /**
+     * Buffer.
+     */
+    private final TemporaryBuffer buffer;
+
+    /**
+     * Indicates the stream has been closed.
+     */
+    private boolean closed;
+
+    /**
+     * Indicates a write failed so the blob is incomplete and is not staged.
+     */
+    private boolean failed;
+
+    /**
+     * Repository path.
+     */
+    private final String path;
+
+    /**
+     * Working copy.
+     */
+    private final WorkingCopy workingCopy;
+
+    /**
+     * Constructs the stream.
+     *
+     * @param workingCopy
+     *            working copy
+     * @param path
+     *            repository path of the blob
+     */
+    public BlobOutputStream(final WorkingCopy workingCopy,
+        final String path) {
+
+        this.workingCopy = workingCopy;
+        this.path = path;
+        final File directory = workingCopy.getGit()
+            .getRepository()
+            .getDirectory();
+        buffer = directory == null ? new TemporaryBuffer.Heap(Integer.MAX_VALUE) : new TemporaryBuffer.LocalFile(directory);
+    }
+
+    /**
+     * Inserts the blob and stages it in the working copy unless a write failed.
+     * {@inheritDoc}
+     */
+    @Override
+    public void close() throws IOException {
+
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            if (failed) {
+                return;
+            }
+            buffer.close();
+            final InputStream in = buffer.openInputStream();
+            try {
+                workingCopy.insertBlob(path, buffer.length(), in);
+            } finally {
+                in.close();
+            }
+        } finally {
+            buffer.destroy();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void write(final byte[] b,
+        final int off,
+        final int len) throws IOException {
+
+        boolean written = false;
+        try {
+            workingCopy.reserve(path, len);
+            buffer.write(b, off, len);
+            written = true;
+        } finally {
+            failed |= !written;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void write(final int b) throws IOException {
+
+        boolean written = false;
+        try {
+            workingCopy.reserve(path, 1);
+            buffer.write(b);
+            written = true;
+        } finally {
+            failed |= !written;
+        }
+    }
+}
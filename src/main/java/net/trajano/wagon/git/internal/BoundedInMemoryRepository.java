@@ -0,0 +1,213 @@
+package net.trajano.wagon.git.internal;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.jgit.internal.storage.dfs.DfsRepositoryDescription;
+import org.eclipse.jgit.internal.storage.dfs.InMemoryRepository;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.ProgressMonitor;
+import org.eclipse.jgit.transport.PackParser;
+import org.eclipse.jgit.util.FS;
+
+/**
+ * Repository held in memory that counts the bytes of the packs it receives.
+ * JGit only provides {@link InMemoryRepository} in its internal storage package
+ * to hold a repository in memory, everything else used here is public API. The
+ * packs are counted as they are read by the pack parser, the progress monitor
+ * from {@link #newProgressMonitor(ProgressMonitor)} is cancelled once the count
+ * is over the limit which makes the parser stop the fetch after the object
+ * being received. Data written into the repository afterwards is reserved
+ * against what is left of the same limit with {@link #reserve(long)}.
+ */
+public final class BoundedInMemoryRepository extends InMemoryRepository {
+
+    /**
+     * Limit in bytes, 0 for none.
+     */
+    private final long limit;
+
+    /**
+     * Number of pack bytes received.
+     */
+    private final AtomicLong received = new AtomicLong();
+
+    /**
+     * Number of bytes reserved for data written into the repository.
+     */
+    private final AtomicLong reserved = new AtomicLong();
+
+    /**
+     * Constructs the repository.
+     *
+     * @param description
+     *            repository description
+     * @param limit
+     *            limit in bytes of the packs received, 0 for none.
+     */
+    public BoundedInMemoryRepository(final DfsRepositoryDescription description,
+        final long limit) {
+
+        super(description);
+        this.limit = limit;
+    }
+
+    /**
+     * The file system is needed to fetch from remotes on the local file system.
+     * {@inheritDoc}
+     */
+    @Override
+    public FS getFS() {
+
+        return FS.DETECTED;
+    }
+
+    /**
+     * Gets the limit.
+     *
+     * @return limit in bytes, 0 for none.
+     */
+    public long getLimit() {
+
+        return limit;
+    }
+
+    /**
+     * Gets the number of pack bytes received.
+     *
+     * @return number of bytes.
+     */
+    public long getReceivedBytes() {
+
+        return received.get();
+    }
+
+    /**
+     * Checks if more pack bytes than the limit were received.
+     *
+     * @return <code>true</code> if the limit is exceeded.
+     */
+    public boolean isLimitExceeded() {
+
+        return limit > 0 && received.get() > limit;
+    }
+
+    /**
+     * Pack parsers of the inserter count the bytes they read. {@inheritDoc}
+     */
+    @Override
+    public ObjectInserter newObjectInserter() {
+
+        final ObjectInserter inserter = super.newObjectInserter();
+        return new ObjectInserter.Filter() {
+
+            @Override
+            protected ObjectInserter delegate() {
+
+                return inserter;
+            }
+
+            @Override
+            public PackParser newPackParser(final InputStream in) throws IOException {
+
+                return inserter.newPackParser(new FilterInputStream(in) {
+
+                    @Override
+                    public int read() throws IOException {
+
+                        final int b = super.read();
+                        if (b != -1) {
+                            received.incrementAndGet();
+                        }
+                        return b;
+                    }
+
+                    @Override
+                    public int read(final byte[] b,
+                        final int off,
+                        final int len) throws IOException {
+
+                        final int n = super.read(b, off, len);
+                        if (n > 0) {
+                            received.addAndGet(n);
+                        }
+                        return n;
+                    }
+
+                    @Override
+                    public long skip(final long n) throws IOException {
+
+                        final long skipped = super.skip(n);
+                        received.addAndGet(skipped);
+                        return skipped;
+                    }
+                });
+            }
+        };
+    }
+
+    /**
+     * Reserves room for data about to be written into the repository. The
+     * reservation is kept as the data stays in memory once it is inserted.
+     *
+     * @param bytes
+     *            number of bytes
+     * @return <code>false</code> if the bytes received and reserved would
+     *         exceed the limit, nothing is reserved then.
+     */
+    public boolean reserve(final long bytes) {
+
+        final long total = reserved.addAndGet(bytes);
+        if (limit > 0 && received.get() + total > limit) {
+            reserved.addAndGet(-bytes);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Creates a progress monitor that is cancelled once the limit is exceeded.
+     *
+     * @param monitor
+     *            monitor the progress is reported to
+     * @return progress monitor
+     */
+    public ProgressMonitor newProgressMonitor(final ProgressMonitor monitor) {
+
+        return new ProgressMonitor() {
+
+            @Override
+            public void beginTask(final String title,
+                final int totalWork) {
+
+                monitor.beginTask(title, totalWork);
+            }
+
+            @Override
+            public void endTask() {
+
+                monitor.endTask();
+            }
+
+            @Override
+            public boolean isCancelled() {
+
+                return isLimitExceeded() || monitor.isCancelled();
+            }
+
+            @Override
+            public void start(final int totalTasks) {
+
+                monitor.start(totalTasks);
+            }
+
+            @Override
+            public void update(final int completed) {
+
+                monitor.update(completed);
+            }
+        };
+    }
+}
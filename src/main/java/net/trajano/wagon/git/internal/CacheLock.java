@@ -0,0 +1,83 @@
+package net.trajano.wagon.git.internal;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+
+/**
+ * An exclusive lock on a persistent cache directory. The lock is held on a
+ * separate lock file so that it is visible to other processes that are using
+ * the same cache.
+ */
+public final class CacheLock {
+
+    /**
+     * Attempts to acquire the lock without waiting.
+     *
+     * @param lockFile
+     *            lock file, it is created if it does not exist.
+     * @return the lock or <code>null</code> if it is held by another process or
+     *         another wagon in the same process.
+     * @throws IOException
+     *             unable to open the lock file.
+     */
+    public static CacheLock tryAcquire(final File lockFile) throws IOException {
+
+        final RandomAccessFile file = new RandomAccessFile(lockFile, "rw"); //$NON-NLS-1$
+        try {
+            final FileLock fileLock = file.getChannel()
+                .tryLock();
+            if (fileLock == null) {
+                file.close();
+                return null;
+            }
+            return new CacheLock(file, fileLock);
+        } catch (final OverlappingFileLockException e) {
+            file.close();
+            return null;
+        }
+    }
+
+    /**
+     * Lock file.
+     */
+    private final RandomAccessFile file;
+
+    /**
+     * File lock.
+     */
+    private final FileLock fileLock;
+
+    /**
+     * Constructs the lock.
+     *
+     * @param file
+     *            lock file
+     * @param fileLock
+     *            file lock obtained from the file channel
+     */
+    private CacheLock(final RandomAccessFile file,
+        final FileLock fileLock) {
+
+        this.file = file;
+        this.fileLock = fileLock;
+    }
+
+    /**
+     * Releases the lock. The lock file itself is left behind as removing it
+     * would race with other processes waiting on it.
+     *
+     * @throws IOException
+     *             unable to release the lock
+     */
+    public void release() throws IOException {
+
+        try {
+            fileLock.release();
+        } finally {
+            file.close();
+        }
+    }
+}
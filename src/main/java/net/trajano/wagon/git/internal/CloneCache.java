@@ -0,0 +1,179 @@
+package net.trajano.wagon.git.internal;
+
+import static java.lang.String.format;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ResourceBundle;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.maven.wagon.ResourceDoesNotExistException;
+import org.codehaus.plexus.util.FileUtils;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+
+/**
+ * Clones kept in a directory between sessions. Each repository and branch is
+ * kept in a directory named after a hash of them and is locked with a
+ * {@link CacheLock} while a working copy is open on it.
+ */
+public final class CloneCache {
+
+    /**
+     * Logger.
+     */
+    private static final Logger LOG;
+
+    /**
+     * Messages resource path.
+     */
+    private static final String MESSAGES = "META-INF/Messages";
+
+    /**
+     * Resource bundle.
+     */
+    private static final ResourceBundle R = ResourceBundle.getBundle(MESSAGES);
+
+    static {
+        LOG = Logger.getLogger("net.trajano.wagon.git", MESSAGES);
+    }
+
+    /**
+     * Name of the branch being deployed to.
+     */
+    private final String branchName;
+
+    /**
+     * Directory holding the clones.
+     */
+    private final File cacheDirectory;
+
+    /**
+     * Makes and refreshes the clones.
+     */
+    private final Cloner cloner;
+
+    /**
+     * Constructs the cache.
+     *
+     * @param cacheDirectory
+     *            directory holding the clones
+     * @param branchName
+     *            name of the branch being deployed to
+     * @param cloner
+     *            makes and refreshes the clones
+     */
+    public CloneCache(final File cacheDirectory,
+        final String branchName,
+        final Cloner cloner) {
+
+        this.cacheDirectory = cacheDirectory;
+        this.branchName = branchName;
+        this.cloner = cloner;
+    }
+
+    /**
+     * Gets the name a repository and branch are kept under in the cache
+     * directory.
+     *
+     * @param gitRepositoryUri
+     *            remote git repository URI string
+     * @return SHA-1 of the repository URI and branch.
+     */
+    public String getKey(final String gitRepositoryUri) {
+
+        return getKey(gitRepositoryUri, null);
+    }
+
+    /**
+     * Gets the name a repository and branch are kept under in the cache
+     * directory. A clone seeded from another object directory is kept under a
+     * different name than one that is not, so changing where the objects are
+     * borrowed from makes a new clone.
+     *
+     * @param gitRepositoryUri
+     *            remote git repository URI string
+     * @param alternateObjectsDirectory
+     *            object directory the clone is seeded from, <code>null</code>
+     *            if there is none.
+     * @return SHA-1 of the repository URI, branch and seeding object directory.
+     */
+    private String getKey(final String gitRepositoryUri,
+        final File alternateObjectsDirectory) {
+
+        final String source = alternateObjectsDirectory == null ? "" : "#" + alternateObjectsDirectory.getAbsolutePath(); //$NON-NLS-1$ //$NON-NLS-2$
+        return ObjectId.fromRaw(Constants.newMessageDigest()
+            .digest(Constants.encode(gitRepositoryUri + "?" + branchName + source))) //$NON-NLS-1$
+            .name();
+    }
+
+    /**
+     * Opens the working copy from the cache. The cache directory is keyed by
+     * the repository URI, branch and the object directory the clone is seeded
+     * from. An existing clone is refreshed with a fetch and hard reset,
+     * otherwise a new clone is made in the cache and it is dissociated from the
+     * object directory it was seeded from.
+     *
+     * @param gitRepositoryUri
+     *            remote git repository URI string
+     * @param sparsePath
+     *            repository path of the only directory to check out,
+     *            <code>null</code> to check out the whole branch.
+     * @return working copy or <code>null</code> if the cache entry is locked by
+     *         another build.
+     * @throws GitAPIException
+     * @throws IOException
+     * @throws ResourceDoesNotExistException
+     *             remote repository does not exist.
+     */
+    public WorkingCopy open(final String gitRepositoryUri,
+        final String sparsePath) throws GitAPIException,
+        IOException,
+        ResourceDoesNotExistException {
+
+        if (!cacheDirectory.mkdirs() && !cacheDirectory.isDirectory()) {
+            throw new IOException(format(R.getString("unabletocreatedirs"), cacheDirectory)); //$NON-NLS-1$
+        }
+        final File alternateObjectsDirectory = cloner.getAlternateObjectsDirectory(gitRepositoryUri);
+        final String key = getKey(gitRepositoryUri, alternateObjectsDirectory);
+        final File gitDir = new File(cacheDirectory, key);
+        final CacheLock lock = CacheLock.tryAcquire(new File(cacheDirectory, key + ".lock")); //$NON-NLS-1$
+        if (lock == null) {
+            LOG.log(Level.INFO, "cachelocked", gitDir); //$NON-NLS-1$
+            return null;
+        }
+        boolean locked = false;
+        try {
+            Git git = null;
+            // clones that still borrow objects were made by older versions,
+            // they are cloned again.
+            if (new File(gitDir, Constants.DOT_GIT).isDirectory() && !Cloner.getAlternatesFile(new File(gitDir, Constants.DOT_GIT))
+                .exists()) {
+                git = cloner.refresh(gitDir, sparsePath);
+            }
+            if (git == null) {
+                FileUtils.deleteDirectory(gitDir);
+                gitDir.mkdir();
+                git = cloner.cloneRepository(gitRepositoryUri, gitDir, alternateObjectsDirectory, sparsePath);
+                try {
+                    cloner.dissociate(git);
+                } catch (final GitAPIException e) {
+                    git.close();
+                    throw e;
+                } catch (final IOException e) {
+                    git.close();
+                    throw e;
+                }
+            }
+            locked = true;
+            return new WorkingCopy(gitRepositoryUri, git, lock);
+        } finally {
+            if (!locked) {
+                lock.release();
+            }
+        }
+    }
+}
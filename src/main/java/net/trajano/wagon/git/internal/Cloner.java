@@ -0,0 +1,669 @@
+package net.trajano.wagon.git.internal;
+
+import static java.lang.String.format;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.util.Properties;
+import java.util.ResourceBundle;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import net.trajano.wagon.git.internal.SessionMetrics.Phase;
+
+import org.apache.maven.wagon.ResourceDoesNotExistException;
+import org.codehaus.plexus.util.FileUtils;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.ResetCommand.ResetType;
+import org.eclipse.jgit.api.TransportConfigCallback;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.api.errors.InvalidRemoteException;
+import org.eclipse.jgit.api.errors.TransportException;
+import org.eclipse.jgit.errors.NoRemoteRepositoryException;
+import org.eclipse.jgit.internal.storage.dfs.DfsRepositoryDescription;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ProgressMonitor;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.RepositoryCache;
+import org.eclipse.jgit.lib.StoredConfig;
+import org.eclipse.jgit.transport.CredentialsProvider;
+import org.eclipse.jgit.transport.RefSpec;
+import org.eclipse.jgit.transport.RemoteConfig;
+import org.eclipse.jgit.transport.TagOpt;
+import org.eclipse.jgit.transport.URIish;
+import org.eclipse.jgit.util.FS;
+
+/**
+ * Clones the branch being deployed to from remote repositories, either into a
+ * directory or into memory, and brings existing clones up to date. Clones can
+ * borrow objects from a local remote or a reference repository through
+ * <code>objects/info/alternates</code>.
+ */
+public final class Cloner {
+
+    /**
+     * Logger.
+     */
+    private static final Logger LOG;
+
+    /**
+     * Messages resource path.
+     */
+    private static final String MESSAGES = "META-INF/Messages";
+
+    /**
+     * Resource bundle.
+     */
+    private static final ResourceBundle R = ResourceBundle.getBundle(MESSAGES);
+
+    static {
+        LOG = Logger.getLogger("net.trajano.wagon.git", MESSAGES);
+    }
+
+    /**
+     * Gets the alternates file of a repository.
+     *
+     * @param gitDir
+     *            git directory of the repository
+     * @return alternates file, it may not exist.
+     */
+    public static File getAlternatesFile(final File gitDir) {
+
+        return new File(gitDir, "objects/info/alternates"); //$NON-NLS-1$
+    }
+
+    /**
+     * Gets the object directory of a remote on the local file system.
+     *
+     * @param gitRepositoryUri
+     *            remote git repository URI string
+     * @return object directory or <code>null</code> if the remote is not a
+     *         repository on the local file system.
+     */
+    private static File getLocalObjectsDirectory(final String gitRepositoryUri) {
+
+        final URIish uri;
+        try {
+            uri = new URIish(gitRepositoryUri);
+        } catch (final URISyntaxException e) {
+            return null;
+        }
+        if (uri.getScheme() != null && !"file".equals(uri.getScheme()) || uri.getHost() != null || uri.getPath() == null) { //$NON-NLS-1$
+            return null;
+        }
+        return getObjectsDirectory(new File(uri.getPath()));
+    }
+
+    /**
+     * Gets the object directory of a repository on the local file system.
+     *
+     * @param repository
+     *            work tree or git directory of the repository
+     * @return object directory or <code>null</code> if there is no repository
+     *         at the location.
+     */
+    private static File getObjectsDirectory(final File repository) {
+
+        final File gitDir = RepositoryCache.FileKey.resolve(repository, FS.DETECTED);
+        if (gitDir == null) {
+            return null;
+        }
+        final File objectsDirectory = new File(gitDir, "objects"); //$NON-NLS-1$
+        return objectsDirectory.isDirectory() ? objectsDirectory : null;
+    }
+
+    /**
+     * Name of the branch being deployed to.
+     */
+    private final String branchName;
+
+    /**
+     * Credentials provider.
+     */
+    private final CredentialsProvider credentialsProvider;
+
+    /**
+     * Metrics of the session.
+     */
+    private final SessionMetrics metrics;
+
+    /**
+     * Clone without checking out the work tree.
+     */
+    private final boolean noCheckout;
+
+    /**
+     * Local repositories whose objects seed the clones, keyed by the remote git
+     * repository URI.
+     */
+    private final Properties referenceRepositories;
+
+    /**
+     * Borrow the objects of remotes on the local file system.
+     */
+    private final boolean shareLocalObjects;
+
+    /**
+     * Only fetch the branch being deployed to.
+     */
+    private final boolean singleBranch;
+
+    /**
+     * Transport configuration.
+     */
+    private final TransportConfigCallback transportConfigCallback;
+
+    /**
+     * Constructs the cloner.
+     *
+     * @param branchName
+     *            name of the branch being deployed to
+     * @param credentialsProvider
+     *            credentials provider
+     * @param transportConfigCallback
+     *            transport configuration
+     * @param metrics
+     *            metrics of the session
+     * @param noCheckout
+     *            <code>true</code> to clone without checking out the work tree.
+     * @param singleBranch
+     *            <code>true</code> to only fetch the branch.
+     * @param shareLocalObjects
+     *            <code>true</code> to borrow the objects of remotes on the
+     *            local file system.
+     * @param referenceRepositories
+     *            local repositories whose objects seed the clones, keyed by the
+     *            remote git repository URI.
+     */
+    public Cloner(final String branchName,
+        final CredentialsProvider credentialsProvider,
+        final TransportConfigCallback transportConfigCallback,
+        final SessionMetrics metrics,
+        final boolean noCheckout,
+        final boolean singleBranch,
+        final boolean shareLocalObjects,
+        final Properties referenceRepositories) {
+
+        this.branchName = branchName;
+        this.credentialsProvider = credentialsProvider;
+        this.transportConfigCallback = transportConfigCallback;
+        this.metrics = metrics;
+        this.noCheckout = noCheckout;
+        this.singleBranch = singleBranch;
+        this.shareLocalObjects = shareLocalObjects;
+        this.referenceRepositories = referenceRepositories;
+    }
+
+    /**
+     * Checks out only the given directory. The index is reset to the branch so
+     * the paths that are not checked out are still part of the next commit.
+     * Nothing is done if the branch does not exist yet.
+     *
+     * @param git
+     *            git
+     * @param sparsePath
+     *            repository path of the directory to check out
+     * @throws GitAPIException
+     * @throws IOException
+     */
+    private void checkoutSparse(final Git git,
+        final String sparsePath) throws GitAPIException,
+        IOException {
+
+        if (git.getRepository()
+            .resolve(Constants.HEAD) == null) {
+            return;
+        }
+        git.reset()
+            .setMode(ResetType.MIXED)
+            .call();
+        git.checkout()
+            .addPath(sparsePath)
+            .call();
+    }
+
+    /**
+     * Clones the remote repository into the given directory. If the remote does
+     * not have the branch, the branch is created locally.
+     *
+     * @param gitRepositoryUri
+     *            remote git repository URI string
+     * @param gitDir
+     *            directory to clone into
+     * @param alternateObjectsDirectory
+     *            object directory listed as an alternate of the clone, see
+     *            {@link #getAlternateObjectsDirectory(String)}.
+     * @param sparsePath
+     *            repository path of the only directory to check out,
+     *            <code>null</code> to check out the whole branch.
+     * @return git
+     * @throws GitAPIException
+     * @throws IOException
+     * @throws ResourceDoesNotExistException
+     *             remote repository does not exist.
+     */
+    public Git cloneRepository(final String gitRepositoryUri,
+        final File gitDir,
+        final File alternateObjectsDirectory,
+        final String sparsePath) throws GitAPIException,
+        IOException,
+        ResourceDoesNotExistException {
+
+        if (singleBranch || alternateObjectsDirectory != null) {
+            return cloneSingleBranch(gitRepositoryUri, gitDir, alternateObjectsDirectory, sparsePath);
+        }
+        try {
+            final Git git = Git.cloneRepository()
+                .setURI(gitRepositoryUri)
+                .setCredentialsProvider(credentialsProvider)
+                .setBranch(branchName)
+                .setNoCheckout(noCheckout || sparsePath != null)
+                .setDirectory(gitDir)
+                .setTransportConfigCallback(transportConfigCallback)
+                .setProgressMonitor(metrics.newProgressMonitor(Phase.CLONE))
+                .call();
+            if (!branchName.equals(git.getRepository()
+                .getBranch())) {
+                final Ref remoteBranch = git.getRepository()
+                    .exactRef(Constants.R_REMOTES + Constants.DEFAULT_REMOTE_NAME + "/" + branchName); //$NON-NLS-1$
+                if (remoteBranch == null) {
+                    LOG.log(Level.INFO, "missingbranch", branchName);
+                } else {
+                    // without a checkout the clone does not create the local
+                    // branch.
+                    final RefUpdate branchUpdate = git.getRepository()
+                        .updateRef(Constants.R_HEADS + branchName);
+                    branchUpdate.setNewObjectId(remoteBranch.getObjectId());
+                    branchUpdate.update();
+                }
+                final RefUpdate refUpdate = git.getRepository()
+                    .getRefDatabase()
+                    .newUpdate(Constants.HEAD, true);
+                refUpdate.setForceUpdate(true);
+                refUpdate.link("refs/heads/" + branchName); //$NON-NLS-1$
+            }
+            if (!noCheckout && sparsePath != null) {
+                checkoutSparse(git, sparsePath);
+            }
+            return git;
+        } catch (final InvalidRemoteException e) {
+            throw new ResourceDoesNotExistException(e.getMessage(), e);
+        } catch (final NoRemoteRepositoryException e) {
+            throw new ResourceDoesNotExistException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Clones only the branch that is being deployed to. This is done as an init
+     * and fetch with a refspec limited to the branch so the configured remote
+     * stays limited to the branch when the clone is refreshed later. Tags are
+     * not fetched. When the objects of a local remote or of a reference
+     * repository are shared they are listed as alternates before the fetch so
+     * it only transfers the objects that they do not have.
+     *
+     * @param gitRepositoryUri
+     *            remote git repository URI string
+     * @param gitDir
+     *            directory to clone into
+     * @param alternateObjectsDirectory
+     *            object directory of the local remote or reference repository
+     *            to share, <code>null</code> to copy the objects.
+     * @param sparsePath
+     *            repository path of the only directory to check out,
+     *            <code>null</code> to check out the whole branch.
+     * @return git
+     * @throws GitAPIException
+     * @throws IOException
+     * @throws ResourceDoesNotExistException
+     *             remote repository does not exist.
+     */
+    private Git cloneSingleBranch(final String gitRepositoryUri,
+        final File gitDir,
+        final File alternateObjectsDirectory,
+        final String sparsePath) throws GitAPIException,
+        IOException,
+        ResourceDoesNotExistException {
+
+        if (alternateObjectsDirectory != null) {
+            // written before the repository is opened as the object database
+            // only reads the alternates once.
+            final File alternates = getAlternatesFile(new File(gitDir, Constants.DOT_GIT));
+            if (!alternates.getParentFile()
+                .mkdirs()
+                && !alternates.getParentFile()
+                    .isDirectory()) {
+                throw new IOException(format(R.getString("unabletocreatedirs"), alternates.getParentFile())); //$NON-NLS-1$
+            }
+            FileUtils.fileWrite(alternates, "UTF-8", alternateObjectsDirectory.getAbsolutePath() //$NON-NLS-1$
+                .replace(File.separatorChar, '/') + "\n"); //$NON-NLS-1$
+        }
+        return fetchSingleBranch(Git.init()
+            .setDirectory(gitDir)
+            .call(), gitRepositoryUri, !noCheckout, sparsePath, metrics.newProgressMonitor(Phase.CLONE));
+    }
+
+    /**
+     * Makes a clone stop borrowing objects through
+     * <code>objects/info/alternates</code>, like <code>git repack -a</code>
+     * followed by removing the alternates file. The garbage collection packs
+     * every reachable object including those read from the alternate into the
+     * clone. This is done for clones kept in the persistent cache so they still
+     * work if the object directory they were seeded from is pruned or removed.
+     *
+     * @param git
+     *            git of the clone
+     * @throws GitAPIException
+     * @throws IOException
+     */
+    public void dissociate(final Git git) throws GitAPIException,
+        IOException {
+
+        final File alternates = getAlternatesFile(git.getRepository()
+            .getDirectory());
+        if (!alternates.isFile()) {
+            return;
+        }
+        // the pack directory is missing if every object came from the
+        // alternate.
+        final File packDirectory = new File(alternates.getParentFile()
+            .getParentFile(), "pack"); //$NON-NLS-1$
+        if (!packDirectory.mkdirs() && !packDirectory.isDirectory()) {
+            throw new IOException(format(R.getString("unabletocreatedirs"), packDirectory)); //$NON-NLS-1$
+        }
+        git.gc()
+            .setProgressMonitor(metrics.newProgressMonitor(Phase.CLONE))
+            .call();
+        FileUtils.forceDelete(alternates);
+    }
+
+    /**
+     * Fetches the branch that is being deployed to into a new repository. The
+     * remote is configured with a refspec limited to the branch, HEAD is linked
+     * to the branch and the branch is created from what was fetched. The
+     * repository is closed if this fails.
+     *
+     * @param git
+     *            git of the new repository
+     * @param gitRepositoryUri
+     *            remote git repository URI string
+     * @param checkout
+     *            <code>true</code> to check out the branch into the work tree.
+     * @param sparsePath
+     *            repository path of the only directory to check out,
+     *            <code>null</code> to check out the whole branch.
+     * @param monitor
+     *            progress monitor of the fetch
+     * @return git
+     * @throws GitAPIException
+     * @throws IOException
+     * @throws ResourceDoesNotExistException
+     *             remote repository does not exist.
+     */
+    private Git fetchSingleBranch(final Git git,
+        final String gitRepositoryUri,
+        final boolean checkout,
+        final String sparsePath,
+        final ProgressMonitor monitor) throws GitAPIException,
+        IOException,
+        ResourceDoesNotExistException {
+
+        final String localBranch = Constants.R_HEADS + branchName;
+        final String remoteBranch = Constants.R_REMOTES + Constants.DEFAULT_REMOTE_NAME + "/" + branchName; //$NON-NLS-1$
+        boolean cloned = false;
+        try {
+            final Repository repository = git.getRepository();
+            final StoredConfig config = repository.getConfig();
+            final RemoteConfig remoteConfig = new RemoteConfig(config, Constants.DEFAULT_REMOTE_NAME);
+            remoteConfig.addURI(new URIish(gitRepositoryUri));
+            remoteConfig.addFetchRefSpec(new RefSpec().setForceUpdate(true)
+                .setSourceDestination(localBranch, remoteBranch));
+            remoteConfig.setTagOpt(TagOpt.NO_TAGS);
+            remoteConfig.update(config);
+            config.save();
+
+            try {
+                git.fetch()
+                    .setRemote(Constants.DEFAULT_REMOTE_NAME)
+                    .setCredentialsProvider(credentialsProvider)
+                    .setTransportConfigCallback(transportConfigCallback)
+                    .setProgressMonitor(monitor)
+                    .call();
+            } catch (final TransportException e) {
+                // a refspec without wildcards fails when the branch does not
+                // exist yet, which is expected for the first deploy.
+                if (isBranchAdvertised(git, localBranch)) {
+                    throw e;
+                }
+            }
+
+            final RefUpdate headUpdate = repository.updateRef(Constants.HEAD);
+            headUpdate.setForceUpdate(true);
+            headUpdate.link(localBranch);
+
+            final Ref fetchedBranch = repository.exactRef(remoteBranch);
+            if (fetchedBranch == null) {
+                LOG.log(Level.INFO, "missingbranch", branchName);
+            } else {
+                final RefUpdate branchUpdate = repository.updateRef(localBranch);
+                branchUpdate.setNewObjectId(fetchedBranch.getObjectId());
+                branchUpdate.update();
+                if (checkout && sparsePath != null) {
+                    checkoutSparse(git, sparsePath);
+                } else if (checkout) {
+                    git.reset()
+                        .setMode(ResetType.HARD)
+                        .call();
+                }
+            }
+            cloned = true;
+            return git;
+        } catch (final URISyntaxException e) {
+            throw new ResourceDoesNotExistException(e.getMessage(), e);
+        } catch (final InvalidRemoteException e) {
+            throw new ResourceDoesNotExistException(e.getMessage(), e);
+        } catch (final NoRemoteRepositoryException e) {
+            throw new ResourceDoesNotExistException(e.getMessage(), e);
+        } finally {
+            if (!cloned) {
+                git.close();
+            }
+        }
+    }
+
+    /**
+     * Gets the object directory that a new clone borrows objects from through
+     * <code>objects/info/alternates</code>. This is the remote itself when
+     * {@link #shareLocalObjects} is set and it is on the local file system,
+     * otherwise the reference repository of the remote.
+     *
+     * @param gitRepositoryUri
+     *            remote git repository URI string
+     * @return object directory or <code>null</code> if the clone does not
+     *         borrow objects.
+     */
+    public File getAlternateObjectsDirectory(final String gitRepositoryUri) {
+
+        final File localObjectsDirectory = shareLocalObjects ? getLocalObjectsDirectory(gitRepositoryUri) : null;
+        if (localObjectsDirectory != null) {
+            return localObjectsDirectory;
+        }
+        return getReferenceObjectsDirectory(gitRepositoryUri);
+    }
+
+    /**
+     * Gets the object directory of the reference repository configured for a
+     * remote. A reference that is not a repository is logged and ignored so the
+     * clone falls back to fetching everything from the remote.
+     *
+     * @param gitRepositoryUri
+     *            remote git repository URI string
+     * @return object directory or <code>null</code> if there is no usable
+     *         reference repository for the remote.
+     */
+    private File getReferenceObjectsDirectory(final String gitRepositoryUri) {
+
+        final String reference = referenceRepositories.getProperty(gitRepositoryUri);
+        if (reference == null) {
+            return null;
+        }
+        final File objectsDirectory = getObjectsDirectory(new File(reference));
+        if (objectsDirectory == null) {
+            LOG.log(Level.WARNING, "referencenotrepository", new Object[] { //$NON-NLS-1$
+                reference,
+                gitRepositoryUri
+            });
+        }
+        return objectsDirectory;
+    }
+
+    /**
+     * Checks if the remote has the branch.
+     *
+     * @param git
+     *            git with the remote configured as "origin"
+     * @param branch
+     *            full branch ref name
+     * @return <code>true</code> if the remote advertises the branch.
+     * @throws GitAPIException
+     */
+    private boolean isBranchAdvertised(final Git git,
+        final String branch) throws GitAPIException {
+
+        for (final Ref ref : git.lsRemote()
+            .setRemote(Constants.DEFAULT_REMOTE_NAME)
+            .setHeads(true)
+            .setCredentialsProvider(credentialsProvider)
+            .setTransportConfigCallback(transportConfigCallback)
+            .call()) {
+            if (branch.equals(ref.getName())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Opens a working copy held in memory. Only the branch is fetched. The work
+     * tree is a location that resources are mapped to, nothing is written there
+     * as writes go into the object database.
+     *
+     * @param gitRepositoryUri
+     *            remote git repository URI string
+     * @param workTree
+     *            work tree location
+     * @param limit
+     *            number of bytes received after which the fetch is cancelled, 0
+     *            for none.
+     * @return working copy or <code>null</code> if the fetch was cancelled
+     *         because more than the limit was received.
+     * @throws GitAPIException
+     * @throws IOException
+     * @throws ResourceDoesNotExistException
+     *             remote repository does not exist.
+     */
+    public WorkingCopy openInMemory(final String gitRepositoryUri,
+        final File workTree,
+        final long limit) throws GitAPIException,
+        IOException,
+        ResourceDoesNotExistException {
+
+        final BoundedInMemoryRepository repository = new BoundedInMemoryRepository(new DfsRepositoryDescription(gitRepositoryUri), limit);
+        boolean opened = false;
+        try {
+            final Git git = fetchSingleBranch(Git.wrap(repository), gitRepositoryUri, false, null, repository.newProgressMonitor(metrics.newProgressMonitor(Phase.CLONE)));
+            opened = true;
+            return new WorkingCopy(gitRepositoryUri, git, workTree, null);
+        } catch (final GitAPIException e) {
+            if (!repository.isLimitExceeded()) {
+                throw e;
+            }
+            LOG.log(Level.INFO, "inmemorylimitexceeded", new Object[] { //$NON-NLS-1$
+                gitRepositoryUri,
+                repository.getReceivedBytes(),
+                limit
+            });
+            return null;
+        } finally {
+            if (!opened) {
+                repository.close();
+            }
+        }
+    }
+
+    /**
+     * Brings an existing clone up to date with the remote branch. Local changes
+     * and untracked files left from a previous session are discarded.
+     *
+     * @param gitDir
+     *            clone directory
+     * @param sparsePath
+     *            repository path of the only directory to check out,
+     *            <code>null</code> to check out the whole branch.
+     * @return git or <code>null</code> if the clone cannot be reused and has to
+     *         be replaced.
+     * @throws IOException
+     */
+    public Git refresh(final File gitDir,
+        final String sparsePath) throws IOException {
+
+        final Git git = Git.open(gitDir);
+        boolean refreshed = false;
+        try {
+            git.fetch()
+                .setRemote(Constants.DEFAULT_REMOTE_NAME)
+                .setRemoveDeletedRefs(true)
+                .setCredentialsProvider(credentialsProvider)
+                .setTransportConfigCallback(transportConfigCallback)
+                .setProgressMonitor(metrics.newProgressMonitor(Phase.CLONE))
+                .call();
+            final Repository repository = git.getRepository();
+            final Ref remoteBranch = repository.exactRef(Constants.R_REMOTES + Constants.DEFAULT_REMOTE_NAME + "/" + branchName); //$NON-NLS-1$
+            if (remoteBranch == null || !branchName.equals(repository.getBranch())) {
+                return null;
+            }
+            if (noCheckout) {
+                git.reset()
+                    .setMode(ResetType.SOFT)
+                    .setRef(remoteBranch.getName())
+                    .call();
+            } else if (sparsePath != null) {
+                // files from a previous session may be out of date, so the
+                // work tree is emptied rather than reset.
+                for (final File file : gitDir.listFiles()) {
+                    if (!Constants.DOT_GIT.equals(file.getName())) {
+                        FileUtils.forceDelete(file);
+                    }
+                }
+                git.reset()
+                    .setMode(ResetType.SOFT)
+                    .setRef(remoteBranch.getName())
+                    .call();
+                checkoutSparse(git, sparsePath);
+            } else {
+                git.reset()
+                    .setMode(ResetType.HARD)
+                    .setRef(remoteBranch.getName())
+                    .call();
+                git.clean()
+                    .setCleanDirectories(true)
+                    .setIgnore(false)
+                    .call();
+            }
+            refreshed = true;
+            return git;
+        } catch (final GitAPIException e) {
+            LOG.log(Level.WARNING, "cacherefreshfailed", new Object[] { //$NON-NLS-1$
+                gitDir,
+                e.getMessage()
+            });
+            return null;
+        } finally {
+            if (!refreshed) {
+                git.close();
+            }
+        }
+    }
+}
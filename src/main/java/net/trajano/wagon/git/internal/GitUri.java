@@ -5,9 +5,9 @@ import static java.lang.String.format;
 import java.io.UnsupportedEncodingException;
 import java.net.URI;
 import java.net.URLDecoder;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
-import org.apache.commons.lang3.builder.EqualsBuilder;
-import org.apache.commons.lang3.builder.HashCodeBuilder;
 import org.apache.commons.lang3.builder.ToStringBuilder;
 
 /**
@@ -17,11 +17,72 @@ import org.apache.commons.lang3.builder.ToStringBuilder;
  */
 public class GitUri {
 
+    /**
+     * Maximum number of resolved fragments kept per URI.
+     */
+    private static final int MAX_RESOLVED = 1024;
+
+    /**
+     * Characters other than letters and digits that can be used in a fragment
+     * as is. A fragment made up only of these, letters, digits and spaces
+     * resolves to the same repository and branch with the fragment as the
+     * resource.
+     */
+    private static final String SIMPLE_FRAGMENT_CHARACTERS = "-._~/!$&'()*,;=@";
+
+    /**
+     * Checks if a fragment is made up of simple characters only. Fragments
+     * starting with "//" are not simple either as they parse as an authority.
+     *
+     * @param fragment
+     *            fragment
+     * @return <code>true</code> if the fragment is simple.
+     */
+    private static boolean isSimpleFragment(final String fragment) {
+
+        if (fragment.startsWith("//")) {
+            return false;
+        }
+        for (int i = 0; i < fragment.length(); ++i) {
+            final char c = fragment.charAt(i);
+            if (!(c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c >= '0' && c <= '9' || c == ' ' || SIMPLE_FRAGMENT_CHARACTERS.indexOf(c) != -1)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Null safe string comparison.
+     *
+     * @param a
+     *            string
+     * @param b
+     *            string
+     * @return <code>true</code> if both are <code>null</code> or equal.
+     */
+    private static boolean same(final String a,
+        final String b) {
+
+        return a == null ? b == null : a.equals(b);
+    }
+
     /**
      * Branch name.
      */
     private final String branchName;
 
+    /**
+     * Hash code, zero until it is calculated.
+     */
+    private int hash;
+
+    /**
+     * URI that simple fragments resolve to with an empty resource. It is parsed
+     * on the first resolve.
+     */
+    private GitUri simpleBase;
+
     /**
      * Repository URI.
      */
@@ -32,6 +93,24 @@ public class GitUri {
      */
     private final String resource;
 
+    /**
+     * Recently resolved URIs keyed by fragment. Resolving is repeated for the
+     * same resource by the existence check, the transfer and the checksums.
+     */
+    private final Map<String, GitUri> resolved = new LinkedHashMap<String, GitUri>(16, 0.75f, true) {
+
+        /**
+         * Serial version UID.
+         */
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<String, GitUri> eldest) {
+
+            return size() > MAX_RESOLVED;
+        }
+    };
+
     /**
      * Constructs the URI based on the parts.
      *
@@ -76,10 +155,7 @@ public class GitUri {
             return false;
         }
         final GitUri x = (GitUri) obj;
-        return new EqualsBuilder().append(branchName, x.branchName)
-            .append(gitRepositoryUri, x.gitRepositoryUri)
-            .append(resource, x.resource)
-            .build();
+        return hashCode() == x.hashCode() && same(resource, x.resource) && same(branchName, x.branchName) && same(gitRepositoryUri, x.gitRepositoryUri);
     }
 
     /**
@@ -111,10 +187,15 @@ public class GitUri {
     @Override
     public int hashCode() {
 
-        return new HashCodeBuilder().append(resource)
-            .append(branchName)
-            .append(gitRepositoryUri)
-            .build();
+        int h = hash;
+        if (h == 0) {
+            h = 17;
+            h = 37 * h + (resource == null ? 0 : resource.hashCode());
+            h = 37 * h + (branchName == null ? 0 : branchName.hashCode());
+            h = 37 * h + (gitRepositoryUri == null ? 0 : gitRepositoryUri.hashCode());
+            hash = h;
+        }
+        return h;
     }
 
     /**
@@ -128,6 +209,39 @@ public class GitUri {
      */
     public GitUri resolve(final String fragment) {
 
+        synchronized (resolved) {
+            GitUri result = resolved.get(fragment);
+            if (result == null) {
+                result = resolveUncached(fragment);
+                resolved.put(fragment, result);
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Resolves a fragment that is not in the recently resolved URIs. Fragments
+     * that are plain relative paths do not change the repository or branch so
+     * they are resolved using the parts of this URI that were parsed on the
+     * first call; others go through {@link URI} resolution.
+     *
+     * @param fragment
+     *            may contain escaped characters.
+     * @return resolved {@link GitUri}
+     */
+    private GitUri resolveUncached(final String fragment) {
+
+        if ((resource == null || resource.indexOf('?') == -1) && fragment.indexOf('%') == -1 && fragment.indexOf('+') == -1 && isSimpleFragment(fragment)) {
+            if (simpleBase == null) {
+                // fails the same way a full resolution would.
+                if (resource != null) {
+                    URI.create(gitRepositoryUri + resource.replace("##", "#"));
+                }
+                simpleBase = new GitUri(URI.create(format("%s?%s#", gitRepositoryUri, branchName)));
+            }
+            return new GitUri(simpleBase.gitRepositoryUri, simpleBase.branchName, fragment);
+        }
+
         // TODO clean this up so it is less "hacky"
         final String decodedFragment;
         try {
@@ -0,0 +1,202 @@
+package net.trajano.wagon.git.internal;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Detects content that is already compressed. Such content does not deflate any
+ * smaller and rarely produces useful deltas, so time spent on either when
+ * packing it for a push is wasted. Files are recognized by their extension or
+ * failing that by the entropy of their first bytes.
+ */
+public final class IncompressibleContent {
+
+    /**
+     * Keeps the first bytes read through it so the content can be classified
+     * once it has been streamed without reading it again.
+     */
+    public static final class SamplingInputStream extends FilterInputStream {
+
+        /**
+         * Sampled bytes.
+         */
+        private final byte[] sample = new byte[SAMPLE_SIZE];
+
+        /**
+         * Number of bytes sampled.
+         */
+        private int sampleLength;
+
+        /**
+         * Constructs the stream.
+         *
+         * @param in
+         *            stream to sample
+         */
+        public SamplingInputStream(final InputStream in) {
+
+            super(in);
+        }
+
+        /**
+         * Checks if the content read so far is already compressed.
+         *
+         * @param path
+         *            repository path
+         * @return <code>true</code> if the content is compressed.
+         */
+        public boolean isIncompressible(final String path) {
+
+            return IncompressibleContent.isIncompressible(path, sample, sampleLength);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public boolean markSupported() {
+
+            return false;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public int read() throws IOException {
+
+            final int b = super.read();
+            if (b != -1 && sampleLength < SAMPLE_SIZE) {
+                sample[sampleLength++] = (byte) b;
+            }
+            return b;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public int read(final byte[] b,
+            final int off,
+            final int len) throws IOException {
+
+            final int c = super.read(b, off, len);
+            if (c > 0 && sampleLength < SAMPLE_SIZE) {
+                final int sampled = Math.min(c, SAMPLE_SIZE - sampleLength);
+                System.arraycopy(b, off, sample, sampleLength, sampled);
+                sampleLength += sampled;
+            }
+            return c;
+        }
+
+        /**
+         * Reads the skipped bytes so they are sampled. {@inheritDoc}
+         */
+        @Override
+        public long skip(final long n) throws IOException {
+
+            final byte[] skipped = new byte[(int) Math.min(n, SAMPLE_SIZE)];
+            final int c = read(skipped, 0, skipped.length);
+            return c == -1 ? 0 : c;
+        }
+    }
+
+    /**
+     * Extensions of formats that are compressed.
+     */
+    private static final Set<String> EXTENSIONS = new HashSet<String>(Arrays.asList("7z", "bz2", "ear", "gif", "gz", "ico", "jar", "jpeg", "jpg", "mp3", "mp4", "png", "tgz", "war", "webm", "webp", "woff", "woff2", "xz", "zip")); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$ //$NON-NLS-6$ //$NON-NLS-7$ //$NON-NLS-8$ //$NON-NLS-9$ //$NON-NLS-10$ //$NON-NLS-11$ //$NON-NLS-12$ //$NON-NLS-13$ //$NON-NLS-14$ //$NON-NLS-15$ //$NON-NLS-16$ //$NON-NLS-17$ //$NON-NLS-18$ //$NON-NLS-19$ //$NON-NLS-20$
+
+    /**
+     * Entropy in bits per byte above which a sample is considered compressed.
+     * Deflated data is typically above 7.9 while text stays below 6.
+     */
+    private static final double ENTROPY_THRESHOLD = 7.5;
+
+    /**
+     * Minimum number of bytes needed for the entropy check.
+     */
+    private static final int MIN_SAMPLE_SIZE = 1024;
+
+    /**
+     * Number of bytes sampled for the entropy check.
+     */
+    private static final int SAMPLE_SIZE = 4096;
+
+    /**
+     * Calculates the entropy of a sample in bits per byte.
+     *
+     * @param sample
+     *            sample
+     * @param length
+     *            number of bytes in the sample
+     * @return entropy
+     */
+    static double entropy(final byte[] sample,
+        final int length) {
+
+        final int[] counts = new int[256];
+        for (int i = 0; i < length; ++i) {
+            ++counts[sample[i] & 0xff];
+        }
+        double entropy = 0;
+        for (final int count : counts) {
+            if (count != 0) {
+                final double p = (double) count / length;
+                entropy -= p * Math.log(p);
+            }
+        }
+        return entropy / Math.log(2);
+    }
+
+    /**
+     * Checks if a path has the extension of a compressed format.
+     *
+     * @param path
+     *            repository path
+     * @return <code>true</code> if the extension is of a compressed format.
+     */
+    public static boolean hasCompressedExtension(final String path) {
+
+        final int dot = path.lastIndexOf('.');
+        if (dot == -1 || path.indexOf('/', dot) != -1) {
+            return false;
+        }
+        return EXTENSIONS.contains(path.substring(dot + 1)
+            .toLowerCase(Locale.ENGLISH));
+    }
+
+    /**
+     * Checks if content is already compressed from its path and a sample of its
+     * first bytes.
+     *
+     * @param path
+     *            repository path
+     * @param sample
+     *            first bytes of the content
+     * @param length
+     *            number of bytes in the sample
+     * @return <code>true</code> if the content is compressed.
+     */
+    private static boolean isIncompressible(final String path,
+        final byte[] sample,
+        final int length) {
+
+        if (hasCompressedExtension(path)) {
+            return true;
+        }
+        // small samples underestimate the entropy too much to be useful.
+        return length >= MIN_SAMPLE_SIZE && entropy(sample, length) > ENTROPY_THRESHOLD;
+    }
+
+    /**
+     * Prevent instantiation of utility class.
+     */
+    private IncompressibleContent() {
+
+    }
+}
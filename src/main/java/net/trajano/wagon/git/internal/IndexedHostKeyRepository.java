@@ -0,0 +1,649 @@
+package net.trajano.wagon.git.internal;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.eclipse.jgit.util.Base64;
+
+import com.jcraft.jsch.HostKey;
+import com.jcraft.jsch.HostKeyRepository;
+import com.jcraft.jsch.JSchException;
+import com.jcraft.jsch.UserInfo;
+
+/**
+ * A {@link HostKeyRepository} backed by an OpenSSH <code>known_hosts</code>
+ * file that is parsed once into a table keyed by host name. Hashed and wildcard
+ * entries cannot be keyed by host name so they are scanned on the first lookup
+ * of a host and the result is remembered. The file is parsed again only when
+ * its modification time or size changes.
+ * <p>
+ * One instance is shared per file for the whole JVM, see
+ * {@link #getInstance(File)}. Keys added through
+ * {@link #add(HostKey, UserInfo)} are kept in memory only, the file is never
+ * written.
+ * </p>
+ */
+public final class IndexedHostKeyRepository implements
+    HostKeyRepository {
+
+    /**
+     * An entry of the known hosts file.
+     */
+    private static final class Entry {
+
+        /**
+         * Host names, patterns or hashed host name as written in the file.
+         */
+        private final String hosts;
+
+        /**
+         * Key blob.
+         */
+        private final byte[] key;
+
+        /**
+         * Indicates which of the {@link #patterns} are negated with "!".
+         */
+        private final boolean[] negated;
+
+        /**
+         * Patterns for the host names. This is <code>null</code> if the entry
+         * is hashed or only has plain host names.
+         */
+        private final Pattern[] patterns;
+
+        /**
+         * Indicates the entry has the "@revoked" marker.
+         */
+        private final boolean revoked;
+
+        /**
+         * Key type, e.g. "ssh-rsa".
+         */
+        private final String type;
+
+        /**
+         * Constructs the entry.
+         *
+         * @param hosts
+         *            host field
+         * @param type
+         *            key type
+         * @param key
+         *            key blob
+         * @param revoked
+         *            the key is revoked
+         */
+        Entry(final String hosts,
+            final String type,
+            final byte[] key,
+            final boolean revoked) {
+
+            this.hosts = hosts;
+            this.type = type;
+            this.key = key;
+            this.revoked = revoked;
+            if (isPlain(hosts) || hosts.startsWith(HASHED_PREFIX)) {
+                patterns = null;
+                negated = null;
+            } else {
+                final String[] names = hosts.split(","); //$NON-NLS-1$
+                patterns = new Pattern[names.length];
+                negated = new boolean[names.length];
+                for (int i = 0; i < names.length; ++i) {
+                    negated[i] = names[i].startsWith("!"); //$NON-NLS-1$
+                    final String name = negated[i] ? names[i].substring(1) : names[i];
+                    patterns[i] = Pattern.compile(Pattern.quote(name)
+                        .replace("*", "\\E.*\\Q") //$NON-NLS-1$ //$NON-NLS-2$
+                        .replace("?", "\\E.\\Q")); //$NON-NLS-1$ //$NON-NLS-2$
+                }
+            }
+        }
+
+        /**
+         * Checks if the entry is for the host.
+         *
+         * @param host
+         *            host name in lower case, with the port in brackets form if
+         *            it is not 22.
+         * @return <code>true</code> if the entry matches.
+         */
+        boolean matches(final String host) {
+
+            if (hosts.startsWith(HASHED_PREFIX)) {
+                return matchesHash(host);
+            }
+            if (patterns == null) {
+                return Arrays.asList(hosts.split(",")) //$NON-NLS-1$
+                    .contains(host);
+            }
+            boolean matched = false;
+            for (int i = 0; i < patterns.length; ++i) {
+                if (patterns[i].matcher(host)
+                    .matches()) {
+                    if (negated[i]) {
+                        return false;
+                    }
+                    matched = true;
+                }
+            }
+            return matched;
+        }
+
+        /**
+         * Checks a hashed entry, "|1|salt|hash", against the host.
+         *
+         * @param host
+         *            host
+         * @return <code>true</code> if the hash matches.
+         */
+        private boolean matchesHash(final String host) {
+
+            final String[] parts = hosts.substring(HASHED_PREFIX.length())
+                .split("\\|"); //$NON-NLS-1$
+            if (parts.length != 2) {
+                return false;
+            }
+            try {
+                final Mac mac = Mac.getInstance(HMAC_SHA1);
+                mac.init(new SecretKeySpec(Base64.decode(parts[0]), HMAC_SHA1));
+                return Arrays.equals(Base64.decode(parts[1]), mac.doFinal(host.getBytes("UTF-8"))); //$NON-NLS-1$
+            } catch (final GeneralSecurityException e) {
+                return false;
+            } catch (final IOException e) {
+                return false;
+            }
+        }
+
+        /**
+         * Converts the entry to a JSch host key.
+         *
+         * @return host key or <code>null</code> if JSch does not support the
+         *         key type.
+         */
+        HostKey toHostKey() {
+
+            try {
+                return new HostKey(hosts, key);
+            } catch (final JSchException e) {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * The parsed file.
+     */
+    private static final class Index {
+
+        /**
+         * All entries in file order.
+         */
+        private final List<Entry> entries = new ArrayList<Entry>();
+
+        /**
+         * Entries with plain host names keyed by host name.
+         */
+        private final Map<String, List<Entry>> entriesByHost = new HashMap<String, List<Entry>>();
+
+        /**
+         * Length of the file when it was read.
+         */
+        private final long length;
+
+        /**
+         * Modification time of the file when it was read.
+         */
+        private final long lastModified;
+
+        /**
+         * Hashed and wildcard entries.
+         */
+        private final List<Entry> patternedEntries = new ArrayList<Entry>();
+
+        /**
+         * Hashed and wildcard entries that match a host keyed by host name.
+         * This is filled in as hosts are looked up.
+         */
+        private final ConcurrentMap<String, List<Entry>> patternedEntriesByHost = new ConcurrentHashMap<String, List<Entry>>();
+
+        /**
+         * Constructs the index.
+         *
+         * @param length
+         *            length of the file
+         * @param lastModified
+         *            modification time of the file
+         */
+        Index(final long length,
+            final long lastModified) {
+
+            this.length = length;
+            this.lastModified = lastModified;
+        }
+
+        /**
+         * Adds an entry.
+         *
+         * @param entry
+         *            entry
+         */
+        void add(final Entry entry) {
+
+            entries.add(entry);
+            if (isPlain(entry.hosts)) {
+                for (final String host : entry.hosts.split(",")) { //$NON-NLS-1$
+                    List<Entry> hostEntries = entriesByHost.get(host);
+                    if (hostEntries == null) {
+                        hostEntries = new ArrayList<Entry>(1);
+                        entriesByHost.put(host, hostEntries);
+                    }
+                    hostEntries.add(entry);
+                }
+            } else {
+                patternedEntries.add(entry);
+            }
+        }
+
+        /**
+         * Gets the entries for a host.
+         *
+         * @param host
+         *            host name in lower case
+         * @return entries
+         */
+        List<Entry> get(final String host) {
+
+            List<Entry> matched = patternedEntriesByHost.get(host);
+            if (matched == null) {
+                matched = new ArrayList<Entry>();
+                for (final Entry entry : patternedEntries) {
+                    if (entry.matches(host)) {
+                        matched.add(entry);
+                    }
+                }
+                patternedEntriesByHost.put(host, matched);
+            }
+            final List<Entry> plain = entriesByHost.get(host);
+            if (plain == null) {
+                return matched;
+            }
+            if (matched.isEmpty()) {
+                return plain;
+            }
+            final List<Entry> all = new ArrayList<Entry>(plain);
+            all.addAll(matched);
+            return all;
+        }
+    }
+
+    /**
+     * Prefix of hashed host names.
+     */
+    private static final String HASHED_PREFIX = "|1|"; //$NON-NLS-1$
+
+    /**
+     * HMAC algorithm used for hashed host names.
+     */
+    private static final String HMAC_SHA1 = "HmacSHA1"; //$NON-NLS-1$
+
+    /**
+     * Marker of revoked keys.
+     */
+    private static final String REVOKED_MARKER = "@revoked"; //$NON-NLS-1$
+
+    /**
+     * Instances keyed by the absolute path of the file.
+     */
+    private static final ConcurrentMap<String, IndexedHostKeyRepository> INSTANCES = new ConcurrentHashMap<String, IndexedHostKeyRepository>();
+
+    /**
+     * Logger.
+     */
+    private static final Logger LOG;
+
+    /**
+     * Messages resource path.
+     */
+    private static final String MESSAGES = "META-INF/Messages";
+
+    static {
+        LOG = Logger.getLogger("net.trajano.wagon.git", MESSAGES);
+    }
+
+    /**
+     * Gets the shared repository for a known hosts file.
+     *
+     * @param file
+     *            known hosts file
+     * @return repository
+     */
+    public static IndexedHostKeyRepository getInstance(final File file) {
+
+        final String key = file.getAbsolutePath();
+        final IndexedHostKeyRepository repository = INSTANCES.get(key);
+        if (repository != null) {
+            return repository;
+        }
+        INSTANCES.putIfAbsent(key, new IndexedHostKeyRepository(file));
+        return INSTANCES.get(key);
+    }
+
+    /**
+     * Checks if the host field only has plain host names.
+     *
+     * @param hosts
+     *            host field
+     * @return <code>true</code> if there are no patterns or hashes.
+     */
+    private static boolean isPlain(final String hosts) {
+
+        return hosts.indexOf('*') == -1 && hosts.indexOf('?') == -1 && hosts.indexOf('!') == -1 && !hosts.startsWith(HASHED_PREFIX);
+    }
+
+    /**
+     * Gets the type of a key blob which is stored as a length prefixed string
+     * at the start of the blob.
+     *
+     * @param key
+     *            key blob
+     * @return key type or an empty string if the blob is malformed.
+     */
+    private static String keyType(final byte[] key) {
+
+        if (key.length < 4) {
+            return ""; //$NON-NLS-1$
+        }
+        final int length = (key[0] & 0xff) << 24 | (key[1] & 0xff) << 16 | (key[2] & 0xff) << 8 | key[3] & 0xff;
+        if (length < 0 || length > key.length - 4) {
+            return ""; //$NON-NLS-1$
+        }
+        try {
+            return new String(key, 4, length, "UTF-8"); //$NON-NLS-1$
+        } catch (final IOException e) {
+            return ""; //$NON-NLS-1$
+        }
+    }
+
+    /**
+     * Checks if a key is revoked by one of the entries.
+     *
+     * @param entries
+     *            entries for a host
+     * @param key
+     *            key blob
+     * @return <code>true</code> if the key is revoked.
+     */
+    private static boolean isRevoked(final List<Entry> entries,
+        final byte[] key) {
+
+        for (final Entry entry : entries) {
+            if (entry.revoked && Arrays.equals(entry.key, key)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Keys added in this JVM.
+     */
+    private final List<Entry> addedEntries = new CopyOnWriteArrayList<Entry>();
+
+    /**
+     * Known hosts file.
+     */
+    private final File file;
+
+    /**
+     * Current index of the file.
+     */
+    private volatile Index index;
+
+    /**
+     * Constructs the repository.
+     *
+     * @param file
+     *            known hosts file
+     */
+    private IndexedHostKeyRepository(final File file) {
+
+        this.file = file;
+    }
+
+    /**
+     * Adds the key in memory only. {@inheritDoc}
+     */
+    @Override
+    public void add(final HostKey hostkey,
+        final UserInfo ui) {
+
+        final String hosts = hostkey.getHost();
+        addedEntries.add(new Entry(hosts.startsWith(HASHED_PREFIX) ? hosts : hosts.toLowerCase(Locale.ENGLISH), hostkey.getType(), Base64.decode(hostkey.getKey()), false));
+    }
+
+    /**
+     * A revoked key is reported as {@link #CHANGED} even if another entry lists
+     * it, so the connection is refused. {@inheritDoc}
+     */
+    @Override
+    public int check(final String host,
+        final byte[] key) {
+
+        final String type = keyType(key);
+        final List<Entry> entries = getEntries(host);
+        if (isRevoked(entries, key)) {
+            return CHANGED;
+        }
+        int result = NOT_INCLUDED;
+        for (final Entry entry : entries) {
+            if (!entry.revoked && entry.type.equals(type)) {
+                if (Arrays.equals(entry.key, key)) {
+                    return OK;
+                }
+                result = CHANGED;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Gets the entries for a host from the file and the added keys.
+     *
+     * @param host
+     *            host
+     * @return entries
+     */
+    private List<Entry> getEntries(final String host) {
+
+        final String lowerCaseHost = host.toLowerCase(Locale.ENGLISH);
+        final List<Entry> entries = getIndex().get(lowerCaseHost);
+        if (addedEntries.isEmpty()) {
+            return entries;
+        }
+        final List<Entry> all = new ArrayList<Entry>(entries);
+        for (final Entry entry : addedEntries) {
+            if (entry.matches(lowerCaseHost)) {
+                all.add(entry);
+            }
+        }
+        return all;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public HostKey[] getHostKey() {
+
+        final List<HostKey> hostKeys = new ArrayList<HostKey>();
+        for (final Entry entry : getIndex().entries) {
+            final HostKey hostKey = entry.revoked ? null : entry.toHostKey();
+            if (hostKey != null) {
+                hostKeys.add(hostKey);
+            }
+        }
+        for (final Entry entry : addedEntries) {
+            final HostKey hostKey = entry.toHostKey();
+            if (hostKey != null) {
+                hostKeys.add(hostKey);
+            }
+        }
+        return hostKeys.toArray(new HostKey[hostKeys.size()]);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public HostKey[] getHostKey(final String host,
+        final String type) {
+
+        if (host == null) {
+            return getHostKey();
+        }
+        final List<Entry> entries = getEntries(host);
+        final List<HostKey> hostKeys = new ArrayList<HostKey>();
+        for (final Entry entry : entries) {
+            if ((type == null || type.equals(entry.type)) && !isRevoked(entries, entry.key)) {
+                final HostKey hostKey = entry.toHostKey();
+                if (hostKey != null) {
+                    hostKeys.add(hostKey);
+                }
+            }
+        }
+        return hostKeys.toArray(new HostKey[hostKeys.size()]);
+    }
+
+    /**
+     * Gets the index, parsing the file again if it has changed.
+     *
+     * @return index
+     */
+    private Index getIndex() {
+
+        final Index current = index;
+        if (current != null && current.lastModified == file.lastModified() && current.length == file.length()) {
+            return current;
+        }
+        synchronized (this) {
+            if (index == null || index.lastModified != file.lastModified() || index.length != file.length()) {
+                index = readIndex();
+            }
+            return index;
+        }
+    }
+
+    /**
+     * @return the path of the known hosts file.
+     */
+    @Override
+    public String getKnownHostsRepositoryID() {
+
+        return file.getAbsolutePath();
+    }
+
+    /**
+     * Parses the known hosts file. Keys marked "@revoked" are kept so they can
+     * be rejected. Other markers such as "@cert-authority" are not supported by
+     * JSch, those lines are logged and skipped along with lines that cannot be
+     * parsed.
+     *
+     * @return index
+     */
+    private Index readIndex() {
+
+        final Index newIndex = new Index(file.length(), file.lastModified());
+        if (!file.isFile()) {
+            return newIndex;
+        }
+        try {
+            final BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8")); //$NON-NLS-1$
+            try {
+                String line = reader.readLine();
+                while (line != null) {
+                    final String trimmed = line.trim();
+                    if (trimmed.length() != 0 && trimmed.charAt(0) != '#') {
+                        String[] fields = trimmed.split("\\s+"); //$NON-NLS-1$
+                        final boolean revoked = REVOKED_MARKER.equals(fields[0]);
+                        if (revoked) {
+                            fields = Arrays.copyOfRange(fields, 1, fields.length);
+                        } else if (fields[0].charAt(0) == '@') {
+                            LOG.log(Level.INFO, "knownhostsunsupportedmarker", new Object[] { //$NON-NLS-1$
+                                file,
+                                fields[0],
+                                line
+                            });
+                            fields = new String[0];
+                        }
+                        if (fields.length >= 3) {
+                            try {
+                                newIndex.add(new Entry(fields[0].startsWith(HASHED_PREFIX) ? fields[0] : fields[0].toLowerCase(Locale.ENGLISH), fields[1], Base64.decode(fields[2]), revoked));
+                            } catch (final IllegalArgumentException e) {
+                                LOG.log(Level.FINE, "knownhostsinvalidline", new Object[] { //$NON-NLS-1$
+                                    file,
+                                    line
+                                });
+                            }
+                        }
+                    }
+                    line = reader.readLine();
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (final IOException e) {
+            LOG.log(Level.WARNING, "knownhostsunreadable", new Object[] { //$NON-NLS-1$
+                file,
+                e.getMessage()
+            });
+        }
+        return newIndex;
+    }
+
+    /**
+     * Removes added keys only. {@inheritDoc}
+     */
+    @Override
+    public void remove(final String host,
+        final String type) {
+
+        remove(host, type, null);
+    }
+
+    /**
+     * Removes added keys only. {@inheritDoc}
+     */
+    @Override
+    public void remove(final String host,
+        final String type,
+        final byte[] key) {
+
+        final List<Entry> removed = new ArrayList<Entry>();
+        for (final Entry entry : addedEntries) {
+            if (entry.matches(host.toLowerCase(Locale.ENGLISH)) && (type == null || type.equals(entry.type)) && (key == null || Arrays.equals(key, entry.key))) {
+                removed.add(entry);
+            }
+        }
+        addedEntries.removeAll(removed);
+    }
+}
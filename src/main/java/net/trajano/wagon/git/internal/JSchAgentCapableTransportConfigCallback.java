@@ -3,12 +3,13 @@ package net.trajano.wagon.git.internal;
 import org.apache.maven.wagon.authentication.AuthenticationInfo;
 
 import org.eclipse.jgit.api.TransportConfigCallback;
-import org.eclipse.jgit.transport.SshSessionFactory;
 import org.eclipse.jgit.transport.SshTransport;
 import org.eclipse.jgit.transport.Transport;
 
 /**
- * Enables ssh-agent support using JSCH.
+ * Enables ssh-agent support using JSCH. The same session factory is used for
+ * every transport configured by the callback so the SSH connections can be
+ * reused until {@link #close()} is called.
  *
  * @author Archimedes Trajano
  */
@@ -16,9 +17,9 @@ public class JSchAgentCapableTransportConfigCallback implements
     TransportConfigCallback {
 
     /**
-     * Authentication info.
+     * SSH session factory.
      */
-    private final AuthenticationInfo authenticationInfo;
+    private final AgentJschConfigSessionFactory sshSessionFactory;
 
     /**
      * Constructs the callback.
@@ -28,7 +29,15 @@ public class JSchAgentCapableTransportConfigCallback implements
      */
     public JSchAgentCapableTransportConfigCallback(final AuthenticationInfo authenticationInfo) {
 
-        this.authenticationInfo = authenticationInfo;
+        sshSessionFactory = new AgentJschConfigSessionFactory(authenticationInfo);
+    }
+
+    /**
+     * Disconnects the SSH sessions that were kept open.
+     */
+    public void close() {
+
+        sshSessionFactory.close();
     }
 
     /**
@@ -40,7 +49,6 @@ public class JSchAgentCapableTransportConfigCallback implements
 
         if (transport instanceof SshTransport) {
             final SshTransport sshTransport = (SshTransport) transport;
-            final SshSessionFactory sshSessionFactory = new AgentJschConfigSessionFactory(authenticationInfo);
             sshTransport.setSshSessionFactory(sshSessionFactory);
         }
     }
@@ -0,0 +1,272 @@
+package net.trajano.wagon.git.internal;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.xml.sax.SAXException;
+
+/**
+ * Merges two copies of a <code>maven-metadata.xml</code> file that were changed
+ * by concurrent deployments. The version, snapshot version and plugin lists are
+ * combined and the scalar values such as <code>latest</code> and
+ * <code>lastUpdated</code> are taken from whichever copy was updated last.
+ */
+public final class MavenMetadataMerger {
+
+    /**
+     * Name of the metadata file.
+     */
+    private static final String METADATA_FILE_NAME = "maven-metadata.xml"; //$NON-NLS-1$
+
+    /**
+     * Elements of <code>versioning</code> taken from the copy updated last.
+     */
+    private static final String[] NEWEST_WINS = {
+        "latest", //$NON-NLS-1$
+        "release", //$NON-NLS-1$
+        "snapshot", //$NON-NLS-1$
+        "lastUpdated" //$NON-NLS-1$
+    };
+
+    /**
+     * Finds the first child element with a name.
+     *
+     * @param parent
+     *            parent element, may be <code>null</code>.
+     * @param name
+     *            element name
+     * @return child or <code>null</code> if there is none.
+     */
+    private static Element child(final Element parent,
+        final String name) {
+
+        if (parent == null) {
+            return null;
+        }
+        for (Node node = parent.getFirstChild(); node != null; node = node.getNextSibling()) {
+            if (node instanceof Element && name.equals(node.getNodeName())) {
+                return (Element) node;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Gets the trimmed text of a child element.
+     *
+     * @param parent
+     *            parent element, may be <code>null</code>.
+     * @param name
+     *            element name
+     * @return text or an empty string if there is no such child.
+     */
+    private static String childText(final Element parent,
+        final String name) {
+
+        final Element child = child(parent, name);
+        return child == null ? "" : child.getTextContent() //$NON-NLS-1$
+            .trim();
+    }
+
+    /**
+     * Checks if a repository path is a Maven metadata file.
+     *
+     * @param path
+     *            repository path
+     * @return <code>true</code> if the path is a metadata file.
+     */
+    public static boolean isMetadata(final String path) {
+
+        return path.equals(METADATA_FILE_NAME) || path.endsWith("/" + METADATA_FILE_NAME); //$NON-NLS-1$
+    }
+
+    /**
+     * Merges the metadata. The result is based on their copy with what is only
+     * in our copy added to it.
+     *
+     * @param theirs
+     *            metadata from the remote
+     * @param ours
+     *            metadata written in this session
+     * @return merged metadata
+     * @throws IOException
+     *             either copy is not well formed XML
+     */
+    public static byte[] merge(final byte[] theirs,
+        final byte[] ours) throws IOException {
+
+        try {
+            final DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+            factory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true); //$NON-NLS-1$
+            factory.setExpandEntityReferences(false);
+            final DocumentBuilder builder = factory.newDocumentBuilder();
+            final Document theirDocument = builder.parse(new ByteArrayInputStream(theirs));
+            final Document ourDocument = builder.parse(new ByteArrayInputStream(ours));
+            final Element theirRoot = theirDocument.getDocumentElement();
+            final Element ourRoot = ourDocument.getDocumentElement();
+
+            mergeVersioning(theirRoot, ourRoot);
+            mergeList(theirRoot, ourRoot, "plugins", "plugin", "prefix"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+
+            final Transformer transformer = TransformerFactory.newInstance()
+                .newTransformer();
+            transformer.setOutputProperty(OutputKeys.ENCODING, "UTF-8"); //$NON-NLS-1$
+            final ByteArrayOutputStream out = new ByteArrayOutputStream(theirs.length + ours.length);
+            transformer.transform(new DOMSource(theirDocument), new StreamResult(out));
+            return out.toByteArray();
+        } catch (final ParserConfigurationException e) {
+            throw new IOException(e.getMessage(), e);
+        } catch (final SAXException e) {
+            throw new IOException(e.getMessage(), e);
+        } catch (final TransformerException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Adds the entries of a list in our copy to their copy. Entries are matched
+     * by the text of the key elements. When both have an entry, ours replaces
+     * theirs only if its <code>updated</code> value is newer.
+     *
+     * @param theirParent
+     *            parent of the list in their copy
+     * @param ourParent
+     *            parent of the list in our copy
+     * @param listName
+     *            list element name
+     * @param entryName
+     *            entry element name
+     * @param keyNames
+     *            names of the child elements identifying an entry, none if the
+     *            entry text itself is the key.
+     */
+    private static void mergeList(final Element theirParent,
+        final Element ourParent,
+        final String listName,
+        final String entryName,
+        final String... keyNames) {
+
+        final Element ourList = child(ourParent, listName);
+        if (ourList == null) {
+            return;
+        }
+        Element theirList = child(theirParent, listName);
+        if (theirList == null) {
+            theirList = theirParent.getOwnerDocument()
+                .createElement(listName);
+            theirParent.appendChild(theirList);
+        }
+        final Map<String, Element> theirEntries = new LinkedHashMap<String, Element>();
+        for (Node node = theirList.getFirstChild(); node != null; node = node.getNextSibling()) {
+            if (node instanceof Element && entryName.equals(node.getNodeName())) {
+                theirEntries.put(toKey((Element) node, keyNames), (Element) node);
+            }
+        }
+        for (Node node = ourList.getFirstChild(); node != null; node = node.getNextSibling()) {
+            if (!(node instanceof Element) || !entryName.equals(node.getNodeName())) {
+                continue;
+            }
+            final Element ourEntry = (Element) node;
+            final Element theirEntry = theirEntries.get(toKey(ourEntry, keyNames));
+            final Node imported = theirList.getOwnerDocument()
+                .importNode(ourEntry, true);
+            if (theirEntry == null) {
+                theirList.appendChild(imported);
+            } else if (childText(ourEntry, "updated").compareTo(childText(theirEntry, "updated")) > 0) { //$NON-NLS-1$ //$NON-NLS-2$
+                theirList.replaceChild(imported, theirEntry);
+            }
+        }
+    }
+
+    /**
+     * Merges the <code>versioning</code> elements.
+     *
+     * @param theirRoot
+     *            root of their copy
+     * @param ourRoot
+     *            root of our copy
+     */
+    private static void mergeVersioning(final Element theirRoot,
+        final Element ourRoot) {
+
+        final Element ourVersioning = child(ourRoot, "versioning"); //$NON-NLS-1$
+        if (ourVersioning == null) {
+            return;
+        }
+        final Element theirVersioning = child(theirRoot, "versioning"); //$NON-NLS-1$
+        if (theirVersioning == null) {
+            theirRoot.appendChild(theirRoot.getOwnerDocument()
+                .importNode(ourVersioning, true));
+            return;
+        }
+        mergeList(theirVersioning, ourVersioning, "versions", "version"); //$NON-NLS-1$ //$NON-NLS-2$
+        mergeList(theirVersioning, ourVersioning, "snapshotVersions", "snapshotVersion", "classifier", "extension"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+
+        // lastUpdated is a fixed width timestamp so it compares as a string.
+        if (childText(ourVersioning, "lastUpdated").compareTo(childText(theirVersioning, "lastUpdated")) <= 0) { //$NON-NLS-1$ //$NON-NLS-2$
+            return;
+        }
+        for (final String name : NEWEST_WINS) {
+            final Element ourElement = child(ourVersioning, name);
+            if (ourElement == null) {
+                continue;
+            }
+            final Node imported = theirVersioning.getOwnerDocument()
+                .importNode(ourElement, true);
+            final Element theirElement = child(theirVersioning, name);
+            if (theirElement == null) {
+                theirVersioning.appendChild(imported);
+            } else {
+                theirVersioning.replaceChild(imported, theirElement);
+            }
+        }
+    }
+
+    /**
+     * Builds the key of a list entry.
+     *
+     * @param entry
+     *            entry
+     * @param keyNames
+     *            names of the child elements identifying the entry, none if the
+     *            entry text itself is the key.
+     * @return key
+     */
+    private static String toKey(final Element entry,
+        final String... keyNames) {
+
+        if (keyNames.length == 0) {
+            return entry.getTextContent()
+                .trim();
+        }
+        final StringBuilder key = new StringBuilder();
+        for (final String keyName : keyNames) {
+            key.append(childText(entry, keyName))
+                .append(':');
+        }
+        return key.toString();
+    }
+
+    /**
+     * Prevent instantiation of utility class.
+     */
+    private MavenMetadataMerger() {
+
+    }
+}
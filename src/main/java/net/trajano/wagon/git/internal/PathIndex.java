@@ -0,0 +1,215 @@
+package net.trajano.wagon.git.internal;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.treewalk.TreeWalk;
+
+/**
+ * Paths of the files in a tree held in memory so existence checks and directory
+ * listings do not walk the tree or touch the file system. The paths are kept in
+ * a sorted array; a directory is the range of paths that start with its name
+ * and a "/", which is found with a binary search.
+ */
+public final class PathIndex {
+
+    /**
+     * Index of an empty tree.
+     */
+    public static final PathIndex EMPTY = new PathIndex(new String[0], new ObjectId[0], false);
+
+    /**
+     * Builds the index of a tree.
+     *
+     * @param reader
+     *            object reader
+     * @param treeId
+     *            tree
+     * @return index
+     * @throws IOException
+     *             I/O error
+     */
+    public static PathIndex build(final ObjectReader reader,
+        final ObjectId treeId) throws IOException {
+
+        final Map<String, ObjectId> blobs = new TreeMap<String, ObjectId>();
+        boolean symbolicLinks = false;
+        final TreeWalk walk = new TreeWalk(reader);
+        try {
+            walk.addTree(treeId);
+            walk.setRecursive(true);
+            while (walk.next()) {
+                final FileMode mode = walk.getFileMode(0);
+                if (mode.getObjectType() != Constants.OBJ_BLOB) {
+                    continue;
+                }
+                symbolicLinks |= mode == FileMode.SYMLINK;
+                blobs.put(walk.getPathString(), walk.getObjectId(0));
+            }
+        } finally {
+            walk.close();
+        }
+        return new PathIndex(blobs.keySet()
+            .toArray(new String[blobs.size()]), blobs.values()
+                .toArray(new ObjectId[blobs.size()]),
+            symbolicLinks);
+    }
+
+    /**
+     * Converts a directory path to the prefix of the paths under it.
+     *
+     * @param directory
+     *            repository path of the directory, an empty string for the
+     *            root.
+     * @return prefix ending with "/" or an empty string for the root.
+     */
+    private static String toPrefix(final String directory) {
+
+        return directory.length() == 0 || directory.endsWith("/") ? directory : directory + "/"; //$NON-NLS-1$ //$NON-NLS-2$
+    }
+
+    /**
+     * Blobs in the same order as {@link #paths}.
+     */
+    private final ObjectId[] blobs;
+
+    /**
+     * Sorted repository paths of the files.
+     */
+    private final String[] paths;
+
+    /**
+     * Indicates the tree has symbolic links.
+     */
+    private final boolean symbolicLinks;
+
+    /**
+     * Constructs the index.
+     *
+     * @param paths
+     *            sorted paths
+     * @param blobs
+     *            blobs of the paths
+     * @param symbolicLinks
+     *            indicates the tree has symbolic links
+     */
+    private PathIndex(final String[] paths,
+        final ObjectId[] blobs,
+        final boolean symbolicLinks) {
+
+        this.paths = paths;
+        this.blobs = blobs;
+        this.symbolicLinks = symbolicLinks;
+    }
+
+    /**
+     * Adds the names of the entries directly in a directory. Names of
+     * subdirectories end with "/". Each subdirectory is skipped over with a
+     * binary search so the cost depends on the number of names rather than the
+     * number of files under the directory.
+     *
+     * @param directory
+     *            repository path of the directory, an empty string for the
+     *            root.
+     * @param names
+     *            collection the names are added to
+     * @return <code>false</code> if the directory does not exist.
+     */
+    public boolean addNames(final String directory,
+        final Collection<String> names) {
+
+        final String prefix = toPrefix(directory);
+        int i = ceiling(prefix);
+        final boolean exists = prefix.length() == 0 || i < paths.length && paths[i].startsWith(prefix);
+        while (i < paths.length && paths[i].startsWith(prefix)) {
+            final int slash = paths[i].indexOf('/', prefix.length());
+            if (slash == -1) {
+                names.add(paths[i].substring(prefix.length()));
+                ++i;
+            } else {
+                final String subdirectory = paths[i].substring(0, slash + 1);
+                names.add(subdirectory.substring(prefix.length()));
+                i = ceiling(subdirectory + Character.MAX_VALUE);
+            }
+        }
+        return exists;
+    }
+
+    /**
+     * Adds the paths of all the files under a directory.
+     *
+     * @param directory
+     *            repository path of the directory, an empty string for the
+     *            root.
+     * @param collection
+     *            collection the paths are added to
+     */
+    public void addPaths(final String directory,
+        final Collection<String> collection) {
+
+        final String prefix = toPrefix(directory);
+        for (int i = ceiling(prefix); i < paths.length && paths[i].startsWith(prefix); ++i) {
+            collection.add(paths[i]);
+        }
+    }
+
+    /**
+     * Finds the position of the first path that is not less than a key.
+     *
+     * @param key
+     *            key
+     * @return position, the number of paths if all are less than the key.
+     */
+    private int ceiling(final String key) {
+
+        final int i = Arrays.binarySearch(paths, key);
+        return i >= 0 ? i : -i - 1;
+    }
+
+    /**
+     * Gets the blob of a file.
+     *
+     * @param path
+     *            repository path
+     * @return blob ID or <code>null</code> if there is no file at the path.
+     */
+    public ObjectId getBlob(final String path) {
+
+        final int i = Arrays.binarySearch(paths, path);
+        return i >= 0 ? blobs[i] : null;
+    }
+
+    /**
+     * Checks if the tree has symbolic links.
+     *
+     * @return <code>true</code> if the tree has a symbolic link.
+     */
+    public boolean hasSymbolicLinks() {
+
+        return symbolicLinks;
+    }
+
+    /**
+     * Checks if a path is a directory, that is it has files under it.
+     *
+     * @param path
+     *            repository path, an empty string for the root.
+     * @return <code>true</code> if the path is a directory.
+     */
+    public boolean isDirectory(final String path) {
+
+        if (path.length() == 0) {
+            return true;
+        }
+        final String prefix = toPrefix(path);
+        final int i = ceiling(prefix);
+        return i < paths.length && paths[i].startsWith(prefix);
+    }
+}
@@ -0,0 +1,392 @@
+package net.trajano.wagon.git.internal;
+
+import static java.lang.String.format;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Random;
+import java.util.ResourceBundle;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.Deflater;
+
+import net.trajano.wagon.git.internal.SessionMetrics.Phase;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.PushCommand;
+import org.eclipse.jgit.api.TransportConfigCallback;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.storage.pack.PackConfig;
+import org.eclipse.jgit.transport.CredentialsProvider;
+import org.eclipse.jgit.transport.PushResult;
+import org.eclipse.jgit.transport.RefLeaseSpec;
+import org.eclipse.jgit.transport.RefSpec;
+import org.eclipse.jgit.transport.RemoteRefUpdate;
+import org.eclipse.jgit.transport.Transport;
+
+/**
+ * Commits the changes of working copies and pushes them to their remotes. A
+ * push that is rejected because someone else updated the branch is retried
+ * after replaying the changes onto the new tip.
+ */
+public final class Pusher {
+
+    /**
+     * Logger.
+     */
+    private static final Logger LOG;
+
+    /**
+     * Maximum number of times {@link #PUSH_RETRY_DELAY} is doubled, which keeps
+     * the delay under a minute however many retries are configured.
+     */
+    private static final int MAX_PUSH_RETRY_DOUBLINGS = 8;
+
+    /**
+     * Messages resource path.
+     */
+    private static final String MESSAGES = "META-INF/Messages";
+
+    /**
+     * Base delay in milliseconds before retrying a rejected push. It is doubled
+     * on each attempt up to {@link #MAX_PUSH_RETRY_DOUBLINGS} times and a
+     * random amount up to the same value is added so competing deployers do not
+     * retry in step.
+     */
+    private static final int PUSH_RETRY_DELAY = 200;
+
+    /**
+     * Resource bundle.
+     */
+    private static final ResourceBundle R = ResourceBundle.getBundle(MESSAGES);
+
+    /**
+     * Random source for the retry delay.
+     */
+    private static final Random RANDOM = new Random();
+
+    static {
+        LOG = Logger.getLogger("net.trajano.wagon.git", MESSAGES);
+    }
+
+    /**
+     * Commit from the staged changes of the working copy rather than adding the
+     * touched paths of the work tree.
+     */
+    private final boolean bare;
+
+    /**
+     * Credentials provider.
+     */
+    private final CredentialsProvider credentialsProvider;
+
+    /**
+     * Number of commits kept on the branch when its history is trimmed, zero
+     * keeps the whole history.
+     */
+    private final int historyLimit;
+
+    /**
+     * Metrics of the session.
+     */
+    private final SessionMetrics metrics;
+
+    /**
+     * Maximum delta chain depth of the pack, zero uses the JGit default.
+     */
+    private final int packDepth;
+
+    /**
+     * Number of delta search threads, zero uses the JGit default.
+     */
+    private final int packThreads;
+
+    /**
+     * Delta search window, zero uses the JGit default.
+     */
+    private final int packWindow;
+
+    /**
+     * Number of times a rejected push is retried.
+     */
+    private final int pushRetries;
+
+    /**
+     * Transport configuration.
+     */
+    private final TransportConfigCallback transportConfigCallback;
+
+    /**
+     * Constructs the pusher.
+     *
+     * @param credentialsProvider
+     *            credentials provider
+     * @param transportConfigCallback
+     *            transport configuration
+     * @param metrics
+     *            metrics of the session
+     * @param bare
+     *            <code>true</code> if the working copies are written through
+     *            the object database.
+     * @param historyLimit
+     *            number of commits kept on the branch, zero for all.
+     * @param pushRetries
+     *            number of times a rejected push is retried
+     * @param packDepth
+     *            maximum delta chain depth, zero for the default.
+     * @param packThreads
+     *            number of delta search threads, zero for the default.
+     * @param packWindow
+     *            delta search window, zero for the default.
+     */
+    public Pusher(final CredentialsProvider credentialsProvider,
+        final TransportConfigCallback transportConfigCallback,
+        final SessionMetrics metrics,
+        final boolean bare,
+        final int historyLimit,
+        final int pushRetries,
+        final int packDepth,
+        final int packThreads,
+        final int packWindow) {
+
+        this.credentialsProvider = credentialsProvider;
+        this.transportConfigCallback = transportConfigCallback;
+        this.metrics = metrics;
+        this.bare = bare;
+        this.historyLimit = historyLimit;
+        this.pushRetries = pushRetries;
+        this.packDepth = packDepth;
+        this.packThreads = packThreads;
+        this.packWindow = packWindow;
+    }
+
+    /**
+     * Commits the local changes of a working copy and pushes them to the
+     * repository. If the push is rejected because someone else updated the
+     * branch, the branch is fetched and the changes are replayed onto it before
+     * pushing again, up to {@link #pushRetries} times with an increasing delay.
+     * When {@link #historyLimit} is set and the history was trimmed, the push
+     * is forced but only succeeds if the remote branch is still where it was
+     * fetched from. The working copy is closed afterwards whether or not this
+     * succeeds.
+     *
+     * @param workingCopy
+     *            working copy
+     * @throws GitAPIException
+     * @throws IOException
+     */
+    public void commitAndPush(final WorkingCopy workingCopy) throws GitAPIException,
+        IOException {
+
+        try {
+            final Git git = workingCopy.getGit();
+            ObjectId base = git.getRepository()
+                .resolve(Constants.HEAD);
+            if (bare) {
+                final long start = System.nanoTime();
+                final boolean committed = workingCopy.commitStaged(R.getString("commitmessage")); //$NON-NLS-1$
+                metrics.record(Phase.COMMIT, start, 0);
+                if (!committed) {
+                    return;
+                }
+            } else {
+                final long addStart = System.nanoTime();
+                final boolean added = workingCopy.addTouchedPaths();
+                metrics.record(Phase.ADD, addStart, 0);
+                if (!added) {
+                    return;
+                }
+                final long commitStart = System.nanoTime();
+                git.commit()
+                    .setMessage(R.getString("commitmessage")) //$NON-NLS-1$
+                    .call();
+                metrics.record(Phase.COMMIT, commitStart, 0);
+            }
+            final PackConfig packConfig = newPackConfig(git.getRepository(), workingCopy);
+            boolean rewritten = trimHistory(workingCopy);
+            for (int attempt = 1; !push(workingCopy, packConfig, rewritten ? base : null); ++attempt) {
+                if (attempt > pushRetries) {
+                    throw new IOException(format(R.getString("pushretriesexhausted"), workingCopy.getGitRepositoryUri(), attempt)); //$NON-NLS-1$
+                }
+                LOG.log(Level.INFO, "pushretry", new Object[] { //$NON-NLS-1$
+                    workingCopy.getGitRepositoryUri(),
+                    attempt
+                });
+                try {
+                    Thread.sleep((PUSH_RETRY_DELAY << Math.min(attempt - 1, MAX_PUSH_RETRY_DOUBLINGS)) + RANDOM.nextInt(PUSH_RETRY_DELAY));
+                } catch (final InterruptedException e) {
+                    Thread.currentThread()
+                        .interrupt();
+                    throw new InterruptedIOException(e.getMessage());
+                }
+                final long fetchStart = System.nanoTime();
+                final ObjectId onto = fetchBranch(workingCopy);
+                metrics.record(Phase.FETCH, fetchStart, 0);
+                workingCopy.replay(base, onto, R.getString("commitmessage")); //$NON-NLS-1$
+                base = onto;
+                rewritten = trimHistory(workingCopy);
+            }
+        } finally {
+            final long start = System.nanoTime();
+            workingCopy.close();
+            metrics.record(Phase.CLEANUP, start, 0);
+        }
+    }
+
+    /**
+     * Fetches the current branch of a working copy from the remote.
+     *
+     * @param workingCopy
+     *            working copy
+     * @return commit the branch points to in the remote or <code>null</code> if
+     *         it does not exist there.
+     * @throws GitAPIException
+     * @throws IOException
+     */
+    private ObjectId fetchBranch(final WorkingCopy workingCopy) throws GitAPIException,
+        IOException {
+
+        final String branch = workingCopy.getGit()
+            .getRepository()
+            .getBranch();
+        final Ref ref = workingCopy.getGit()
+            .fetch()
+            .setRemote(workingCopy.getGitRepositoryUri())
+            .setRefSpecs(new RefSpec("+" + Constants.R_HEADS + branch + ":" + Constants.R_REMOTES + Constants.DEFAULT_REMOTE_NAME + "/" + branch)) //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+            .setCredentialsProvider(credentialsProvider)
+            .setTransportConfigCallback(transportConfigCallback)
+            .setProgressMonitor(metrics.newProgressMonitor(Phase.FETCH))
+            .call()
+            .getAdvertisedRef(Constants.R_HEADS + branch);
+        return ref == null ? null : ref.getObjectId();
+    }
+
+    /**
+     * Builds the pack configuration used on push. Blobs written in the session
+     * that are already compressed are left out of delta search. JGit 4.7 does
+     * not honour the <code>delta</code> attribute, so this is done by lowering
+     * the big file threshold, above which objects are not deltified, to just
+     * above the largest blob that is not compressed. Compressed blobs smaller
+     * than that are still searched. The compression level applies to the whole
+     * pack so it is only lowered to the fastest level when most of the bytes
+     * are compressed already.
+     *
+     * @param repository
+     *            repository, its <code>pack</code> settings are used as the
+     *            base.
+     * @param workingCopy
+     *            working copy whose blobs are being pushed
+     * @return pack configuration
+     */
+    private PackConfig newPackConfig(final Repository repository,
+        final WorkingCopy workingCopy) {
+
+        final PackConfig packConfig = new PackConfig(repository);
+        if (packThreads > 0) {
+            packConfig.setThreads(packThreads);
+        }
+        if (packWindow > 0) {
+            packConfig.setDeltaSearchWindowSize(packWindow);
+        }
+        if (packDepth > 0) {
+            packConfig.setMaxDeltaDepth(packDepth);
+        }
+        final long incompressibleBytes = workingCopy.getIncompressibleBytes();
+        if (incompressibleBytes == 0) {
+            return packConfig;
+        }
+        final long largestCompressible = workingCopy.getLargestCompressibleLength();
+        if (largestCompressible == -1) {
+            packConfig.setDeltaCompress(false);
+        } else if (largestCompressible < packConfig.getBigFileThreshold()) {
+            packConfig.setBigFileThreshold((int) largestCompressible + 1);
+        }
+        if (incompressibleBytes * 2 > workingCopy.getWrittenBytes()) {
+            packConfig.setCompressionLevel(Deflater.BEST_SPEED);
+        }
+        return packConfig;
+    }
+
+    /**
+     * Pushes the current branch of a working copy.
+     *
+     * @param workingCopy
+     *            working copy
+     * @param packConfig
+     *            pack configuration
+     * @param lease
+     *            if not <code>null</code> the push is forced as long as the
+     *            remote branch is at this commit.
+     * @return <code>false</code> if the push was rejected because the remote
+     *         branch has commits that are not in the working copy.
+     * @throws GitAPIException
+     * @throws IOException
+     *             the push was rejected for another reason.
+     */
+    private boolean push(final WorkingCopy workingCopy,
+        final PackConfig packConfig,
+        final ObjectId lease) throws GitAPIException,
+        IOException {
+
+        final PushCommand push = workingCopy.getGit()
+            .push();
+        if (lease != null) {
+            push.setForce(true)
+                .setRefLeaseSpecs(new RefLeaseSpec(Constants.R_HEADS + workingCopy.getGit()
+                    .getRepository()
+                    .getBranch(), lease.name()));
+        }
+        final long start = System.nanoTime();
+        final Iterable<PushResult> results = push.setRemote(workingCopy.getGitRepositoryUri())
+            .setCredentialsProvider(credentialsProvider)
+            .setTransportConfigCallback(new TransportConfigCallback() {
+
+                @Override
+                public void configure(final Transport transport) {
+
+                    transportConfigCallback.configure(transport);
+                    transport.setPackConfig(packConfig);
+                }
+            })
+            .setProgressMonitor(metrics.newProgressMonitor(Phase.PUSH))
+            .call();
+        metrics.record(Phase.PUSH, start, 0);
+        for (final PushResult result : results) {
+            for (final RemoteRefUpdate update : result.getRemoteUpdates()) {
+                switch (update.getStatus()) {
+                case OK:
+                case UP_TO_DATE:
+                    break;
+                case REJECTED_NONFASTFORWARD:
+                case REJECTED_REMOTE_CHANGED:
+                    return false;
+                default:
+                    throw new IOException(format(R.getString("pushrejected"), workingCopy.getGitRepositoryUri(), update.getRemoteName(), update.getStatus(), update.getMessage())); //$NON-NLS-1$
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Trims the history of a working copy to {@link #historyLimit} commits once
+     * it has twice as many.
+     *
+     * @param workingCopy
+     *            working copy
+     * @return <code>true</code> if the history was rewritten.
+     * @throws IOException
+     *             I/O error
+     */
+    private boolean trimHistory(final WorkingCopy workingCopy) throws IOException {
+
+        if (historyLimit <= 0) {
+            return false;
+        }
+        return workingCopy.trimHistory(historyLimit, historyLimit > Integer.MAX_VALUE / 2 ? Integer.MAX_VALUE : historyLimit * 2);
+    }
+}
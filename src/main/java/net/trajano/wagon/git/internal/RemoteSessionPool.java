@@ -0,0 +1,232 @@
+package net.trajano.wagon.git.internal;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.jgit.errors.TransportException;
+import org.eclipse.jgit.transport.CredentialsProvider;
+import org.eclipse.jgit.transport.RemoteSession;
+import org.eclipse.jgit.transport.URIish;
+import org.eclipse.jgit.util.FS;
+
+/**
+ * Remote sessions kept open for reuse keyed by user, host and port. The pool is
+ * only locked to find the entry of a key, each entry has its own lock that is
+ * held while its session is opened. Sessions to different hosts are opened in
+ * parallel while requests for a session that is being opened wait for it rather
+ * than opening another.
+ */
+public final class RemoteSessionPool {
+
+    /**
+     * Pool entry for a user, host and port.
+     */
+    private final class Entry {
+
+        /**
+         * Indicates the pool was closed. Sessions opened afterwards are not
+         * kept.
+         */
+        private boolean closed;
+
+        /**
+         * Open session, <code>null</code> if none was opened yet or it was
+         * closed. It is volatile so {@link #holds(RemoteSession)} does not wait
+         * for a session that is being opened.
+         */
+        private volatile RemoteSession session;
+
+        /**
+         * Closes the session.
+         */
+        synchronized void close() {
+
+            closed = true;
+            disconnect();
+        }
+
+        /**
+         * Disconnects the session.
+         */
+        private void disconnect() {
+
+            if (session != null) {
+                session.disconnect();
+                session = null;
+            }
+        }
+
+        /**
+         * Gets the open session or opens a new one. A session that was
+         * disconnected by the server is replaced. Once the pool is closed a new
+         * session is opened each time and not kept.
+         *
+         * @param uri
+         *            remote URI
+         * @param credentialsProvider
+         *            credentials provider
+         * @param fs
+         *            file system
+         * @param tms
+         *            timeout in milliseconds
+         * @return session
+         * @throws TransportException
+         *             unable to open the session.
+         */
+        synchronized RemoteSession getSession(final URIish uri,
+            final CredentialsProvider credentialsProvider,
+            final FS fs,
+            final int tms) throws TransportException {
+
+            if (closed) {
+                return opener.open(uri, credentialsProvider, fs, tms);
+            }
+            if (session != null && opener.isOpen(session)) {
+                return session;
+            }
+            disconnect();
+            session = opener.open(uri, credentialsProvider, fs, tms);
+            return session;
+        }
+
+        /**
+         * Checks if the entry holds a session.
+         *
+         * @param remoteSession
+         *            session
+         * @return <code>true</code> if it is the session of the entry.
+         */
+        boolean holds(final RemoteSession remoteSession) {
+
+            return session == remoteSession;
+        }
+    }
+
+    /**
+     * Opens the sessions of a pool.
+     */
+    public interface Opener {
+
+        /**
+         * Checks if a session is still open.
+         *
+         * @param session
+         *            session obtained from
+         *            {@link #open(URIish, CredentialsProvider, FS, int)}
+         * @return <code>true</code> if the session can be used.
+         */
+        boolean isOpen(RemoteSession session);
+
+        /**
+         * Opens a session.
+         *
+         * @param uri
+         *            remote URI
+         * @param credentialsProvider
+         *            credentials provider
+         * @param fs
+         *            file system
+         * @param tms
+         *            timeout in milliseconds
+         * @return session
+         * @throws TransportException
+         *             unable to open the session.
+         */
+        RemoteSession open(URIish uri,
+            CredentialsProvider credentialsProvider,
+            FS fs,
+            int tms) throws TransportException;
+    }
+
+    /**
+     * Entries keyed by user, host and port.
+     */
+    private final Map<String, Entry> entries = new HashMap<String, Entry>();
+
+    /**
+     * Session opener.
+     */
+    private final Opener opener;
+
+    /**
+     * Constructs the pool.
+     *
+     * @param opener
+     *            session opener
+     */
+    public RemoteSessionPool(final Opener opener) {
+
+        this.opener = opener;
+    }
+
+    /**
+     * Closes the sessions in the pool.
+     */
+    public void close() {
+
+        final List<Entry> closed;
+        synchronized (this) {
+            closed = new ArrayList<Entry>(entries.values());
+            entries.clear();
+        }
+        for (final Entry entry : closed) {
+            entry.close();
+        }
+    }
+
+    /**
+     * Checks if a session is kept open by the pool.
+     *
+     * @param session
+     *            session
+     * @return <code>true</code> if the session is in the pool.
+     */
+    public boolean contains(final RemoteSession session) {
+
+        final List<Entry> current;
+        synchronized (this) {
+            current = new ArrayList<Entry>(entries.values());
+        }
+        for (final Entry entry : current) {
+            if (entry.holds(session)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Gets an open session to the user, host and port of a URI, opening one if
+     * there is none.
+     *
+     * @param uri
+     *            remote URI
+     * @param credentialsProvider
+     *            credentials provider
+     * @param fs
+     *            file system
+     * @param tms
+     *            timeout in milliseconds
+     * @return session
+     * @throws TransportException
+     *             unable to open the session.
+     */
+    public RemoteSession getSession(final URIish uri,
+        final CredentialsProvider credentialsProvider,
+        final FS fs,
+        final int tms) throws TransportException {
+
+        final String key = uri.getUser() + "@" + uri.getHost() + ":" + uri.getPort(); //$NON-NLS-1$ //$NON-NLS-2$
+        Entry entry;
+        synchronized (this) {
+            entry = entries.get(key);
+            if (entry == null) {
+                entry = new Entry();
+                entries.put(key, entry);
+            }
+        }
+        return entry.getSession(uri, credentialsProvider, fs, tms);
+    }
+}
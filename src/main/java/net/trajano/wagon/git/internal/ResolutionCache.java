@@ -0,0 +1,150 @@
+package net.trajano.wagon.git.internal;
+
+import static java.lang.String.format;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Properties;
+import java.util.ResourceBundle;
+
+/**
+ * A small string to string cache persisted in a properties file where each
+ * entry expires after a fixed time. It is used to remember network lookups such
+ * as HTTP redirects and DNS CNAME records between builds.
+ */
+public class ResolutionCache {
+
+    /**
+     * Messages resource path.
+     */
+    private static final String MESSAGES = "META-INF/Messages";
+
+    /**
+     * Resource bundle.
+     */
+    private static final ResourceBundle R;
+
+    static {
+        R = ResourceBundle.getBundle(MESSAGES);
+    }
+
+    /**
+     * Cache file.
+     */
+    private final File file;
+
+    /**
+     * Entries. Each value is the expiry time in milliseconds followed by a
+     * space and the cached value.
+     */
+    private final Properties properties = new Properties();
+
+    /**
+     * Time to live in milliseconds.
+     */
+    private final long timeToLive;
+
+    /**
+     * Constructs the cache and loads the existing entries from the file if it
+     * exists.
+     *
+     * @param file
+     *            cache file
+     * @param timeToLive
+     *            time to live of new entries in milliseconds
+     * @throws IOException
+     *             unable to read the cache file
+     */
+    public ResolutionCache(final File file,
+        final long timeToLive) throws IOException {
+
+        this.file = file;
+        this.timeToLive = timeToLive;
+        if (file.exists()) {
+            final InputStream in = new FileInputStream(file);
+            try {
+                properties.load(in);
+            } finally {
+                in.close();
+            }
+        }
+    }
+
+    /**
+     * Gets a value from the cache.
+     *
+     * @param key
+     *            key
+     * @return value or <code>null</code> if it is not cached, has expired or
+     *         the entry is not valid.
+     */
+    public synchronized String get(final String key) {
+
+        final String entry = properties.getProperty(key);
+        if (entry == null) {
+            return null;
+        }
+        final int separator = entry.indexOf(' ');
+        if (separator == -1 || getExpiry(entry.substring(0, separator)) < System.currentTimeMillis()) {
+            properties.remove(key);
+            return null;
+        }
+        return entry.substring(separator + 1);
+    }
+
+    /**
+     * Parses the expiry time of an entry.
+     *
+     * @param expiry
+     *            expiry time in milliseconds as written by
+     *            {@link #put(String, String)}
+     * @return expiry time or zero if it is not a number so the entry is treated
+     *         as expired.
+     */
+    private static long getExpiry(final String expiry) {
+
+        try {
+            return Long.parseLong(expiry);
+        } catch (final NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Puts a value in the cache and writes the cache file. The file is written
+     * to a temporary file first and then renamed so other builds reading it do
+     * not see a partially written file.
+     *
+     * @param key
+     *            key
+     * @param value
+     *            value
+     * @throws IOException
+     *             unable to write the cache file
+     */
+    public synchronized void put(final String key,
+        final String value) throws IOException {
+
+        properties.setProperty(key, System.currentTimeMillis() + timeToLive + " " + value); //$NON-NLS-1$
+        final File parent = file.getAbsoluteFile()
+            .getParentFile();
+        if (!parent.mkdirs() && !parent.isDirectory()) {
+            throw new IOException(format(R.getString("unabletocreatedirs"), parent)); //$NON-NLS-1$
+        }
+        final File temp = File.createTempFile(file.getName(), null, parent);
+        final OutputStream out = new FileOutputStream(temp);
+        try {
+            properties.store(out, null);
+        } finally {
+            out.close();
+        }
+        if (!temp.renameTo(file) && !(file.delete() && temp.renameTo(file))) {
+            temp.delete();
+            throw new IOException(format(R.getString("unabletowritefile"), file)); //$NON-NLS-1$
+        }
+    }
+}
@@ -0,0 +1,491 @@
+package net.trajano.wagon.git.internal;
+
+import static java.lang.String.format;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.ResourceBundle;
+
+import org.eclipse.jgit.internal.JGitText;
+import org.eclipse.jgit.lib.ProgressMonitor;
+
+/**
+ * Wall time, byte and object counts of the phases of a wagon session. The
+ * phases may be recorded from several threads at once. The time of phases that
+ * overlap is added up so the total of the phases may be more than the duration
+ * of the session.
+ */
+public class SessionMetrics {
+
+    /**
+     * Counters of a phase.
+     */
+    private static final class Counters {
+
+        /**
+         * Bytes transferred.
+         */
+        private long bytes;
+
+        /**
+         * Number of times the phase was run.
+         */
+        private long count;
+
+        /**
+         * Wall time in nanoseconds.
+         */
+        private long nanos;
+
+        /**
+         * Objects received or sent as reported by JGit.
+         */
+        private long objects;
+    }
+
+    /**
+     * Phases of a session.
+     */
+    public enum Phase {
+        /**
+         * Updating the index from the work tree.
+         */
+        ADD,
+
+        /**
+         * Deleting the work tree and releasing the clone.
+         */
+        CLEANUP,
+
+        /**
+         * Cloning or refreshing a cached clone.
+         */
+        CLONE,
+
+        /**
+         * Creating the commit.
+         */
+        COMMIT,
+
+        /**
+         * Fetching the branch after a rejected push.
+         */
+        FETCH,
+
+        /**
+         * Reading a resource.
+         */
+        GET,
+
+        /**
+         * Pushing the branch.
+         */
+        PUSH,
+
+        /**
+         * Writing a resource.
+         */
+        PUT,
+
+        /**
+         * Uploading a directory.
+         */
+        PUT_DIRECTORY,
+
+        /**
+         * Resolving the repository URI.
+         */
+        RESOLVE;
+
+        /**
+         * Name used in the report.
+         *
+         * @return lower case name
+         */
+        public String toKey() {
+
+            return name().toLowerCase(Locale.ENGLISH);
+        }
+    }
+
+    /**
+     * Messages resource path.
+     */
+    private static final String MESSAGES = "META-INF/Messages";
+
+    /**
+     * Resource bundle.
+     */
+    private static final ResourceBundle R;
+
+    static {
+        R = ResourceBundle.getBundle(MESSAGES);
+    }
+
+    /**
+     * Escapes a string for JSON.
+     *
+     * @param s
+     *            string
+     * @return quoted string
+     */
+    private static String quote(final String s) {
+
+        final StringBuilder b = new StringBuilder(s.length() + 2).append('"');
+        for (int i = 0; i < s.length(); ++i) {
+            final char c = s.charAt(i);
+            if (c == '"' || c == '\\') {
+                b.append('\\')
+                    .append(c);
+            } else if (c < 0x20) {
+                b.append(format("\\u%04x", (int) c)); //$NON-NLS-1$
+            } else {
+                b.append(c);
+            }
+        }
+        return b.append('"')
+            .toString();
+    }
+
+    /**
+     * Counters keyed by phase.
+     */
+    private final Map<Phase, Counters> phases = new EnumMap<Phase, Counters>(Phase.class);
+
+    /**
+     * Time the session started in milliseconds since the epoch.
+     */
+    private final long startMillis = System.currentTimeMillis();
+
+    /**
+     * Time the session started in nanoseconds.
+     */
+    private final long startNanos = System.nanoTime();
+
+    /**
+     * Adds objects reported by JGit to a phase.
+     *
+     * @param phase
+     *            phase
+     * @param objects
+     *            number of objects
+     */
+    private synchronized void addObjects(final Phase phase,
+        final long objects) {
+
+        getCounters(phase).objects += objects;
+    }
+
+    /**
+     * Gets the counters of a phase creating them if needed.
+     *
+     * @param phase
+     *            phase
+     * @return counters
+     */
+    private Counters getCounters(final Phase phase) {
+
+        Counters counters = phases.get(phase);
+        if (counters == null) {
+            counters = new Counters();
+            phases.put(phase, counters);
+        }
+        return counters;
+    }
+
+    /**
+     * Wraps a stream so the bytes read and the time until it is closed are
+     * recorded against a phase.
+     *
+     * @param phase
+     *            phase
+     * @param in
+     *            stream
+     * @return metered stream
+     */
+    public InputStream meter(final Phase phase,
+        final InputStream in) {
+
+        final long start = System.nanoTime();
+        return new FilterInputStream(in) {
+
+            /**
+             * Bytes read.
+             */
+            private long bytes;
+
+            /**
+             * Indicates the stream has been closed.
+             */
+            private boolean closed;
+
+            @Override
+            public void close() throws IOException {
+
+                try {
+                    super.close();
+                } finally {
+                    if (!closed) {
+                        closed = true;
+                        record(phase, start, bytes);
+                    }
+                }
+            }
+
+            @Override
+            public int read() throws IOException {
+
+                final int b = super.read();
+                if (b != -1) {
+                    ++bytes;
+                }
+                return b;
+            }
+
+            @Override
+            public int read(final byte[] b,
+                final int off,
+                final int len) throws IOException {
+
+                final int n = super.read(b, off, len);
+                if (n > 0) {
+                    bytes += n;
+                }
+                return n;
+            }
+
+            @Override
+            public long skip(final long n) throws IOException {
+
+                final long skipped = super.skip(n);
+                bytes += skipped;
+                return skipped;
+            }
+        };
+    }
+
+    /**
+     * Wraps a stream so the bytes written and the time until it is closed are
+     * recorded against a phase.
+     *
+     * @param phase
+     *            phase
+     * @param out
+     *            stream
+     * @return metered stream
+     */
+    public OutputStream meter(final Phase phase,
+        final OutputStream out) {
+
+        final long start = System.nanoTime();
+        return new FilterOutputStream(out) {
+
+            /**
+             * Bytes written.
+             */
+            private long bytes;
+
+            /**
+             * Indicates the stream has been closed.
+             */
+            private boolean closed;
+
+            @Override
+            public void close() throws IOException {
+
+                try {
+                    super.close();
+                } finally {
+                    if (!closed) {
+                        closed = true;
+                        record(phase, start, bytes);
+                    }
+                }
+            }
+
+            @Override
+            public void write(final byte[] b,
+                final int off,
+                final int len) throws IOException {
+
+                out.write(b, off, len);
+                bytes += len;
+            }
+
+            @Override
+            public void write(final int b) throws IOException {
+
+                out.write(b);
+                ++bytes;
+            }
+        };
+    }
+
+    /**
+     * Creates a progress monitor that adds the objects JGit receives or sends
+     * to a phase.
+     *
+     * @param phase
+     *            phase
+     * @return progress monitor
+     */
+    public ProgressMonitor newProgressMonitor(final Phase phase) {
+
+        return new ProgressMonitor() {
+
+            /**
+             * Indicates the current task counts objects being transferred.
+             */
+            private boolean counting;
+
+            @Override
+            public void beginTask(final String title,
+                final int totalWork) {
+
+                counting = JGitText.get().receivingObjects.equals(title) || JGitText.get().writingObjects.equals(title);
+            }
+
+            @Override
+            public void endTask() {
+
+                counting = false;
+            }
+
+            @Override
+            public boolean isCancelled() {
+
+                return false;
+            }
+
+            @Override
+            public void start(final int totalTasks) {
+
+                // the number of tasks is not needed.
+            }
+
+            @Override
+            public void update(final int completed) {
+
+                if (counting) {
+                    addObjects(phase, completed);
+                }
+            }
+        };
+    }
+
+    /**
+     * Records a run of a phase.
+     *
+     * @param phase
+     *            phase
+     * @param start
+     *            value of {@link System#nanoTime()} when the phase started
+     * @param bytes
+     *            bytes transferred
+     */
+    public synchronized void record(final Phase phase,
+        final long start,
+        final long bytes) {
+
+        final Counters counters = getCounters(phase);
+        ++counters.count;
+        counters.nanos += System.nanoTime() - start;
+        counters.bytes += bytes;
+    }
+
+    /**
+     * Builds a human readable summary with one line per phase.
+     *
+     * @return summary
+     */
+    public synchronized String toSummary() {
+
+        final StringBuilder b = new StringBuilder();
+        for (final Map.Entry<Phase, Counters> entry : phases.entrySet()) {
+            final Counters counters = entry.getValue();
+            b.append(format(R.getString("metricsphase"), entry.getKey() //$NON-NLS-1$
+                .toKey(), counters.count, counters.nanos / 1000000, counters.bytes, counters.objects));
+        }
+        return b.toString();
+    }
+
+    /**
+     * Gets the time since the session started.
+     *
+     * @return milliseconds
+     */
+    public long getElapsedMillis() {
+
+        return (System.nanoTime() - startNanos) / 1000000;
+    }
+
+    /**
+     * Appends the metrics as a single line JSON object to a file so each
+     * session of a build adds its own line.
+     *
+     * @param file
+     *            file
+     * @param repository
+     *            repository URL of the session
+     * @throws IOException
+     *             unable to write the file
+     */
+    public synchronized void appendJson(final File file,
+        final String repository) throws IOException {
+
+        final StringBuilder b = new StringBuilder();
+        b.append("{\"repository\":") //$NON-NLS-1$
+            .append(quote(repository))
+            .append(",\"start\":") //$NON-NLS-1$
+            .append(startMillis)
+            .append(",\"millis\":") //$NON-NLS-1$
+            .append(getElapsedMillis())
+            .append(",\"phases\":{"); //$NON-NLS-1$
+        boolean first = true;
+        for (final Map.Entry<Phase, Counters> entry : phases.entrySet()) {
+            final Counters counters = entry.getValue();
+            if (!first) {
+                b.append(',');
+            }
+            first = false;
+            b.append(quote(entry.getKey()
+                .toKey()))
+                .append(":{\"count\":") //$NON-NLS-1$
+                .append(counters.count)
+                .append(",\"millis\":") //$NON-NLS-1$
+                .append(counters.nanos / 1000000)
+                .append(",\"bytes\":") //$NON-NLS-1$
+                .append(counters.bytes)
+                .append(",\"objects\":") //$NON-NLS-1$
+                .append(counters.objects)
+                .append('}');
+        }
+        b.append("}}\n"); //$NON-NLS-1$
+
+        final File parent = file.getAbsoluteFile()
+            .getParentFile();
+        if (!parent.mkdirs() && !parent.isDirectory()) {
+            throw new IOException(format(R.getString("unabletocreatedirs"), parent)); //$NON-NLS-1$
+        }
+        // the file is shared by the sessions of a build which may close in
+        // parallel so the line is written with a single append.
+        synchronized (SessionMetrics.class) {
+            final Writer writer = new OutputStreamWriter(new FileOutputStream(file, true), "UTF-8"); //$NON-NLS-1$
+            try {
+                writer.write(b.toString());
+            } finally {
+                writer.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package net.trajano.wagon.git.internal;
+
+import java.io.IOException;
+
+import org.apache.maven.AbstractMavenLifecycleParticipant;
+import org.apache.maven.MavenExecutionException;
+import org.apache.maven.execution.MavenSession;
+import org.codehaus.plexus.component.annotations.Component;
+
+/**
+ * Pushes the working copies shared through {@link WorkingCopyRegistry} when the
+ * build ends. Maven only calls lifecycle participants of build extensions, so
+ * the pushes are only deferred once the projects are read; when the wagon is
+ * loaded some other way each working copy is pushed when its last wagon is
+ * disconnected.
+ */
+@Component(role = AbstractMavenLifecycleParticipant.class,
+    hint = "wagon-git")
+public class SharedWorkingCopyFlusher extends AbstractMavenLifecycleParticipant {
+
+    /**
+     * Defers the pushes of the shared working copies until the build ends.
+     * {@inheritDoc}
+     */
+    @Override
+    public void afterProjectsRead(final MavenSession session) {
+
+        WorkingCopyRegistry.getInstance()
+            .setDeferred(true);
+    }
+
+    /**
+     * Pushes the shared working copies. {@inheritDoc}
+     */
+    @Override
+    public void afterSessionEnd(final MavenSession session) throws MavenExecutionException {
+
+        try {
+            WorkingCopyRegistry.getInstance()
+                .flush();
+        } catch (final IOException e) {
+            throw new MavenExecutionException(e.getMessage(), e);
+        } finally {
+            WorkingCopyRegistry.getInstance()
+                .setDeferred(false);
+        }
+    }
+}
@@ -0,0 +1,1183 @@
+package net.trajano.wagon.git.internal;
+
+import static java.lang.String.format;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.NavigableSet;
+import java.util.ResourceBundle;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+import net.trajano.wagon.git.internal.IncompressibleContent.SamplingInputStream;
+
+import org.codehaus.plexus.util.FileUtils;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.dircache.DirCache;
+import org.eclipse.jgit.dircache.DirCacheBuilder;
+import org.eclipse.jgit.dircache.DirCacheEditor;
+import org.eclipse.jgit.dircache.DirCacheEditor.DeletePath;
+import org.eclipse.jgit.dircache.DirCacheEditor.PathEdit;
+import org.eclipse.jgit.dircache.DirCacheEntry;
+import org.eclipse.jgit.lib.CommitBuilder;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevTree;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.EmptyTreeIterator;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
+
+/**
+ * A local clone of a remote Git repository used by a wagon session. The clone
+ * is either a temporary directory that is removed when the session is closed, a
+ * directory in the persistent cache that is kept for the next session or a
+ * repository held in memory.
+ */
+public class WorkingCopy {
+
+    /**
+     * Sets a blob written from a work tree file on an index entry along with
+     * the stat data of the file.
+     */
+    private static final class WorkTreeFileEdit extends PathEdit {
+
+        /**
+         * Blob ID.
+         */
+        private final ObjectId blobId;
+
+        /**
+         * Modification time of the file.
+         */
+        private final long lastModified;
+
+        /**
+         * Length of the file.
+         */
+        private final long length;
+
+        /**
+         * Constructs the edit.
+         *
+         * @param path
+         *            repository path
+         * @param blobId
+         *            blob ID
+         * @param length
+         *            length of the file
+         * @param lastModified
+         *            modification time of the file
+         */
+        WorkTreeFileEdit(final String path,
+            final ObjectId blobId,
+            final long length,
+            final long lastModified) {
+
+            super(path);
+            this.blobId = blobId;
+            this.length = length;
+            this.lastModified = lastModified;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void apply(final DirCacheEntry ent) {
+
+            ent.setFileMode(FileMode.REGULAR_FILE);
+            ent.setObjectId(blobId);
+            ent.setLength(length);
+            ent.setLastModified(lastModified);
+        }
+    }
+
+    /**
+     * Sets a staged blob on an index entry.
+     */
+    private static final class StagedBlobEdit extends PathEdit {
+
+        /**
+         * Blob ID.
+         */
+        private final ObjectId blobId;
+
+        /**
+         * Constructs the edit.
+         *
+         * @param path
+         *            repository path
+         * @param blobId
+         *            blob ID
+         */
+        StagedBlobEdit(final String path,
+            final ObjectId blobId) {
+
+            super(path);
+            this.blobId = blobId;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void apply(final DirCacheEntry ent) {
+
+            ent.setFileMode(FileMode.REGULAR_FILE);
+            ent.setObjectId(blobId);
+        }
+    }
+
+    /**
+     * Message digest algorithms keyed by the extension of the checksum files
+     * Maven writes next to each file it deploys.
+     */
+    private static final Map<String, String> CHECKSUM_ALGORITHMS;
+
+    /**
+     * Messages resource path.
+     */
+    private static final String MESSAGES = "META-INF/Messages";
+
+    /**
+     * Resource bundle.
+     */
+    private static final ResourceBundle R;
+
+    static {
+        R = ResourceBundle.getBundle(MESSAGES);
+        CHECKSUM_ALGORITHMS = new LinkedHashMap<String, String>();
+        CHECKSUM_ALGORITHMS.put("md5", "MD5"); //$NON-NLS-1$ //$NON-NLS-2$
+        CHECKSUM_ALGORITHMS.put("sha1", "SHA-1"); //$NON-NLS-1$ //$NON-NLS-2$
+        CHECKSUM_ALGORITHMS.put("sha256", "SHA-256"); //$NON-NLS-1$ //$NON-NLS-2$
+        CHECKSUM_ALGORITHMS.put("sha512", "SHA-512"); //$NON-NLS-1$ //$NON-NLS-2$
+    }
+
+    /**
+     * Calculates a checksum in the hexadecimal form used by Maven.
+     *
+     * @param algorithm
+     *            message digest algorithm
+     * @param data
+     *            data
+     * @return checksum
+     * @throws IOException
+     *             the algorithm is not available
+     */
+    private static String checksum(final String algorithm,
+        final byte[] data) throws IOException {
+
+        final byte[] digest;
+        try {
+            digest = MessageDigest.getInstance(algorithm)
+                .digest(data);
+        } catch (final NoSuchAlgorithmException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+        final StringBuilder b = new StringBuilder(digest.length * 2);
+        for (final byte d : digest) {
+            b.append(Character.forDigit(d >> 4 & 0xf, 16))
+                .append(Character.forDigit(d & 0xf, 16));
+        }
+        return b.toString();
+    }
+
+    /**
+     * Paths that were deleted but not yet committed.
+     */
+    private final NavigableSet<String> deletedPaths = new ConcurrentSkipListSet<String>();
+
+    /**
+     * Git.
+     */
+    private final Git git;
+
+    /**
+     * Repository URI.
+     */
+    private final String gitRepositoryUri;
+
+    /**
+     * Lengths of the blobs written in this session that are already compressed
+     * keyed by repository path.
+     */
+    private final ConcurrentMap<String, Long> incompressibleLengths = new ConcurrentHashMap<String, Long>();
+
+    /**
+     * Lock on the persistent cache directory. This is <code>null</code> if the
+     * working copy is temporary.
+     */
+    private final CacheLock lock;
+
+    /**
+     * Blobs that were written into the object database but not yet committed
+     * keyed by repository path.
+     */
+    private final ConcurrentNavigableMap<String, ObjectId> stagedBlobs = new ConcurrentSkipListMap<String, ObjectId>();
+
+    /**
+     * Paths in the work tree that were written or deleted in this session.
+     */
+    private final NavigableSet<String> touchedPaths = new ConcurrentSkipListSet<String>();
+
+    /**
+     * Tree of HEAD used to answer reads, resolved on first use. This is
+     * {@link ObjectId#zeroId()} when the branch does not have any commits.
+     */
+    private ObjectId headTree;
+
+    /**
+     * Index of the paths in {@link #pathIndexTree}.
+     */
+    private PathIndex pathIndex;
+
+    /**
+     * Tree that {@link #pathIndex} was built from, <code>null</code> if it was
+     * not built yet.
+     */
+    private ObjectId pathIndexTree;
+
+    /**
+     * Lengths of the blobs written in this session keyed by repository path.
+     * They are classified as they are inserted, see
+     * {@link #insert(ObjectInserter, String, long, InputStream)}.
+     */
+    private final ConcurrentMap<String, Long> writtenLengths = new ConcurrentHashMap<String, Long>();
+
+    /**
+     * Work tree. For a repository held in memory this is only a location that
+     * resources are mapped to and nothing is written there.
+     */
+    private final File workTree;
+
+    /**
+     * Canonical path of the work tree, resolved on first use.
+     */
+    private String workTreeCanonicalPath;
+
+    /**
+     * Work tree path with "/" as the separator.
+     */
+    private final String workTreePath;
+
+    /**
+     * Constructs the working copy.
+     *
+     * @param gitRepositoryUri
+     *            remote git repository URI string
+     * @param git
+     *            git
+     * @param lock
+     *            lock on the cache directory, <code>null</code> if the working
+     *            copy is temporary.
+     */
+    public WorkingCopy(final String gitRepositoryUri,
+        final Git git,
+        final CacheLock lock) {
+
+        this(gitRepositoryUri, git, git.getRepository()
+            .getWorkTree(), lock);
+    }
+
+    /**
+     * Constructs the working copy with the given work tree. This is used for
+     * repositories without a work tree of their own such as those held in
+     * memory.
+     *
+     * @param gitRepositoryUri
+     *            remote git repository URI string
+     * @param git
+     *            git
+     * @param workTree
+     *            work tree
+     * @param lock
+     *            lock on the cache directory, <code>null</code> if the working
+     *            copy is temporary.
+     */
+    public WorkingCopy(final String gitRepositoryUri,
+        final Git git,
+        final File workTree,
+        final CacheLock lock) {
+
+        this.gitRepositoryUri = gitRepositoryUri;
+        this.git = git;
+        this.workTree = workTree;
+        this.lock = lock;
+        workTreePath = workTree.getAbsolutePath()
+            .replace(File.separatorChar, '/');
+    }
+
+    /**
+     * Updates the index entries of the touched paths from the work tree. This
+     * is used instead of adding the whole work tree so only the files written
+     * in this session are read. Touched paths that no longer exist in the work
+     * tree are removed from the index.
+     *
+     * @return <code>false</code> if no paths were touched.
+     * @throws IOException
+     *             I/O error
+     */
+    public boolean addTouchedPaths() throws IOException {
+
+        if (touchedPaths.isEmpty()) {
+            return false;
+        }
+        final Repository repository = git.getRepository();
+        final DirCache index = repository.lockDirCache();
+        final ObjectInserter inserter = repository.newObjectInserter();
+        try {
+            final DirCacheEditor editor = index.editor();
+            for (final String path : touchedPaths) {
+                final File file = new File(workTree, path);
+                if (!file.isFile()) {
+                    editor.add(new DeletePath(path));
+                    forgetWritten(path);
+                    continue;
+                }
+                final long length = file.length();
+                final long lastModified = file.lastModified();
+                final InputStream in = new FileInputStream(file);
+                try {
+                    editor.add(new WorkTreeFileEdit(path, insert(inserter, path, length, in), length, lastModified));
+                } finally {
+                    in.close();
+                }
+            }
+            inserter.flush();
+            editor.commit();
+            touchedPaths.clear();
+            return true;
+        } finally {
+            inserter.close();
+            index.unlock();
+        }
+    }
+
+    /**
+     * Closes the repository. A temporary working copy is deleted, a cached one
+     * is kept and its lock is released and one held in memory is released.
+     *
+     * @throws IOException
+     *             I/O error
+     */
+    public void close() throws IOException {
+
+        git.close();
+        if (lock != null) {
+            lock.release();
+        } else if (git.getRepository()
+            .isBare()) {
+            // only repositories held in memory are bare, git does not close
+            // them as it was given them.
+            git.getRepository()
+                .close();
+        } else {
+            FileUtils.deleteDirectory(workTree);
+        }
+    }
+
+    /**
+     * Commits the staged blobs and deletions. The index is built in memory from
+     * the tree of HEAD with the staged blobs applied over it and the commit is
+     * made directly from that index so the work tree is not involved.
+     *
+     * @param message
+     *            commit message
+     * @return <code>false</code> if there was nothing to commit.
+     * @throws IOException
+     *             I/O error
+     */
+    public boolean commitStaged(final String message) throws IOException {
+
+        if (stagedBlobs.isEmpty() && deletedPaths.isEmpty()) {
+            return false;
+        }
+        final Repository repository = git.getRepository();
+        final ObjectId head = repository.resolve(Constants.HEAD);
+        final ObjectInserter inserter = repository.newObjectInserter();
+        final ObjectReader reader = inserter.newReader();
+        try {
+            final DirCache index = DirCache.newInCore();
+            final DirCacheBuilder builder = index.builder();
+            RevTree parentTree = null;
+            if (head != null) {
+                final RevWalk revWalk = new RevWalk(reader);
+                parentTree = revWalk.parseCommit(head)
+                    .getTree();
+                revWalk.close();
+                builder.addTree(new byte[0], DirCacheEntry.STAGE_0, reader, parentTree);
+            }
+            builder.finish();
+
+            // the edits are applied in one pass as each finish() rebuilds the
+            // whole entry list.
+            final DirCacheEditor editor = index.editor();
+            for (final Entry<String, ObjectId> stagedBlob : stagedBlobs.entrySet()) {
+                editor.add(new StagedBlobEdit(stagedBlob.getKey(), stagedBlob.getValue()));
+            }
+            for (final String deletedPath : deletedPaths) {
+                editor.add(new DeletePath(deletedPath));
+            }
+            editor.finish();
+
+            final ObjectId treeId = index.writeTree(inserter);
+            stagedBlobs.clear();
+            deletedPaths.clear();
+            if (treeId.equals(parentTree)) {
+                return false;
+            }
+            final PersonIdent ident = new PersonIdent(repository);
+            final CommitBuilder commit = new CommitBuilder();
+            commit.setAuthor(ident);
+            commit.setCommitter(ident);
+            commit.setMessage(message);
+            commit.setTreeId(treeId);
+            if (head != null) {
+                commit.setParentId(head);
+            }
+            final ObjectId commitId = inserter.insert(commit);
+            inserter.flush();
+
+            final RefUpdate refUpdate = repository.updateRef(Constants.HEAD);
+            refUpdate.setNewObjectId(commitId);
+            refUpdate.setExpectedOldObjectId(head == null ? ObjectId.zeroId() : head);
+            refUpdate.setRefLogMessage("commit: " + message, false); //$NON-NLS-1$
+            final RefUpdate.Result result = refUpdate.update();
+            if (result != RefUpdate.Result.NEW && result != RefUpdate.Result.FAST_FORWARD) {
+                throw new IOException(format(R.getString("unabletoupdateref"), refUpdate.getName(), commitId.name(), result)); //$NON-NLS-1$
+            }
+            headTree = treeId;
+            return true;
+        } finally {
+            reader.close();
+            inserter.close();
+        }
+    }
+
+    /**
+     * Gets the blob for a path. Blobs staged or deleted in this session take
+     * precedence over the tree of HEAD.
+     *
+     * @param path
+     *            repository path
+     * @return blob ID or <code>null</code> if there is no file at the path.
+     * @throws IOException
+     *             I/O error
+     */
+    public ObjectId getBlob(final String path) throws IOException {
+
+        if (deletedPaths.contains(path)) {
+            return null;
+        }
+        final ObjectId stagedBlob = stagedBlobs.get(path);
+        if (stagedBlob != null) {
+            return stagedBlob;
+        }
+        return getPathIndex().getBlob(path);
+    }
+
+    /**
+     * Git.
+     *
+     * @return git
+     */
+    public Git getGit() {
+
+        return git;
+    }
+
+    /**
+     * Git repository URI.
+     *
+     * @return Git repository URI
+     */
+    public String getGitRepositoryUri() {
+
+        return gitRepositoryUri;
+    }
+
+    /**
+     * Gets the tree of HEAD.
+     *
+     * @return tree ID or {@link ObjectId#zeroId()} if HEAD does not have any
+     *         commits.
+     * @throws IOException
+     *             I/O error
+     */
+    private synchronized ObjectId getHeadTree() throws IOException {
+
+        if (headTree == null) {
+            final ObjectId treeId = git.getRepository()
+                .resolve(Constants.HEAD + "^{tree}"); //$NON-NLS-1$
+            headTree = treeId == null ? ObjectId.zeroId() : treeId;
+        }
+        return headTree;
+    }
+
+    /**
+     * Gets the index of the paths in the tree of HEAD. It is built on first use
+     * and again whenever HEAD moves.
+     *
+     * @return path index
+     * @throws IOException
+     *             I/O error
+     */
+    private synchronized PathIndex getPathIndex() throws IOException {
+
+        final ObjectId treeId = getHeadTree();
+        if (!treeId.equals(pathIndexTree)) {
+            if (treeId.equals(ObjectId.zeroId())) {
+                pathIndex = PathIndex.EMPTY;
+            } else {
+                final ObjectReader reader = git.getRepository()
+                    .newObjectReader();
+                try {
+                    pathIndex = PathIndex.build(reader, treeId);
+                } finally {
+                    reader.close();
+                }
+            }
+            pathIndexTree = treeId;
+        }
+        return pathIndex;
+    }
+
+    /**
+     * Gets the names of the entries directly in a directory from the tree of
+     * HEAD combined with what was staged in this session. Names of
+     * subdirectories end with "/". Subdirectories whose files were all deleted
+     * in this session are left out.
+     *
+     * @param directory
+     *            repository path of the directory, an empty string for the
+     *            root.
+     * @return names in the directory or <code>null</code> if the directory does
+     *         not exist.
+     * @throws IOException
+     *             I/O error
+     */
+    public SortedSet<String> getNames(final String directory) throws IOException {
+
+        final SortedSet<String> names = getStagedNames(directory);
+        getPathIndex().addNames(directory, names);
+        final String prefix = directory.length() == 0 ? directory : directory + "/"; //$NON-NLS-1$
+        if (hasDeletedPaths(prefix)) {
+            for (final String deletedPath : deletedPaths.tailSet(prefix)) {
+                if (!deletedPath.startsWith(prefix)) {
+                    break;
+                }
+                names.remove(deletedPath.substring(prefix.length()));
+            }
+            for (final String name : new ArrayList<String>(names)) {
+                if (name.endsWith("/") && !hasFiles(prefix + name)) { //$NON-NLS-1$
+                    names.remove(name);
+                }
+            }
+        }
+        // git does not keep empty directories so only the root can be empty.
+        return names.isEmpty() && directory.length() != 0 ? null : names;
+    }
+
+    /**
+     * Gets the paths of all the files under a directory from the tree of HEAD
+     * combined with what was staged or deleted in this session.
+     *
+     * @param directory
+     *            repository path of the directory, an empty string for the
+     *            root.
+     * @return repository paths of the files.
+     * @throws IOException
+     *             I/O error
+     */
+    public SortedSet<String> getPaths(final String directory) throws IOException {
+
+        final String prefix = directory.length() == 0 ? directory : directory + "/"; //$NON-NLS-1$
+        final SortedSet<String> paths = new TreeSet<String>();
+        getPathIndex().addPaths(directory, paths);
+        for (final String path : stagedBlobs.tailMap(prefix)
+            .keySet()) {
+            if (!path.startsWith(prefix)) {
+                break;
+            }
+            paths.add(path);
+        }
+        paths.removeAll(deletedPaths);
+        return paths;
+    }
+
+    /**
+     * Gets the repository path of a file in the work tree. The file does not
+     * need to exist.
+     *
+     * @param file
+     *            file
+     * @return repository path using "/" as the separator, an empty string for
+     *         the work tree itself or <code>null</code> if the file is not in
+     *         the work tree.
+     */
+    public String getPath(final File file) {
+
+        // the trailing slash lets a final "." or ".." segment be normalized.
+        final String normalized = FileUtils.normalize(file.getAbsolutePath()
+            .replace(File.separatorChar, '/') + "/"); //$NON-NLS-1$
+        if (normalized == null) {
+            return null;
+        }
+        final String filePath = normalized.substring(0, normalized.length() - 1);
+        if (filePath.equals(workTreePath)) {
+            return ""; //$NON-NLS-1$
+        }
+        if (filePath.startsWith(workTreePath) && filePath.charAt(workTreePath.length()) == '/') {
+            return filePath.substring(workTreePath.length() + 1);
+        }
+        return null;
+    }
+
+    /**
+     * Checks if a file is in the work tree. The path is normalized lexically
+     * which is enough unless a symbolic link along it points out of the work
+     * tree. The files are written by the wagon so that can only happen when the
+     * branch has symbolic links and only then are both paths canonicalized.
+     *
+     * @param file
+     *            file
+     * @return <code>true</code> if the file is in the work tree.
+     * @throws IOException
+     *             I/O error
+     */
+    public boolean isInWorkTree(final File file) throws IOException {
+
+        if (getPath(file) == null) {
+            return false;
+        }
+        if (!getPathIndex().hasSymbolicLinks()) {
+            return true;
+        }
+        synchronized (this) {
+            if (workTreeCanonicalPath == null) {
+                workTreeCanonicalPath = workTree.getCanonicalPath();
+            }
+        }
+        final String canonicalPath = file.getCanonicalPath();
+        return canonicalPath.equals(workTreeCanonicalPath) || canonicalPath.startsWith(workTreeCanonicalPath + File.separator);
+    }
+
+    /**
+     * Gets the names of the staged entries directly in a directory. Names of
+     * subdirectories end with "/".
+     *
+     * @param directory
+     *            repository path of the directory, an empty string for the
+     *            root.
+     * @return names in the directory, empty if nothing is staged in it.
+     */
+    public SortedSet<String> getStagedNames(final String directory) {
+
+        final String prefix = directory.length() == 0 || directory.endsWith("/") ? directory : directory + "/"; //$NON-NLS-1$ //$NON-NLS-2$
+        final SortedSet<String> names = new TreeSet<String>();
+        for (final String path : stagedBlobs.tailMap(prefix)
+            .keySet()) {
+            if (!path.startsWith(prefix)) {
+                break;
+            }
+            final int slash = path.indexOf('/', prefix.length());
+            if (slash == -1) {
+                names.add(path.substring(prefix.length()));
+            } else {
+                names.add(path.substring(prefix.length(), slash + 1));
+            }
+        }
+        return names;
+    }
+
+    /**
+     * Checks if there are paths deleted in this session under a prefix.
+     *
+     * @param prefix
+     *            prefix ending with "/" or an empty string for the root.
+     * @return <code>true</code> if a path under the prefix was deleted.
+     */
+    private boolean hasDeletedPaths(final String prefix) {
+
+        final String deletedPath = deletedPaths.ceiling(prefix);
+        return deletedPath != null && deletedPath.startsWith(prefix);
+    }
+
+    /**
+     * Checks if a directory has files staged in it or files in the tree of HEAD
+     * that were not deleted in this session.
+     *
+     * @param prefix
+     *            repository path of the directory ending with "/"
+     * @return <code>true</code> if the directory has files.
+     * @throws IOException
+     *             I/O error
+     */
+    private boolean hasFiles(final String prefix) throws IOException {
+
+        final String stagedPath = stagedBlobs.ceilingKey(prefix);
+        if (stagedPath != null && stagedPath.startsWith(prefix)) {
+            return true;
+        }
+        if (!hasDeletedPaths(prefix)) {
+            return getPathIndex().isDirectory(prefix);
+        }
+        final List<String> paths = new ArrayList<String>();
+        getPathIndex().addPaths(prefix, paths);
+        for (final String path : paths) {
+            if (!deletedPaths.contains(path)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Checks if the path is a directory in the tree of HEAD or has files staged
+     * in it. A directory whose files were all deleted in this session is no
+     * longer a directory.
+     *
+     * @param path
+     *            repository path
+     * @return <code>true</code> if the path is a directory.
+     * @throws IOException
+     *             I/O error
+     */
+    public boolean isDirectory(final String path) throws IOException {
+
+        if (path.length() == 0) {
+            return true;
+        }
+        return hasFiles(path + "/"); //$NON-NLS-1$
+    }
+
+    /**
+     * Forgets the blob written for a path that was deleted afterwards.
+     *
+     * @param path
+     *            repository path
+     */
+    private void forgetWritten(final String path) {
+
+        writtenLengths.remove(path);
+        incompressibleLengths.remove(path);
+    }
+
+    /**
+     * Gets the number of bytes written in this session that are already
+     * compressed.
+     *
+     * @return number of bytes
+     * @see IncompressibleContent
+     */
+    public long getIncompressibleBytes() {
+
+        long total = 0;
+        for (final long length : incompressibleLengths.values()) {
+            total += length;
+        }
+        return total;
+    }
+
+    /**
+     * Gets the length of the largest blob written in this session that is not
+     * already compressed.
+     *
+     * @return length or -1 if every blob written is compressed.
+     */
+    public long getLargestCompressibleLength() {
+
+        long largest = -1;
+        for (final Entry<String, Long> written : writtenLengths.entrySet()) {
+            if (!incompressibleLengths.containsKey(written.getKey())) {
+                largest = Math.max(largest, written.getValue());
+            }
+        }
+        return largest;
+    }
+
+    /**
+     * Gets the number of bytes written in this session.
+     *
+     * @return number of bytes
+     */
+    public long getWrittenBytes() {
+
+        long total = 0;
+        for (final long length : writtenLengths.values()) {
+            total += length;
+        }
+        return total;
+    }
+
+    /**
+     * Inserts a blob and records whether it is already compressed. The content
+     * is classified from the bytes sampled as it is streamed into the inserter.
+     *
+     * @param inserter
+     *            inserter
+     * @param path
+     *            repository path
+     * @param length
+     *            number of bytes in the stream
+     * @param in
+     *            blob contents
+     * @return blob ID
+     * @throws IOException
+     *             I/O error
+     */
+    private ObjectId insert(final ObjectInserter inserter,
+        final String path,
+        final long length,
+        final InputStream in) throws IOException {
+
+        final SamplingInputStream sampled = new SamplingInputStream(in);
+        final ObjectId blobId = inserter.insert(Constants.OBJ_BLOB, length, sampled);
+        writtenLengths.put(path, length);
+        if (sampled.isIncompressible(path)) {
+            incompressibleLengths.put(path, length);
+        } else {
+            incompressibleLengths.remove(path);
+        }
+        return blobId;
+    }
+
+    /**
+     * Inserts a blob into the object database and stages it for the next
+     * commit. This may be called from multiple threads.
+     *
+     * @param path
+     *            repository path
+     * @param length
+     *            number of bytes in the stream
+     * @param in
+     *            blob contents
+     * @return blob ID
+     * @throws IOException
+     *             I/O error
+     */
+    public ObjectId insertBlob(final String path,
+        final long length,
+        final InputStream in) throws IOException {
+
+        final ObjectInserter inserter = git.getRepository()
+            .newObjectInserter();
+        try {
+            final ObjectId blobId = insert(inserter, path, length, in);
+            inserter.flush();
+            deletedPaths.remove(path);
+            stagedBlobs.put(path, blobId);
+            return blobId;
+        } finally {
+            inserter.close();
+        }
+    }
+
+    /**
+     * Reserves room for data about to be written for a path. Repositories held
+     * in memory count it against the same limit as the fetch, repositories on
+     * disk have no limit.
+     *
+     * @param path
+     *            repository path
+     * @param length
+     *            number of bytes
+     * @throws IOException
+     *             the repository is held in memory and the data would take it
+     *             over its limit.
+     */
+    public void reserve(final String path,
+        final long length) throws IOException {
+
+        final Repository repository = git.getRepository();
+        if (repository instanceof BoundedInMemoryRepository && !((BoundedInMemoryRepository) repository).reserve(length)) {
+            throw new IOException(format(R.getString("inmemorylimitreached"), path, ((BoundedInMemoryRepository) repository).getLimit())); //$NON-NLS-1$
+        }
+    }
+
+    /**
+     * Replays the changes made since a base commit onto another commit. This is
+     * used when the push was rejected because the branch was updated by someone
+     * else. The changed files replace theirs except for Maven metadata files
+     * changed on both sides which are merged with {@link MavenMetadataMerger};
+     * the checksum files next to a merged metadata file are recalculated. HEAD
+     * is moved to the new commit without touching the work tree.
+     *
+     * @param base
+     *            commit the changes were made on, <code>null</code> if the
+     *            branch did not exist.
+     * @param onto
+     *            commit to replay the changes onto, <code>null</code> if the
+     *            branch no longer exists.
+     * @param message
+     *            commit message
+     * @throws IOException
+     *             I/O error
+     */
+    public void replay(final ObjectId base,
+        final ObjectId onto,
+        final String message) throws IOException {
+
+        final Repository repository = git.getRepository();
+        final ObjectId head = repository.resolve(Constants.HEAD);
+        final ObjectInserter inserter = repository.newObjectInserter();
+        final ObjectReader reader = inserter.newReader();
+        try {
+            final RevWalk revWalk = new RevWalk(reader);
+            final RevTree baseTree = base == null ? null : revWalk.parseCommit(base)
+                .getTree();
+            final RevTree replayedTree = revWalk.parseCommit(head)
+                .getTree();
+            final RevTree ontoTree = onto == null ? null : revWalk.parseCommit(onto)
+                .getTree();
+            revWalk.close();
+
+            final DirCache index = DirCache.newInCore();
+            final DirCacheBuilder builder = index.builder();
+            if (ontoTree != null) {
+                builder.addTree(new byte[0], DirCacheEntry.STAGE_0, reader, ontoTree);
+            }
+            builder.finish();
+
+            final Set<String> mergedMetadata = new TreeSet<String>();
+            final DirCacheEditor editor = index.editor();
+            final TreeWalk walk = new TreeWalk(reader);
+            walk.setRecursive(true);
+            walk.setFilter(TreeFilter.ANY_DIFF);
+            if (baseTree == null) {
+                walk.addTree(new EmptyTreeIterator());
+            } else {
+                walk.addTree(baseTree);
+            }
+            walk.addTree(replayedTree);
+            while (walk.next()) {
+                final String path = walk.getPathString();
+                if (walk.getFileMode(1) == FileMode.MISSING) {
+                    editor.add(new DeletePath(path));
+                    continue;
+                }
+                ObjectId blobId = walk.getObjectId(1);
+                final DirCacheEntry theirEntry = index.getEntry(path);
+                if (MavenMetadataMerger.isMetadata(path) && theirEntry != null && !theirEntry.getObjectId()
+                    .equals(walk.getObjectId(0))) {
+                    final byte[] merged = MavenMetadataMerger.merge(reader.open(theirEntry.getObjectId(), Constants.OBJ_BLOB)
+                        .getBytes(), reader.open(blobId, Constants.OBJ_BLOB)
+                            .getBytes());
+                    blobId = inserter.insert(Constants.OBJ_BLOB, merged);
+                    mergedMetadata.add(path);
+                }
+                editor.add(new StagedBlobEdit(path, blobId));
+            }
+            walk.close();
+            editor.finish();
+
+            if (!mergedMetadata.isEmpty()) {
+                final DirCacheEditor checksumEditor = index.editor();
+                for (final String path : mergedMetadata) {
+                    final byte[] metadata = reader.open(index.getEntry(path)
+                        .getObjectId(), Constants.OBJ_BLOB)
+                        .getBytes();
+                    for (final Entry<String, String> checksum : CHECKSUM_ALGORITHMS.entrySet()) {
+                        final String checksumPath = path + "." + checksum.getKey(); //$NON-NLS-1$
+                        if (index.getEntry(checksumPath) != null) {
+                            checksumEditor.add(new StagedBlobEdit(checksumPath, inserter.insert(Constants.OBJ_BLOB, Constants.encodeASCII(checksum(checksum.getValue(), metadata)))));
+                        }
+                    }
+                }
+                checksumEditor.finish();
+            }
+
+            final ObjectId treeId = index.writeTree(inserter);
+            final PersonIdent ident = new PersonIdent(repository);
+            final CommitBuilder commit = new CommitBuilder();
+            commit.setAuthor(ident);
+            commit.setCommitter(ident);
+            commit.setMessage(message);
+            commit.setTreeId(treeId);
+            if (onto != null) {
+                commit.setParentId(onto);
+            }
+            final ObjectId commitId = inserter.insert(commit);
+            inserter.flush();
+
+            final RefUpdate refUpdate = repository.updateRef(Constants.HEAD);
+            refUpdate.setNewObjectId(commitId);
+            refUpdate.setExpectedOldObjectId(head);
+            refUpdate.setForceUpdate(true);
+            refUpdate.setRefLogMessage("replay: " + message, false); //$NON-NLS-1$
+            final RefUpdate.Result result = refUpdate.update();
+            if (result != RefUpdate.Result.FORCED && result != RefUpdate.Result.FAST_FORWARD && result != RefUpdate.Result.NEW) {
+                throw new IOException(format(R.getString("unabletoupdateref"), refUpdate.getName(), commitId.name(), result)); //$NON-NLS-1$
+            }
+            synchronized (this) {
+                headTree = treeId;
+            }
+        } finally {
+            reader.close();
+            inserter.close();
+        }
+    }
+
+    /**
+     * Rewrites the branch so it only has the most recent commits once it has
+     * grown past a high-water mark. The oldest commit kept is recreated without
+     * a parent and the ones after it are recreated on top of it with the same
+     * trees, authors and messages. Only the first parent of each commit is
+     * followed. HEAD is moved to the new commit without touching the work tree.
+     *
+     * @param limit
+     *            number of commits to keep, must be at least one.
+     * @param highWaterMark
+     *            number of commits the branch may have before it is trimmed,
+     *            must be at least the limit.
+     * @return <code>false</code> if the branch did not have more commits than
+     *         the high-water mark.
+     * @throws IOException
+     *             I/O error
+     */
+    public boolean trimHistory(final int limit,
+        final int highWaterMark) throws IOException {
+
+        final Repository repository = git.getRepository();
+        final ObjectId head = repository.resolve(Constants.HEAD);
+        if (head == null) {
+            return false;
+        }
+        final ObjectInserter inserter = repository.newObjectInserter();
+        final ObjectReader reader = inserter.newReader();
+        try {
+            final RevWalk revWalk = new RevWalk(reader);
+            final LinkedList<RevCommit> kept = new LinkedList<RevCommit>();
+            RevCommit commit = revWalk.parseCommit(head);
+            for (int count = 1; count <= highWaterMark; ++count) {
+                if (count <= limit) {
+                    kept.addFirst(commit);
+                }
+                if (commit.getParentCount() == 0) {
+                    revWalk.close();
+                    return false;
+                }
+                commit = revWalk.parseCommit(commit.getParent(0));
+            }
+            revWalk.close();
+
+            ObjectId parentId = null;
+            for (final RevCommit keptCommit : kept) {
+                final CommitBuilder rewritten = new CommitBuilder();
+                rewritten.setAuthor(keptCommit.getAuthorIdent());
+                rewritten.setCommitter(keptCommit.getCommitterIdent());
+                rewritten.setMessage(keptCommit.getFullMessage());
+                rewritten.setTreeId(keptCommit.getTree());
+                if (parentId != null) {
+                    rewritten.setParentId(parentId);
+                }
+                parentId = inserter.insert(rewritten);
+            }
+            inserter.flush();
+
+            final RefUpdate refUpdate = repository.updateRef(Constants.HEAD);
+            refUpdate.setNewObjectId(parentId);
+            refUpdate.setExpectedOldObjectId(head);
+            refUpdate.setForceUpdate(true);
+            refUpdate.setRefLogMessage("trim history", false); //$NON-NLS-1$
+            final RefUpdate.Result result = refUpdate.update();
+            if (result != RefUpdate.Result.FORCED) {
+                throw new IOException(format(R.getString("unabletoupdateref"), refUpdate.getName(), parentId.name(), result)); //$NON-NLS-1$
+            }
+            return true;
+        } finally {
+            reader.close();
+            inserter.close();
+        }
+    }
+
+    /**
+     * Checks if a path or anything under it was written or deleted in the work
+     * tree in this session. Paths that were not still match the tree of HEAD.
+     *
+     * @param path
+     *            repository path, an empty string for the root.
+     * @return <code>true</code> if the path was touched.
+     */
+    public boolean isTouched(final String path) {
+
+        if (path.length() == 0) {
+            return !touchedPaths.isEmpty();
+        }
+        if (touchedPaths.contains(path)) {
+            return true;
+        }
+        final String prefix = path.endsWith("/") ? path : path + "/"; //$NON-NLS-1$ //$NON-NLS-2$
+        final String touchedPath = touchedPaths.ceiling(prefix);
+        return touchedPath != null && touchedPath.startsWith(prefix);
+    }
+
+    /**
+     * Marks a path in the work tree as written or deleted so it is updated in
+     * the index by {@link #addTouchedPaths()}.
+     *
+     * @param path
+     *            repository path
+     */
+    public void touch(final String path) {
+
+        touchedPaths.add(path);
+    }
+
+    /**
+     * Stages the deletion of a file for the next commit.
+     *
+     * @param path
+     *            repository path
+     */
+    public void stageDeletion(final String path) {
+
+        stagedBlobs.remove(path);
+        forgetWritten(path);
+        deletedPaths.add(path);
+    }
+
+    /**
+     * Gets the work tree.
+     *
+     * @return work tree
+     */
+    public File getWorkTree() {
+
+        return workTree;
+    }
+
+    /**
+     * Checks if the working copy is kept in the persistent cache.
+     *
+     * @return <code>true</code> if the working copy is cached.
+     */
+    public boolean isCached() {
+
+        return lock != null;
+    }
+}
@@ -0,0 +1,314 @@
+package net.trajano.wagon.git.internal;
+
+import static java.lang.String.format;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.ResourceBundle;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.maven.wagon.ResourceDoesNotExistException;
+import org.eclipse.jgit.api.errors.GitAPIException;
+
+/**
+ * Working copies shared by the wagons of a JVM. The wagons are looked up per
+ * use so in a multi-module build each module gets its own wagon; sharing the
+ * working copy lets them clone a repository once and push it once at the end of
+ * the build. Each working copy is reference counted and opening it is single
+ * flight so wagons on parallel build threads wait for the first one rather than
+ * making their own clone. While pushes are deferred by
+ * {@link SharedWorkingCopyFlusher} a working copy whose last reference is
+ * released is kept so the next module reuses it, it is pushed by
+ * {@link #flush()} when the build ends. Otherwise it is pushed by
+ * {@link #release(String, Finisher)} so the failure is reported to the wagon
+ * that released it.
+ */
+public final class WorkingCopyRegistry {
+
+    /**
+     * A registered working copy.
+     */
+    private static final class Entry {
+
+        /**
+         * Indicates the working copy has been finished and the entry removed.
+         */
+        private boolean finished;
+
+        /**
+         * Finisher from the last wagon that released the working copy.
+         */
+        private Finisher finisher;
+
+        /**
+         * Number of wagons using the working copy.
+         */
+        private int references;
+
+        /**
+         * Working copy, <code>null</code> until it is opened.
+         */
+        private WorkingCopy workingCopy;
+    }
+
+    /**
+     * Opens a working copy.
+     */
+    public interface Factory {
+
+        /**
+         * Opens the working copy.
+         *
+         * @return working copy
+         * @throws GitAPIException
+         * @throws IOException
+         * @throws URISyntaxException
+         * @throws ResourceDoesNotExistException
+         *             remote repository does not exist.
+         */
+        WorkingCopy newWorkingCopy() throws GitAPIException,
+            IOException,
+            URISyntaxException,
+            ResourceDoesNotExistException;
+    }
+
+    /**
+     * Commits and pushes a working copy when it is no longer used.
+     */
+    public interface Finisher {
+
+        /**
+         * Commits and pushes the working copy and closes it.
+         *
+         * @param workingCopy
+         *            working copy
+         * @throws GitAPIException
+         * @throws IOException
+         */
+        void finish(WorkingCopy workingCopy) throws GitAPIException,
+            IOException;
+    }
+
+    /**
+     * Instance.
+     */
+    private static final WorkingCopyRegistry INSTANCE = new WorkingCopyRegistry();
+
+    /**
+     * Logger.
+     */
+    private static final Logger LOG;
+
+    /**
+     * Messages resource path.
+     */
+    private static final String MESSAGES = "META-INF/Messages";
+
+    /**
+     * Resource bundle.
+     */
+    private static final ResourceBundle R = ResourceBundle.getBundle(MESSAGES);
+
+    static {
+        LOG = Logger.getLogger("net.trajano.wagon.git", MESSAGES);
+    }
+
+    /**
+     * Gets the registry of the JVM.
+     *
+     * @return registry
+     */
+    public static WorkingCopyRegistry getInstance() {
+
+        return INSTANCE;
+    }
+
+    /**
+     * Entries keyed by repository URI, branch and checkout mode.
+     */
+    private final Map<String, Entry> entries = new HashMap<String, Entry>();
+
+    /**
+     * Indicates released working copies are kept until {@link #flush()} rather
+     * than pushed when their last reference is released.
+     */
+    private boolean deferred;
+
+    /**
+     * Prevent instantiation outside of {@link #getInstance()}.
+     */
+    private WorkingCopyRegistry() {
+
+    }
+
+    /**
+     * Acquires a working copy. If it is not open yet it is opened using the
+     * factory while other threads acquiring the same key wait.
+     *
+     * @param key
+     *            key
+     * @param factory
+     *            factory used if the working copy is not open
+     * @return working copy
+     * @throws GitAPIException
+     * @throws IOException
+     * @throws URISyntaxException
+     * @throws ResourceDoesNotExistException
+     *             remote repository does not exist.
+     */
+    public WorkingCopy acquire(final String key,
+        final Factory factory) throws GitAPIException,
+        IOException,
+        URISyntaxException,
+        ResourceDoesNotExistException {
+
+        while (true) {
+            final Entry entry;
+            synchronized (entries) {
+                Entry existing = entries.get(key);
+                if (existing == null) {
+                    existing = new Entry();
+                    entries.put(key, existing);
+                }
+                entry = existing;
+                ++entry.references;
+            }
+            synchronized (entry) {
+                if (entry.finished) {
+                    // it was flushed while this waited.
+                    continue;
+                }
+                if (entry.workingCopy == null) {
+                    boolean opened = false;
+                    try {
+                        entry.workingCopy = factory.newWorkingCopy();
+                        opened = true;
+                    } finally {
+                        if (!opened) {
+                            synchronized (entries) {
+                                --entry.references;
+                                if (entry.references == 0) {
+                                    entry.finished = true;
+                                    entries.remove(key);
+                                }
+                            }
+                        }
+                    }
+                }
+                return entry.workingCopy;
+            }
+        }
+    }
+
+    /**
+     * Commits and pushes the working copies that are no longer referenced and
+     * removes them. Working copies that are still in use are left alone. All
+     * the working copies are pushed even if some fail.
+     *
+     * @throws IOException
+     *             unable to push one or more working copies, the message lists
+     *             all of them.
+     */
+    public void flush() throws IOException {
+
+        final List<Entry> released = new ArrayList<Entry>();
+        synchronized (entries) {
+            for (final Map.Entry<String, Entry> mapEntry : new ArrayList<Map.Entry<String, Entry>>(entries.entrySet())) {
+                final Entry entry = mapEntry.getValue();
+                if (entry.references == 0 && entry.workingCopy != null) {
+                    entry.finished = true;
+                    entries.remove(mapEntry.getKey());
+                    released.add(entry);
+                }
+            }
+        }
+        final StringBuilder failures = new StringBuilder();
+        Exception firstFailure = null;
+        for (final Entry entry : released) {
+            synchronized (entry) {
+                try {
+                    entry.finisher.finish(entry.workingCopy);
+                } catch (final GitAPIException e) {
+                    LOG.log(Level.SEVERE, "pushfailed", new Object[] { //$NON-NLS-1$
+                        entry.workingCopy.getGitRepositoryUri(),
+                        e.getMessage()
+                    });
+                    failures.append(format(R.getString("pushfailedentry"), entry.workingCopy.getGitRepositoryUri(), e.getMessage())); //$NON-NLS-1$
+                    if (firstFailure == null) {
+                        firstFailure = e;
+                    }
+                } catch (final IOException e) {
+                    LOG.log(Level.SEVERE, "pushfailed", new Object[] { //$NON-NLS-1$
+                        entry.workingCopy.getGitRepositoryUri(),
+                        e.getMessage()
+                    });
+                    failures.append(format(R.getString("pushfailedentry"), entry.workingCopy.getGitRepositoryUri(), e.getMessage())); //$NON-NLS-1$
+                    if (firstFailure == null) {
+                        firstFailure = e;
+                    }
+                }
+            }
+        }
+        if (firstFailure != null) {
+            throw new IOException(format(R.getString("pushfailures"), failures), firstFailure); //$NON-NLS-1$
+        }
+    }
+
+    /**
+     * Releases a working copy. If this is the last reference and pushes are not
+     * deferred it is committed and pushed using the finisher, otherwise it is
+     * kept for the next wagon that acquires it and pushed by {@link #flush()}.
+     *
+     * @param key
+     *            key
+     * @param finisher
+     *            finisher used to push the working copy if this is the last
+     *            reference.
+     * @throws GitAPIException
+     * @throws IOException
+     */
+    public void release(final String key,
+        final Finisher finisher) throws GitAPIException,
+        IOException {
+
+        final Entry entry;
+        synchronized (entries) {
+            entry = entries.get(key);
+            if (entry == null) {
+                return;
+            }
+            --entry.references;
+            entry.finisher = finisher;
+            if (deferred || entry.references > 0 || entry.workingCopy == null) {
+                return;
+            }
+            entry.finished = true;
+            entries.remove(key);
+        }
+        synchronized (entry) {
+            finisher.finish(entry.workingCopy);
+        }
+    }
+
+    /**
+     * Sets whether released working copies are kept until {@link #flush()}.
+     * This is only enabled by {@link SharedWorkingCopyFlusher} which is
+     * guaranteed to flush when the build ends; when it is disabled the working
+     * copies that were already released are left for the next {@link #flush()}.
+     *
+     * @param deferred
+     *            <code>true</code> to keep released working copies until they
+     *            are flushed.
+     */
+    public void setDeferred(final boolean deferred) {
+
+        synchronized (entries) {
+            this.deferred = deferred;
+        }
+    }
+}
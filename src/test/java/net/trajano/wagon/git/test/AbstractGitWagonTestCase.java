@@ -0,0 +1,172 @@
+package net.trajano.wagon.git.test;
+
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import net.trajano.wagon.git.GitWagon;
+
+import org.apache.maven.wagon.repository.Repository;
+import org.codehaus.plexus.util.FileUtils;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.junit.After;
+import org.junit.Before;
+
+/**
+ * Base of the tests that deploy to the gh-pages branch of a "remote" repository
+ * in a temporary directory.
+ */
+public abstract class AbstractGitWagonTestCase {
+
+    /**
+     * Wagon that exposes the clone it made.
+     */
+    protected static final class InspectableGitWagon extends GitWagon {
+
+        /**
+         * Gets the git directory of the clone of a remote.
+         *
+         * @param gitRepositoryUri
+         *            remote git repository URI string
+         * @return git directory
+         */
+        public File getCloneDirectory(final String gitRepositoryUri) throws Exception {
+
+            return getGit(gitRepositoryUri).getRepository()
+                .getDirectory();
+        }
+    }
+
+    /**
+     * Git remote directory.
+     */
+    private File gitRemoteDirectory;
+
+    /**
+     * Connects a wagon to {@link #getTestRepositoryUrl()}.
+     *
+     * @param gitWagon
+     *            wagon
+     * @return the wagon
+     */
+    protected <T extends GitWagon> T connect(final T gitWagon) throws Exception {
+
+        gitWagon.connect(new Repository("gh", getTestRepositoryUrl()));
+        return gitWagon;
+    }
+
+    /**
+     * Counts the commits on the branch of the remote. The history is expected
+     * to be linear.
+     *
+     * @return number of commits, 0 if the branch does not exist.
+     */
+    protected int countCommits() throws Exception {
+
+        final Git remote = Git.open(gitRemoteDirectory);
+        try {
+            final ObjectId branch = remote.getRepository()
+                .resolve("gh-pages");
+            if (branch == null) {
+                return 0;
+            }
+            int count = 0;
+            for (final RevCommit commit : remote.log()
+                .add(branch)
+                .call()) {
+                assertTrue(commit.getParentCount() <= 1);
+                ++count;
+            }
+            return count;
+        } finally {
+            remote.close();
+        }
+    }
+
+    /**
+     * Defines the {@link #gitRemoteDirectory} and initializes the repository in
+     * it.
+     */
+    @Before
+    public void createRemote() throws Exception {
+
+        gitRemoteDirectory = File.createTempFile("remote", null);
+        gitRemoteDirectory.delete();
+        final Git git = Git.init()
+            .setDirectory(gitRemoteDirectory)
+            .call();
+        try {
+            setupRemote(git);
+        } finally {
+            git.close();
+        }
+    }
+
+    /**
+     * Git remote directory.
+     *
+     * @return the "remote" directory
+     */
+    protected File getGitRemoteDirectory() {
+
+        return gitRemoteDirectory;
+    }
+
+    /**
+     * Gets the URI of the gh-pages branch of {@link #gitRemoteDirectory}.
+     *
+     * @return test repository URL
+     */
+    protected String getTestRepositoryUrl() {
+
+        return "git:" + gitRemoteDirectory.toURI() + "?gh-pages#";
+    }
+
+    /**
+     * Checks if the remote gh-pages branch has the path.
+     *
+     * @param path
+     *            repository path
+     * @return <code>true</code> if the path exists.
+     */
+    protected boolean remoteHasPath(final String path) throws Exception {
+
+        final Git remote = Git.open(gitRemoteDirectory);
+        final org.eclipse.jgit.lib.Repository repository = remote.getRepository();
+        final RevWalk revWalk = new RevWalk(repository);
+        try {
+            final TreeWalk treeWalk = TreeWalk.forPath(repository, path, revWalk.parseCommit(repository.resolve(Constants.R_HEADS + "gh-pages"))
+                .getTree());
+            return treeWalk != null;
+        } finally {
+            revWalk.close();
+            remote.close();
+        }
+    }
+
+    /**
+     * Remove the "remote" directory.
+     */
+    @After
+    public void removeRemote() throws Exception {
+
+        FileUtils.deleteDirectory(gitRemoteDirectory);
+    }
+
+    /**
+     * Populates the remote repository after it is initialized. The remote is
+     * left empty by default.
+     *
+     * @param git
+     *            git of the remote repository
+     */
+    protected void setupRemote(final Git git) throws Exception {
+
+        // the remote is empty unless a test needs content.
+    }
+}
@@ -0,0 +1,103 @@
+package net.trajano.wagon.git.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import net.trajano.wagon.git.GitHubPagesWagon;
+import net.trajano.wagon.git.internal.ResolutionCache;
+
+import org.apache.maven.wagon.ResourceDoesNotExistException;
+import org.apache.maven.wagon.repository.Repository;
+import org.codehaus.plexus.util.FileUtils;
+import org.eclipse.jgit.api.Git;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the resolution of resources when the GitHub Pages URL is redirected.
+ * The redirects are taken from the persistent resolution cache so no network
+ * access is needed.
+ */
+public class GitHubPagesRedirectTest {
+
+    /**
+     * Wagon that records the repositories it is asked for rather than cloning
+     * them.
+     */
+    private static final class RecordingGitHubPagesWagon extends GitHubPagesWagon {
+
+        /**
+         * Repositories that were requested.
+         */
+        private final List<String> requested = new ArrayList<String>();
+
+        @Override
+        protected Git getGit(final String gitRepositoryUri) throws ResourceDoesNotExistException {
+
+            requested.add(gitRepositoryUri);
+            throw new ResourceDoesNotExistException(gitRepositoryUri);
+        }
+    }
+
+    /**
+     * Cache directory.
+     */
+    private File cacheDirectory;
+
+    @Before
+    public void createCacheDirectory() throws Exception {
+
+        cacheDirectory = File.createTempFile("cache", null);
+        cacheDirectory.delete();
+        cacheDirectory.mkdir();
+    }
+
+    @After
+    public void removeCacheDirectory() throws Exception {
+
+        FileUtils.deleteDirectory(cacheDirectory);
+    }
+
+    /**
+     * A redirect that renames the repository follows the repository URL once
+     * rather than once per resource.
+     */
+    @Test
+    public void testPathRedirectResolvedOncePerRepository() throws Exception {
+
+        final File cacheFile = new File(cacheDirectory, "github-pages.properties");
+        final ResolutionCache cache = new ResolutionCache(cacheFile, 60000);
+        cache.put("redirect.http://trajano.github.io/foo/", "https://trajano.github.io/bar/");
+        cache.put("redirect.http://trajano.github.io/foo", "https://trajano.github.io/bar/");
+
+        final RecordingGitHubPagesWagon wagon = new RecordingGitHubPagesWagon();
+        wagon.setCacheDirectory(cacheDirectory);
+        wagon.setResolutionCacheTtl(60);
+        wagon.connect(new Repository("gh", "github:http://trajano.github.io/foo/"));
+        assertNull(wagon.getFileForResource("a/b.jar"));
+        assertNull(wagon.getFileForResource("a/b.pom"));
+        assertNull(wagon.getFileForResource("c.txt"));
+        wagon.disconnect();
+
+        assertEquals(3, wagon.requested.size());
+        for (final String gitRepositoryUri : wagon.requested) {
+            assertEquals("ssh://git@github.com/trajano/bar.git", gitRepositoryUri);
+        }
+        final Properties persisted = new Properties();
+        final InputStream in = new FileInputStream(cacheFile);
+        try {
+            persisted.load(in);
+        } finally {
+            in.close();
+        }
+        assertEquals(2, persisted.size());
+    }
+}
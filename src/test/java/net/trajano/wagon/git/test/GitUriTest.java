@@ -2,6 +2,7 @@ package net.trajano.wagon.git.test;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
 
 import java.net.URI;
 
@@ -50,6 +51,18 @@ public class GitUriTest {
         assertEquals("/foo", gitUri.getResource());
     }
 
+    @Test
+    public void testResolveSimpleFragment() throws Exception {
+
+        final GitUri gitUri = new GitWagon().buildGitUri(URI.create("ssh://github.com/trajano/trajano.git?gh-pages#/project"));
+        final GitUri resolved = gitUri.resolve("css/site style.css");
+        assertEquals(new GitUri("ssh://github.com/trajano/trajano.git", "gh-pages", "css/site style.css"), resolved);
+        assertEquals(new GitUri("ssh://github.com/trajano/trajano.git", "gh-pages", "css/site style.css").hashCode(), resolved.hashCode());
+        assertEquals("css/site style.css", gitUri.resolve("css/site%20style.css")
+            .getResource());
+        assertSame(resolved, gitUri.resolve("css/site style.css"));
+    }
+
     @Test
     public void testGitHubPageEquivalence() throws Exception {
 
@@ -0,0 +1,53 @@
+package net.trajano.wagon.git.test;
+
+import java.io.File;
+import java.util.Collections;
+
+import net.trajano.wagon.git.GitWagon;
+
+import org.apache.maven.wagon.Wagon;
+import org.codehaus.plexus.util.FileUtils;
+
+/**
+ * Runs the {@link GitWagonTest} suite with uploads written directly into the
+ * object database.
+ */
+public class GitWagonBareTest extends GitWagonTest {
+
+    /**
+     * Enables bare mode.
+     */
+    @Override
+    protected Wagon getWagon() throws Exception {
+
+        final GitWagon wagon = (GitWagon) super.getWagon();
+        wagon.setBare(true);
+        return wagon;
+    }
+
+    /**
+     * Uploads that have not been committed yet are visible to the same session.
+     */
+    public void testReadStagedInSameSession() throws Exception {
+
+        setupRepositories();
+        setupWagonTestingFixtures();
+        final File source = File.createTempFile("source", null);
+        FileUtils.fileWrite(source, "staged content");
+        final File destination = File.createTempFile("destination", null);
+
+        final Wagon wagon = getWagon();
+        connectWagon(wagon);
+        wagon.put(source, "staged/foo.txt");
+        assertTrue(wagon.resourceExists("staged/foo.txt"));
+        assertTrue(wagon.resourceExists("staged/"));
+        assertEquals(Collections.singletonList("foo.txt"), wagon.getFileList("staged"));
+        wagon.get("staged/foo.txt", destination);
+        assertEquals("staged content", FileUtils.fileRead(destination));
+        disconnectWagon(wagon);
+
+        source.delete();
+        destination.delete();
+        tearDownWagonTestingFixtures();
+    }
+}
@@ -0,0 +1,91 @@
+package net.trajano.wagon.git.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+
+import net.trajano.wagon.git.GitWagon;
+
+import org.codehaus.plexus.util.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the persistent clone cache.
+ */
+public class GitWagonCacheTest extends AbstractGitWagonTestCase {
+
+    /**
+     * Cache directory.
+     */
+    private File cacheDirectory;
+
+    /**
+     * Defines the cache directory.
+     */
+    @Before
+    public void createCacheDirectory() throws Exception {
+
+        cacheDirectory = File.createTempFile("cache", null);
+        cacheDirectory.delete();
+    }
+
+    /**
+     * Builds a wagon that uses the cache.
+     *
+     * @return wagon
+     */
+    private GitWagon newCachingWagon() throws Exception {
+
+        final GitWagon gitWagon = new GitWagon();
+        gitWagon.setPersistentCache(true);
+        gitWagon.setCacheDirectory(cacheDirectory);
+        return connect(gitWagon);
+    }
+
+    @After
+    public void removeCacheDirectory() throws Exception {
+
+        FileUtils.deleteDirectory(cacheDirectory);
+    }
+
+    @Test
+    public void testCachedCloneIsReused() throws Exception {
+
+        final File temp = File.createTempFile("temp", null);
+        new FileOutputStream(temp).close();
+
+        final GitWagon first = newCachingWagon();
+        first.put(temp, "foo.txt");
+        first.disconnect();
+        assertEquals(2, cacheDirectory.list().length);
+
+        final GitWagon second = newCachingWagon();
+        assertTrue(second.resourceExists("foo.txt"));
+        second.put(temp, "bar.txt");
+        second.disconnect();
+        assertEquals(2, cacheDirectory.list().length);
+
+        final GitWagon third = newCachingWagon();
+        assertTrue(third.resourceExists("bar.txt"));
+        assertFalse(third.resourceExists("baz.txt"));
+        third.disconnect();
+        temp.delete();
+    }
+
+    @Test
+    public void testLockedCacheFallsBackToTemporaryClone() throws Exception {
+
+        final GitWagon first = newCachingWagon();
+        assertFalse(first.resourceExists("foo.txt"));
+        final GitWagon second = newCachingWagon();
+        assertFalse(second.resourceExists("foo.txt"));
+        second.disconnect();
+        first.disconnect();
+        assertEquals(2, cacheDirectory.list().length);
+    }
+}
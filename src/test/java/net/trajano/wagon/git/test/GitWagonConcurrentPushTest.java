@@ -0,0 +1,130 @@
+package net.trajano.wagon.git.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.math.BigInteger;
+import java.security.MessageDigest;
+
+import net.trajano.wagon.git.GitWagon;
+
+import org.codehaus.plexus.util.FileUtils;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests pushes rejected because another deployer updated the branch.
+ */
+public class GitWagonConcurrentPushTest extends AbstractGitWagonTestCase {
+
+    /**
+     * Temporary directory for the uploaded files.
+     */
+    private File tempDirectory;
+
+    /**
+     * Creates the temporary directory.
+     */
+    @Before
+    public void createTempDirectory() throws Exception {
+
+        tempDirectory = File.createTempFile("temp", null);
+        tempDirectory.delete();
+        tempDirectory.mkdir();
+    }
+
+    /**
+     * Builds metadata listing a version.
+     *
+     * @param version
+     *            version
+     * @param lastUpdated
+     *            last updated timestamp
+     * @return metadata
+     */
+    private String metadata(final String version,
+        final String lastUpdated) {
+
+        return "<metadata><groupId>g</groupId><artifactId>a</artifactId><versioning><latest>" + version + "</latest><release>" + version + "</release><versions><version>" + version + "</version></versions><lastUpdated>" + lastUpdated + "</lastUpdated></versioning></metadata>";
+    }
+
+    /**
+     * Uploads a file with the given content.
+     *
+     * @param wagon
+     *            wagon
+     * @param content
+     *            content
+     * @param resourceName
+     *            resource name
+     */
+    private void put(final GitWagon wagon,
+        final String content,
+        final String resourceName) throws Exception {
+
+        final File file = File.createTempFile("put", null, tempDirectory);
+        FileUtils.fileWrite(file, "UTF-8", content);
+        wagon.put(file, resourceName);
+    }
+
+    /**
+     * Reads a file from the branch of the remote.
+     *
+     * @param path
+     *            repository path
+     * @return content
+     */
+    private String read(final String path) throws Exception {
+
+        final Git remote = Git.open(getGitRemoteDirectory());
+        final ObjectReader reader = remote.getRepository()
+            .newObjectReader();
+        try {
+            final ObjectId tree = remote.getRepository()
+                .resolve("gh-pages^{tree}");
+            final TreeWalk walk = TreeWalk.forPath(reader, path, tree);
+            return walk == null ? null : new String(reader.open(walk.getObjectId(0))
+                .getBytes(), "UTF-8");
+        } finally {
+            reader.close();
+            remote.close();
+        }
+    }
+
+    @After
+    public void removeTempDirectory() throws Exception {
+
+        FileUtils.deleteDirectory(tempDirectory);
+    }
+
+    @Test
+    public void testRejectedPushIsReplayed() throws Exception {
+
+        final GitWagon first = connect(new GitWagon());
+        final GitWagon second = connect(new GitWagon());
+        put(first, "foo", "foo.txt");
+        put(first, metadata("1.0", "20260101000000"), "g/a/maven-metadata.xml");
+        put(first, "0", "g/a/maven-metadata.xml.sha1");
+        put(second, "bar", "bar.txt");
+        put(second, metadata("1.1", "20260102000000"), "g/a/maven-metadata.xml");
+        put(second, "0", "g/a/maven-metadata.xml.sha1");
+        first.disconnect();
+        second.disconnect();
+
+        assertEquals("foo", read("foo.txt"));
+        assertEquals("bar", read("bar.txt"));
+        final String metadata = read("g/a/maven-metadata.xml");
+        assertTrue(metadata, metadata.contains("<version>1.0</version>"));
+        assertTrue(metadata, metadata.contains("<version>1.1</version>"));
+        assertTrue(metadata, metadata.contains("<latest>1.1</latest>"));
+        final String sha1 = String.format("%040x", new BigInteger(1, MessageDigest.getInstance("SHA-1")
+            .digest(metadata.getBytes("UTF-8"))));
+        assertEquals(sha1, read("g/a/maven-metadata.xml.sha1"));
+    }
+}
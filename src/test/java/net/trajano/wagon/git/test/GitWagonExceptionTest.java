@@ -1,14 +1,18 @@
 package net.trajano.wagon.git.test;
 
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.fail;
+
 import java.io.File;
 import java.io.FileOutputStream;
 
 import net.trajano.wagon.git.GitWagon;
 
+import org.apache.maven.wagon.ConnectionException;
 import org.apache.maven.wagon.TransferFailedException;
-import org.apache.maven.wagon.repository.Repository;
 import org.codehaus.plexus.util.FileUtils;
 import org.eclipse.jgit.api.Git;
+import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
@@ -17,41 +21,61 @@ import org.junit.Test;
  *
  * @author Archimedes
  */
-public class GitWagonExceptionTest {
-
-    /**
-     * Git remote directory 1.
-     */
-    private File gitRemoteDirectory1;
+public class GitWagonExceptionTest extends AbstractGitWagonTestCase {
 
     /**
-     * Git remote directory 2.
+     * Second git remote directory next to the remote.
      */
     private File gitRemoteDirectory2;
 
     /**
-     * Defines the {@link #gitRemoteDirectory1}.
+     * Defines the {@link #gitRemoteDirectory2}.
      */
     @Before
-    public void createRemote() throws Exception {
+    public void createSecondRemote() throws Exception {
 
-        gitRemoteDirectory1 = File.createTempFile("remote", null);
-        gitRemoteDirectory1.delete();
-        Git.init()
-            .setDirectory(gitRemoteDirectory1)
-            .call();
         gitRemoteDirectory2 = File.createTempFile("remote", null);
         gitRemoteDirectory2.delete();
         Git.init()
             .setDirectory(gitRemoteDirectory2)
-            .call();
+            .call()
+            .close();
+    }
+
+    @After
+    public void removeSecondRemote() throws Exception {
+
+        FileUtils.deleteDirectory(gitRemoteDirectory2);
+    }
+
+    /**
+     * A repository that fails to push does not stop the others from being
+     * pushed.
+     */
+    @Test
+    public void testPushFailureReportedAfterOthersPushed() throws Exception {
+
+        final GitWagon gitWagon = connect(new GitWagon());
+        final File temp = File.createTempFile("temp", null);
+        gitWagon.put(temp, "foo");
+        gitWagon.put(temp, "../" + gitRemoteDirectory2.getName() + "?gh-pages#foo");
+        temp.delete();
+        FileUtils.deleteDirectory(gitRemoteDirectory2);
+        try {
+            gitWagon.disconnect();
+            fail("expected ConnectionException");
+        } catch (final ConnectionException e) {
+            final Git remote = Git.open(getGitRemoteDirectory());
+            assertNotNull(remote.getRepository()
+                .exactRef("refs/heads/gh-pages"));
+            remote.close();
+        }
     }
 
     @Test(expected = TransferFailedException.class)
     public void testPutOutside() throws Exception {
 
-        final GitWagon gitWagon = new GitWagon();
-        gitWagon.connect(new Repository("gh", "git:" + gitRemoteDirectory1.toURI() + "?ghPages#"));
+        final GitWagon gitWagon = connect(new GitWagon());
         final File tempDir = File.createTempFile("temp", null);
         tempDir.delete();
         tempDir.mkdir();
@@ -65,23 +89,21 @@ public class GitWagonExceptionTest {
     @Test
     public void testPutParent() throws Exception {
 
-        final GitWagon gitWagon = new GitWagon();
-        gitWagon.connect(new Repository("gh", "git:" + gitRemoteDirectory1.toURI() + "?ghPages#"));
+        final GitWagon gitWagon = connect(new GitWagon());
         final File tempDir = File.createTempFile("temp", null);
         tempDir.delete();
         tempDir.mkdir();
         new FileOutputStream(new File(tempDir, "foo")).close();
         new FileOutputStream(new File(tempDir, "bar")).close();
         new FileOutputStream(new File(tempDir, "one")).close();
-        gitWagon.putDirectory(tempDir, "../" + gitRemoteDirectory2.getName() + "?ghPages#");
+        gitWagon.putDirectory(tempDir, "../" + gitRemoteDirectory2.getName() + "?gh-pages#");
         FileUtils.deleteDirectory(tempDir);
     }
 
     @Test(expected = TransferFailedException.class)
     public void testUnableToCreateDirs() throws Exception {
 
-        final GitWagon gitWagon = new GitWagon();
-        gitWagon.connect(new Repository("gh", "git:" + gitRemoteDirectory1.toURI() + "?ghPages#"));
+        final GitWagon gitWagon = connect(new GitWagon());
         final File temp = File.createTempFile("temp", null);
         gitWagon.put(temp, "////");
         temp.delete();
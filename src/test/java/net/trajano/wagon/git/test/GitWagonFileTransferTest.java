@@ -0,0 +1,106 @@
+package net.trajano.wagon.git.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+
+import net.trajano.wagon.git.GitWagon;
+
+import org.apache.maven.wagon.TransferFailedException;
+import org.apache.maven.wagon.events.TransferEvent;
+import org.apache.maven.wagon.observers.ChecksumObserver;
+import org.apache.maven.wagon.observers.Debug;
+import org.codehaus.plexus.util.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the transfers between files that bypass the stream copy.
+ */
+public class GitWagonFileTransferTest extends AbstractGitWagonTestCase {
+
+    /**
+     * MD5 of "hello".
+     */
+    private static final String HELLO_MD5 = "5d41402abc4b2a76b9719d911017c592";
+
+    /**
+     * Temporary file.
+     */
+    private File temp;
+
+    /**
+     * Creates the file to upload.
+     */
+    @Before
+    public void createTemp() throws Exception {
+
+        temp = File.createTempFile("temp", null);
+        FileUtils.fileWrite(temp, "UTF-8", "hello");
+    }
+
+    @After
+    public void removeTemp() throws Exception {
+
+        temp.delete();
+    }
+
+    @Test
+    public void testFileTransfers() throws Exception {
+
+        final GitWagon gitWagon = connect(new GitWagon());
+        final ChecksumObserver observer = new ChecksumObserver();
+        gitWagon.addTransferListener(observer);
+
+        gitWagon.put(temp, "a/put.txt");
+        assertEquals(HELLO_MD5, observer.getActualChecksum());
+
+        final FileInputStream in = new FileInputStream(temp);
+        gitWagon.putFromStream(in, "a/stream.txt");
+        in.close();
+        assertEquals(HELLO_MD5, observer.getActualChecksum());
+
+        final File got = File.createTempFile("got", null);
+        gitWagon.get("a/put.txt", got);
+        assertEquals("hello", FileUtils.fileRead(got, "UTF-8"));
+        assertEquals(HELLO_MD5, observer.getActualChecksum());
+
+        final FileOutputStream out = new FileOutputStream(got);
+        gitWagon.getToStream("a/stream.txt", out);
+        out.close();
+        assertEquals("hello", FileUtils.fileRead(got, "UTF-8"));
+        assertEquals(HELLO_MD5, observer.getActualChecksum());
+        got.delete();
+
+        gitWagon.removeTransferListener(observer);
+        gitWagon.disconnect();
+    }
+
+    @Test
+    public void testPutMissingSourceFiresError() throws Exception {
+
+        final GitWagon gitWagon = connect(new GitWagon());
+        final TransferEvent[] error = new TransferEvent[1];
+        gitWagon.addTransferListener(new Debug() {
+
+            @Override
+            public void transferError(final TransferEvent transferEvent) {
+
+                error[0] = transferEvent;
+            }
+        });
+        try {
+            gitWagon.put(new File(temp.getParentFile(), temp.getName() + ".missing"), "missing.txt");
+            fail();
+        } catch (final TransferFailedException e) {
+            assertSame(e, error[0].getException());
+            assertEquals(TransferEvent.REQUEST_PUT, error[0].getRequestType());
+        }
+        gitWagon.disconnect();
+    }
+}
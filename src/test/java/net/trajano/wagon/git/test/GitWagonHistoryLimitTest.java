@@ -0,0 +1,99 @@
+package net.trajano.wagon.git.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+
+import net.trajano.wagon.git.GitWagon;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests limiting the history of the deployment branch.
+ */
+public class GitWagonHistoryLimitTest extends AbstractGitWagonTestCase {
+
+    /**
+     * Empty file to upload.
+     */
+    private File temp;
+
+    /**
+     * Creates the file to upload.
+     */
+    @Before
+    public void createTemp() throws Exception {
+
+        temp = File.createTempFile("temp", null);
+        new FileOutputStream(temp).close();
+    }
+
+    /**
+     * Builds a wagon that keeps two commits.
+     *
+     * @return wagon
+     */
+    private GitWagon newWagon() throws Exception {
+
+        final GitWagon gitWagon = new GitWagon();
+        gitWagon.setHistoryLimit(2);
+        return connect(gitWagon);
+    }
+
+    @After
+    public void removeTemp() throws Exception {
+
+        temp.delete();
+    }
+
+    @Test
+    public void testConcurrentDeployIsNotLost() throws Exception {
+
+        for (int i = 0; i < 4; ++i) {
+            final GitWagon wagon = newWagon();
+            wagon.put(temp, "file" + i);
+            wagon.disconnect();
+        }
+        final GitWagon first = newWagon();
+        final GitWagon second = newWagon();
+        first.put(temp, "first");
+        second.put(temp, "second");
+        first.disconnect();
+        assertEquals(2, countCommits());
+        second.disconnect();
+        assertEquals(3, countCommits());
+
+        final GitWagon check = newWagon();
+        assertTrue(check.resourceExists("first"));
+        assertTrue(check.resourceExists("second"));
+        check.disconnect();
+    }
+
+    @Test
+    public void testHistoryIsTrimmed() throws Exception {
+
+        final int[] expectedCommits = {
+            1,
+            2,
+            3,
+            4,
+            2,
+            3
+        };
+        for (int i = 0; i < expectedCommits.length; ++i) {
+            final GitWagon wagon = newWagon();
+            wagon.put(temp, "file" + i);
+            wagon.disconnect();
+            assertEquals(expectedCommits[i], countCommits());
+        }
+        final GitWagon check = newWagon();
+        for (int i = 0; i < expectedCommits.length; ++i) {
+            assertTrue(check.resourceExists("file" + i));
+        }
+        check.disconnect();
+    }
+}
@@ -0,0 +1,118 @@
+package net.trajano.wagon.git.test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+
+import net.trajano.wagon.git.GitWagon;
+
+import org.apache.maven.wagon.TransferFailedException;
+import org.apache.maven.wagon.Wagon;
+import org.codehaus.plexus.util.FileUtils;
+
+/**
+ * Runs the {@link GitWagonTest} suite with clones held in memory.
+ */
+public class GitWagonInMemoryTest extends GitWagonTest {
+
+    /**
+     * Enables in memory mode.
+     */
+    @Override
+    protected Wagon getWagon() throws Exception {
+
+        final GitWagon wagon = (GitWagon) super.getWagon();
+        wagon.setInMemory(true);
+        return wagon;
+    }
+
+    /**
+     * Deploys a file with a wagon using the persistent cache.
+     *
+     * @param cacheDirectory
+     *            cache directory
+     * @param inMemoryLimit
+     *            in memory limit
+     * @param resource
+     *            resource to deploy
+     */
+    private void deploy(final File cacheDirectory,
+        final long inMemoryLimit,
+        final String resource) throws Exception {
+
+        final File source = File.createTempFile("source", null);
+        FileUtils.fileWrite(source, resource);
+        final GitWagon wagon = (GitWagon) getWagon();
+        wagon.setPersistentCache(true);
+        wagon.setCacheDirectory(cacheDirectory);
+        wagon.setInMemoryLimit(inMemoryLimit);
+        connectWagon(wagon);
+        wagon.put(source, resource);
+        disconnectWagon(wagon);
+        source.delete();
+    }
+
+    /**
+     * Clones held in memory do not write to the cache directory and clones
+     * larger than the limit are made in the cache directory instead.
+     */
+    public void testInMemoryLimit() throws Exception {
+
+        setupRepositories();
+        setupWagonTestingFixtures();
+        final File cacheDirectory = File.createTempFile("cache", null);
+        cacheDirectory.delete();
+
+        deploy(cacheDirectory, 0, "first.txt");
+        deploy(cacheDirectory, 1024 * 1024, "second.txt");
+        assertFalse(cacheDirectory.exists());
+
+        deploy(cacheDirectory, 1, "third.txt");
+        assertTrue(cacheDirectory.isDirectory());
+
+        final Wagon wagon = getWagon();
+        connectWagon(wagon);
+        assertTrue(wagon.resourceExists("first.txt"));
+        assertTrue(wagon.resourceExists("second.txt"));
+        assertTrue(wagon.resourceExists("third.txt"));
+        disconnectWagon(wagon);
+
+        FileUtils.deleteDirectory(cacheDirectory);
+        tearDownWagonTestingFixtures();
+    }
+
+    /**
+     * Uploads count against the in memory limit.
+     */
+    public void testInMemoryLimitOnUpload() throws Exception {
+
+        setupRepositories();
+        setupWagonTestingFixtures();
+        final File source = File.createTempFile("source", null);
+        final OutputStream out = new FileOutputStream(source);
+        try {
+            out.write(new byte[2 * 1024 * 1024]);
+        } finally {
+            out.close();
+        }
+
+        final GitWagon wagon = (GitWagon) getWagon();
+        wagon.setInMemoryLimit(1024 * 1024);
+        connectWagon(wagon);
+        try {
+            wagon.put(source, "large.bin");
+            fail("upload over the in memory limit");
+        } catch (final TransferFailedException e) {
+            // expected
+        }
+        disconnectWagon(wagon);
+
+        final Wagon check = getWagon();
+        connectWagon(check);
+        assertFalse(check.resourceExists("large.bin"));
+        disconnectWagon(check);
+
+        source.delete();
+        tearDownWagonTestingFixtures();
+    }
+}
@@ -0,0 +1,68 @@
+package net.trajano.wagon.git.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import net.trajano.wagon.git.GitWagon;
+
+import org.codehaus.plexus.util.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the session metrics report.
+ */
+public class GitWagonMetricsTest extends AbstractGitWagonTestCase {
+
+    /**
+     * Metrics file.
+     */
+    private File metricsFile;
+
+    /**
+     * Defines the metrics file.
+     */
+    @Before
+    public void createMetricsFile() throws Exception {
+
+        metricsFile = File.createTempFile("metrics", ".json");
+        metricsFile.delete();
+    }
+
+    @After
+    public void removeMetricsFile() throws Exception {
+
+        metricsFile.delete();
+    }
+
+    @Test
+    public void testMetricsAppendedPerSession() throws Exception {
+
+        final File temp = File.createTempFile("temp", null);
+        FileUtils.fileWrite(temp, "UTF-8", "hello");
+        for (int i = 0; i < 2; ++i) {
+            final GitWagon gitWagon = new GitWagon();
+            gitWagon.setMetricsFile(metricsFile);
+            connect(gitWagon);
+            gitWagon.put(temp, "foo" + i + ".txt");
+            gitWagon.disconnect();
+        }
+        temp.delete();
+
+        final String[] lines = FileUtils.fileRead(metricsFile, "UTF-8")
+            .split("\n");
+        assertEquals(2, lines.length);
+        for (final String line : lines) {
+            assertTrue(line, line.startsWith("{\"repository\":\"git:"));
+            assertTrue(line, line.contains("\"put\":{\"count\":1,"));
+            assertTrue(line, line.contains("\"bytes\":5,"));
+            assertTrue(line, line.contains("\"clone\":{"));
+            assertTrue(line, line.contains("\"commit\":{"));
+            assertTrue(line, line.contains("\"push\":{"));
+            assertTrue(line, line.endsWith("}}"));
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package net.trajano.wagon.git.test;
+
+import net.trajano.wagon.git.GitWagon;
+
+import org.apache.maven.wagon.Wagon;
+
+/**
+ * Runs the {@link GitWagonTest} suite with clones that are not checked out.
+ */
+public class GitWagonNoCheckoutTest extends GitWagonTest {
+
+    /**
+     * Enables no checkout mode.
+     */
+    @Override
+    protected Wagon getWagon() throws Exception {
+
+        final GitWagon wagon = (GitWagon) super.getWagon();
+        wagon.setNoCheckout(true);
+        return wagon;
+    }
+}
@@ -0,0 +1,205 @@
+package net.trajano.wagon.git.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.TreeSet;
+
+import net.trajano.wagon.git.GitWagon;
+
+import org.apache.maven.wagon.ResourceDoesNotExistException;
+import org.apache.maven.wagon.events.TransferEvent;
+import org.apache.maven.wagon.observers.AbstractTransferListener;
+import org.codehaus.plexus.util.FileUtils;
+import org.eclipse.jgit.api.Git;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests incremental and mirrored directory uploads.
+ */
+public class GitWagonPutDirectoryTest extends AbstractGitWagonTestCase {
+
+    /**
+     * Source directory.
+     */
+    private File sourceDirectory;
+
+    /**
+     * Creates a source directory with two files.
+     */
+    @Before
+    public void createSourceDirectory() throws Exception {
+
+        sourceDirectory = File.createTempFile("source", null);
+        sourceDirectory.delete();
+        new File(sourceDirectory, "sub").mkdirs();
+        FileUtils.fileWrite(new File(sourceDirectory, "a.txt"), "a");
+        FileUtils.fileWrite(new File(sourceDirectory, "sub/b.txt"), "b");
+    }
+
+    /**
+     * Builds a connected wagon.
+     *
+     * @param bare
+     *            bare mode
+     * @return wagon
+     */
+    private GitWagon newMirrorWagon(final boolean bare) throws Exception {
+
+        final GitWagon gitWagon = new GitWagon();
+        gitWagon.setBare(bare);
+        gitWagon.setMirror(true);
+        return connect(gitWagon);
+    }
+
+    @After
+    public void removeSourceDirectory() throws Exception {
+
+        FileUtils.deleteDirectory(sourceDirectory);
+    }
+
+    /**
+     * Creates files in the site directory and a subdirectory of it on the
+     * gh-pages branch.
+     */
+    @Override
+    protected void setupRemote(final Git git) throws Exception {
+
+        new File(getGitRemoteDirectory(), "site").mkdir();
+        new File(getGitRemoteDirectory(), "site/deep").mkdir();
+        new FileOutputStream(new File(getGitRemoteDirectory(), "site/old.txt")).close();
+        new FileOutputStream(new File(getGitRemoteDirectory(), "site/deep/old.txt")).close();
+        new FileOutputStream(new File(getGitRemoteDirectory(), "other.txt")).close();
+        git.add()
+            .addFilepattern(".")
+            .call();
+        git.commit()
+            .setMessage("site")
+            .call();
+        git.branchCreate()
+            .setName("gh-pages")
+            .call();
+    }
+
+    @Test
+    public void testMirror() throws Exception {
+
+        final GitWagon gitWagon = newMirrorWagon(false);
+        gitWagon.putDirectory(sourceDirectory, "site");
+        assertFalse(gitWagon.getFileForResource("site/old.txt")
+            .exists());
+        gitWagon.disconnect();
+
+        assertFalse(remoteHasPath("site/old.txt"));
+        assertTrue(remoteHasPath("site/a.txt"));
+        assertTrue(remoteHasPath("site/sub/b.txt"));
+        assertTrue(remoteHasPath("other.txt"));
+    }
+
+    @Test
+    public void testMirrorBare() throws Exception {
+
+        final GitWagon gitWagon = newMirrorWagon(true);
+        gitWagon.putDirectory(sourceDirectory, "site");
+        assertFalse(gitWagon.resourceExists("site/old.txt"));
+        gitWagon.disconnect();
+
+        assertFalse(remoteHasPath("site/old.txt"));
+        assertTrue(remoteHasPath("site/a.txt"));
+        assertTrue(remoteHasPath("site/sub/b.txt"));
+        assertTrue(remoteHasPath("other.txt"));
+    }
+
+    /**
+     * A directory whose files were all deleted by the mirror is no longer
+     * listed.
+     */
+    @Test
+    public void testMirrorBareRemovesEmptiedDirectory() throws Exception {
+
+        final GitWagon gitWagon = newMirrorWagon(true);
+        assertTrue(gitWagon.resourceExists("site/deep/"));
+        gitWagon.putDirectory(sourceDirectory, "site");
+        assertFalse(gitWagon.resourceExists("site/deep/"));
+        assertFalse(gitWagon.resourceExists("site/deep"));
+        assertEquals(Arrays.asList("a.txt", "sub/"), gitWagon.getFileList("site"));
+        try {
+            gitWagon.getFileList("site/deep");
+            fail("emptied directory listed");
+        } catch (final ResourceDoesNotExistException e) {
+            // expected
+        }
+        gitWagon.disconnect();
+
+        assertFalse(remoteHasPath("site/deep/old.txt"));
+    }
+
+    /**
+     * Only the files written through the wagon are committed.
+     */
+    @Test
+    public void testOnlyTouchedPathsCommitted() throws Exception {
+
+        final GitWagon gitWagon = connect(new GitWagon());
+        gitWagon.putDirectory(sourceDirectory, "site");
+        FileUtils.fileWrite(gitWagon.getFileForResource("stray.txt"), "stray");
+        gitWagon.disconnect();
+
+        assertTrue(remoteHasPath("site/a.txt"));
+        assertTrue(remoteHasPath("site/old.txt"));
+        assertFalse(remoteHasPath("stray.txt"));
+    }
+
+    /**
+     * A put completed event is sent for every uploaded file.
+     */
+    @Test
+    public void testTransferEvents() throws Exception {
+
+        final Set<String> completed = new TreeSet<String>();
+        final GitWagon gitWagon = new GitWagon();
+        gitWagon.addTransferListener(new AbstractTransferListener() {
+
+            @Override
+            public void transferCompleted(final TransferEvent transferEvent) {
+
+                completed.add(transferEvent.getResource()
+                    .getName());
+            }
+        });
+        connect(gitWagon);
+        gitWagon.putDirectory(sourceDirectory, "site");
+        gitWagon.disconnect();
+        assertEquals(new TreeSet<String>(Arrays.asList("site/a.txt", "site/sub/b.txt")), completed);
+    }
+
+    /**
+     * Files that have not changed are not copied again.
+     */
+    @Test
+    public void testUnchangedFilesNotCopied() throws Exception {
+
+        final GitWagon gitWagon = connect(new GitWagon());
+        gitWagon.putDirectory(sourceDirectory, "site");
+        final File a = gitWagon.getFileForResource("site/a.txt");
+        final File b = gitWagon.getFileForResource("site/sub/b.txt");
+        assertTrue(a.setLastModified(1000000000L));
+        assertTrue(b.setLastModified(1000000000L));
+
+        FileUtils.fileWrite(new File(sourceDirectory, "sub/b.txt"), "B");
+        gitWagon.putDirectory(sourceDirectory, "site");
+        assertEquals(1000000000L, a.lastModified());
+        assertEquals("B", FileUtils.fileRead(b));
+        assertTrue(gitWagon.getFileForResource("site/old.txt")
+            .exists());
+        gitWagon.disconnect();
+    }
+}
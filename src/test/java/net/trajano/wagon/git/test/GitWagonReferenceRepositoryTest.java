@@ -0,0 +1,227 @@
+package net.trajano.wagon.git.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import net.trajano.wagon.git.GitWagon;
+
+import org.codehaus.plexus.util.FileUtils;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests seeding clones from a reference repository.
+ */
+public class GitWagonReferenceRepositoryTest extends AbstractGitWagonTestCase {
+
+    /**
+     * Cache directory.
+     */
+    private File cacheDirectory;
+
+    /**
+     * Commit in both the remote and the reference repository.
+     */
+    private ObjectId initialCommit;
+
+    /**
+     * Commit in the remote only.
+     */
+    private ObjectId latestCommit;
+
+    /**
+     * Bare mirror of the remote taken before {@link #latestCommit}.
+     */
+    private File referenceDirectory;
+
+    /**
+     * Defines the cache directory.
+     */
+    @Before
+    public void createCacheDirectory() throws Exception {
+
+        cacheDirectory = File.createTempFile("cache", null);
+        cacheDirectory.delete();
+    }
+
+    /**
+     * Finds the clones in the cache directory.
+     *
+     * @return git directories of the clones
+     */
+    private List<File> findClones() {
+
+        final List<File> clones = new ArrayList<File>();
+        for (final File file : cacheDirectory.listFiles()) {
+            if (file.isDirectory()) {
+                clones.add(new File(file, ".git"));
+            }
+        }
+        return clones;
+    }
+
+    @After
+    public void removeDirectories() throws Exception {
+
+        FileUtils.deleteDirectory(referenceDirectory);
+        FileUtils.deleteDirectory(cacheDirectory);
+    }
+
+    /**
+     * Creates a reference repository that is one commit behind the remote.
+     */
+    @Override
+    protected void setupRemote(final Git git) throws Exception {
+
+        FileUtils.fileWrite(new File(getGitRemoteDirectory(), "index.html"), "UTF-8", "hello");
+        git.add()
+            .addFilepattern(".")
+            .call();
+        initialCommit = git.commit()
+            .setMessage("initial")
+            .call();
+        git.branchCreate()
+            .setName("gh-pages")
+            .call();
+
+        referenceDirectory = File.createTempFile("reference", null);
+        referenceDirectory.delete();
+        Git.cloneRepository()
+            .setURI(getGitRemoteDirectory().toURI()
+                .toString())
+            .setBare(true)
+            .setCloneAllBranches(true)
+            .setDirectory(referenceDirectory)
+            .call()
+            .close();
+
+        git.checkout()
+            .setName("gh-pages")
+            .call();
+        FileUtils.fileWrite(new File(getGitRemoteDirectory(), "latest.html"), "UTF-8", "latest");
+        git.add()
+            .addFilepattern(".")
+            .call();
+        latestCommit = git.commit()
+            .setMessage("latest")
+            .call();
+        git.checkout()
+            .setName("master")
+            .call();
+    }
+
+    /**
+     * Deploys a file with the given reference repositories.
+     *
+     * @param referenceRepositories
+     *            reference repositories
+     */
+    private void deploy(final Properties referenceRepositories) throws Exception {
+
+        final File temp = File.createTempFile("temp", null);
+        FileUtils.fileWrite(temp, "UTF-8", "world");
+
+        final GitWagon gitWagon = new GitWagon();
+        gitWagon.setReferenceRepositories(referenceRepositories);
+        gitWagon.setPersistentCache(true);
+        gitWagon.setCacheDirectory(cacheDirectory);
+        connect(gitWagon);
+        assertTrue(gitWagon.resourceExists("index.html"));
+        assertTrue(gitWagon.resourceExists("latest.html"));
+        gitWagon.put(temp, "foo.txt");
+        gitWagon.disconnect();
+        temp.delete();
+    }
+
+    @Test
+    public void testInvalidReferenceIsIgnored() throws Exception {
+
+        final Properties referenceRepositories = new Properties();
+        referenceRepositories.setProperty(getGitRemoteDirectory().toURI()
+            .toString(), cacheDirectory.getAbsolutePath());
+        deploy(referenceRepositories);
+
+        final File clone = findClones().get(0);
+        assertFalse(new File(clone, "objects/info/alternates").exists());
+        final org.eclipse.jgit.lib.Repository repository = new FileRepositoryBuilder().setGitDir(clone)
+            .build();
+        try {
+            assertTrue(repository.hasObject(initialCommit));
+        } finally {
+            repository.close();
+        }
+    }
+
+    @Test
+    public void testOnlyMissingObjectsAreFetched() throws Exception {
+
+        final String gitRepositoryUri = getGitRemoteDirectory().toURI()
+            .toString();
+        final Properties referenceRepositories = new Properties();
+        referenceRepositories.setProperty(gitRepositoryUri, referenceDirectory.getAbsolutePath());
+        final File temp = File.createTempFile("temp", null);
+        FileUtils.fileWrite(temp, "UTF-8", "world");
+
+        final InspectableGitWagon gitWagon = new InspectableGitWagon();
+        gitWagon.setReferenceRepositories(referenceRepositories);
+        connect(gitWagon);
+        assertTrue(gitWagon.resourceExists("latest.html"));
+        final File clone = gitWagon.getCloneDirectory(gitRepositoryUri);
+        final File alternates = new File(clone, "objects/info/alternates");
+        assertEquals(new File(referenceDirectory, "objects").getAbsolutePath()
+            .replace(File.separatorChar, '/'), FileUtils.fileRead(alternates, "UTF-8")
+                .trim());
+
+        // without the alternates only the objects that were transferred
+        // remain.
+        final File hidden = new File(clone, "objects/info/alternates.hidden");
+        assertTrue(alternates.renameTo(hidden));
+        final org.eclipse.jgit.lib.Repository repository = new FileRepositoryBuilder().setGitDir(clone)
+            .build();
+        try {
+            assertFalse(repository.hasObject(initialCommit));
+            assertTrue(repository.hasObject(latestCommit));
+        } finally {
+            repository.close();
+            assertTrue(hidden.renameTo(alternates));
+        }
+        gitWagon.put(temp, "foo.txt");
+        gitWagon.disconnect();
+        temp.delete();
+    }
+
+    @Test
+    public void testPersistentCloneIsDissociated() throws Exception {
+
+        final Properties referenceRepositories = new Properties();
+        referenceRepositories.setProperty(getGitRemoteDirectory().toURI()
+            .toString(), referenceDirectory.getAbsolutePath());
+        deploy(referenceRepositories);
+
+        final File clone = findClones().get(0);
+        assertFalse(new File(clone, "objects/info/alternates").exists());
+        FileUtils.deleteDirectory(referenceDirectory);
+        final org.eclipse.jgit.lib.Repository repository = new FileRepositoryBuilder().setGitDir(clone)
+            .build();
+        try {
+            assertTrue(repository.hasObject(initialCommit));
+            assertTrue(repository.hasObject(latestCommit));
+        } finally {
+            repository.close();
+        }
+
+        // a clone that is not seeded from the reference is kept separately.
+        deploy(new Properties());
+        assertEquals(2, findClones().size());
+    }
+}
@@ -0,0 +1,114 @@
+package net.trajano.wagon.git.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import net.trajano.wagon.git.GitWagon;
+
+import org.codehaus.plexus.util.FileUtils;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.ObjectId;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests cloning local remotes by sharing their objects.
+ */
+public class GitWagonShareLocalObjectsTest extends AbstractGitWagonTestCase {
+
+    /**
+     * Cache directory.
+     */
+    private File cacheDirectory;
+
+    /**
+     * Commit in the remote before the deploy.
+     */
+    private ObjectId initialCommit;
+
+    /**
+     * Defines the cache directory.
+     */
+    @Before
+    public void createCacheDirectory() throws Exception {
+
+        cacheDirectory = File.createTempFile("cache", null);
+        cacheDirectory.delete();
+    }
+
+    @After
+    public void removeCacheDirectory() throws Exception {
+
+        FileUtils.deleteDirectory(cacheDirectory);
+    }
+
+    /**
+     * Creates a commit on the branch.
+     */
+    @Override
+    protected void setupRemote(final Git git) throws Exception {
+
+        FileUtils.fileWrite(new File(getGitRemoteDirectory(), "index.html"), "UTF-8", "hello");
+        git.add()
+            .addFilepattern(".")
+            .call();
+        initialCommit = git.commit()
+            .setMessage("initial")
+            .call();
+        git.branchCreate()
+            .setName("gh-pages")
+            .call();
+    }
+
+    @Test
+    public void testObjectsAreShared() throws Exception {
+
+        final File temp = File.createTempFile("temp", null);
+        FileUtils.fileWrite(temp, "UTF-8", "world");
+
+        final InspectableGitWagon gitWagon = new InspectableGitWagon();
+        gitWagon.setShareLocalObjects(true);
+        connect(gitWagon);
+        assertTrue(gitWagon.resourceExists("index.html"));
+        final File objects = new File(gitWagon.getCloneDirectory(getGitRemoteDirectory().toURI()
+            .toString()), "objects");
+        assertEquals(new File(getGitRemoteDirectory(), ".git/objects").getAbsolutePath()
+            .replace(File.separatorChar, '/'), FileUtils.fileRead(new File(objects, "info/alternates"), "UTF-8")
+                .trim());
+        final String name = initialCommit.name();
+        assertFalse(new File(objects, name.substring(0, 2) + "/" + name.substring(2)).exists());
+        gitWagon.put(temp, "foo.txt");
+        gitWagon.disconnect();
+        temp.delete();
+        assertTrue(remoteHasPath("foo.txt"));
+    }
+
+    @Test
+    public void testPersistentCloneIsDissociated() throws Exception {
+
+        final GitWagon gitWagon = new GitWagon();
+        gitWagon.setShareLocalObjects(true);
+        gitWagon.setPersistentCache(true);
+        gitWagon.setCacheDirectory(cacheDirectory);
+        connect(gitWagon);
+        assertTrue(gitWagon.resourceExists("index.html"));
+        gitWagon.disconnect();
+
+        for (final File file : cacheDirectory.listFiles()) {
+            if (file.isDirectory()) {
+                assertFalse(new File(file, ".git/objects/info/alternates").exists());
+                final Git clone = Git.open(file);
+                try {
+                    assertTrue(clone.getRepository()
+                        .hasObject(initialCommit));
+                } finally {
+                    clone.close();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,248 @@
+package net.trajano.wagon.git.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.trajano.wagon.git.GitWagon;
+import net.trajano.wagon.git.internal.WorkingCopy;
+import net.trajano.wagon.git.internal.WorkingCopyRegistry;
+
+import org.eclipse.jgit.api.Git;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests sharing working copies between wagons.
+ */
+public class GitWagonSharedWorkingCopyTest extends AbstractGitWagonTestCase {
+
+    /**
+     * Defers the pushes as the Maven build does.
+     */
+    @Before
+    public void deferPushes() {
+
+        WorkingCopyRegistry.getInstance()
+            .setDeferred(true);
+    }
+
+    /**
+     * Builds a wagon that shares its working copies.
+     *
+     * @return wagon
+     */
+    private GitWagon newSharingWagon() throws Exception {
+
+        final GitWagon gitWagon = new GitWagon();
+        gitWagon.setShareWorkingCopies(true);
+        return connect(gitWagon);
+    }
+
+    /**
+     * Stops deferring the pushes.
+     */
+    @After
+    public void stopDeferringPushes() {
+
+        WorkingCopyRegistry.getInstance()
+            .setDeferred(false);
+    }
+
+    @Test
+    public void testConcurrentAcquireOpensOnce() throws Exception {
+
+        final AtomicInteger opened = new AtomicInteger();
+        final CountDownLatch start = new CountDownLatch(1);
+        final WorkingCopy workingCopy = new WorkingCopy("test", Git.open(getGitRemoteDirectory()), null);
+        final WorkingCopyRegistry.Factory factory = new WorkingCopyRegistry.Factory() {
+
+            @Override
+            public WorkingCopy newWorkingCopy() throws IOException {
+
+                opened.incrementAndGet();
+                try {
+                    Thread.sleep(100);
+                } catch (final InterruptedException e) {
+                    throw new InterruptedIOException();
+                }
+                return workingCopy;
+            }
+        };
+        final AtomicInteger finished = new AtomicInteger();
+        final WorkingCopyRegistry.Finisher finisher = new WorkingCopyRegistry.Finisher() {
+
+            @Override
+            public void finish(final WorkingCopy w) {
+
+                finished.incrementAndGet();
+            }
+        };
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        final Callable<WorkingCopy> acquire = new Callable<WorkingCopy>() {
+
+            @Override
+            public WorkingCopy call() throws Exception {
+
+                start.await();
+                return WorkingCopyRegistry.getInstance()
+                    .acquire("concurrent", factory);
+            }
+        };
+        final Future<?>[] futures = new Future<?>[4];
+        for (int i = 0; i < futures.length; ++i) {
+            futures[i] = executor.submit(acquire);
+        }
+        start.countDown();
+        for (final Future<?> future : futures) {
+            assertSame(workingCopy, future.get());
+        }
+        executor.shutdown();
+        assertEquals(1, opened.get());
+        for (int i = 0; i < futures.length; ++i) {
+            WorkingCopyRegistry.getInstance()
+                .release("concurrent", finisher);
+            assertEquals(0, finished.get());
+        }
+        WorkingCopyRegistry.getInstance()
+            .flush();
+        assertEquals(1, finished.get());
+        workingCopy.getGit()
+            .close();
+    }
+
+    @Test
+    public void testPushedOnceWhenFlushed() throws Exception {
+
+        final File temp = File.createTempFile("temp", null);
+        new FileOutputStream(temp).close();
+
+        final GitWagon first = newSharingWagon();
+        final GitWagon second = newSharingWagon();
+        first.put(temp, "foo.txt");
+        second.put(temp, "bar.txt");
+        assertTrue(first.resourceExists("bar.txt"));
+        first.disconnect();
+        second.disconnect();
+        assertEquals(0, countCommits());
+        WorkingCopyRegistry.getInstance()
+            .flush();
+        assertEquals(1, countCommits());
+
+        final GitWagon third = newSharingWagon();
+        assertTrue(third.resourceExists("foo.txt"));
+        assertTrue(third.resourceExists("bar.txt"));
+        assertFalse(third.resourceExists("baz.txt"));
+        third.disconnect();
+        WorkingCopyRegistry.getInstance()
+            .flush();
+        temp.delete();
+    }
+
+    @Test
+    public void testSequentialWagonsPushOnce() throws Exception {
+
+        final File temp = File.createTempFile("temp", null);
+        new FileOutputStream(temp).close();
+
+        final GitWagon first = newSharingWagon();
+        first.put(temp, "foo.txt");
+        first.disconnect();
+        final GitWagon second = newSharingWagon();
+        assertTrue(second.resourceExists("foo.txt"));
+        second.put(temp, "bar.txt");
+        second.disconnect();
+        assertEquals(0, countCommits());
+        WorkingCopyRegistry.getInstance()
+            .flush();
+        assertEquals(1, countCommits());
+        temp.delete();
+    }
+
+    @Test
+    public void testUnreleasedNotFlushed() throws Exception {
+
+        final File temp = File.createTempFile("temp", null);
+        new FileOutputStream(temp).close();
+
+        final GitWagon wagon = newSharingWagon();
+        wagon.put(temp, "foo.txt");
+        WorkingCopyRegistry.getInstance()
+            .flush();
+        assertEquals(0, countCommits());
+        wagon.disconnect();
+        WorkingCopyRegistry.getInstance()
+            .flush();
+        assertEquals(1, countCommits());
+        temp.delete();
+    }
+
+    @Test
+    public void testPushedOnLastReleaseWhenNotDeferred() throws Exception {
+
+        WorkingCopyRegistry.getInstance()
+            .setDeferred(false);
+        final File temp = File.createTempFile("temp", null);
+        new FileOutputStream(temp).close();
+
+        final GitWagon first = newSharingWagon();
+        final GitWagon second = newSharingWagon();
+        first.put(temp, "foo.txt");
+        second.put(temp, "bar.txt");
+        first.disconnect();
+        assertEquals(0, countCommits());
+        second.disconnect();
+        assertEquals(1, countCommits());
+        assertTrue(remoteHasPath("foo.txt"));
+        assertTrue(remoteHasPath("bar.txt"));
+        temp.delete();
+    }
+
+    @Test
+    public void testReleaseReportsPushFailure() throws Exception {
+
+        WorkingCopyRegistry.getInstance()
+            .setDeferred(false);
+        final WorkingCopy workingCopy = new WorkingCopy("test", Git.open(getGitRemoteDirectory()), null);
+        WorkingCopyRegistry.getInstance()
+            .acquire("failing", new WorkingCopyRegistry.Factory() {
+
+                @Override
+                public WorkingCopy newWorkingCopy() {
+
+                    return workingCopy;
+                }
+            });
+        try {
+            WorkingCopyRegistry.getInstance()
+                .release("failing", new WorkingCopyRegistry.Finisher() {
+
+                    @Override
+                    public void finish(final WorkingCopy w) throws IOException {
+
+                        throw new IOException("rejected");
+                    }
+                });
+            fail("push failure not reported");
+        } catch (final IOException e) {
+            assertEquals("rejected", e.getMessage());
+        } finally {
+            workingCopy.getGit()
+                .close();
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package net.trajano.wagon.git.test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+
+import net.trajano.wagon.git.GitWagon;
+
+import org.apache.maven.wagon.Wagon;
+import org.eclipse.jgit.api.Git;
+
+/**
+ * Runs the {@link GitWagonTest} suite with single branch clones against a
+ * remote whose only branch is not the deployment branch.
+ */
+public class GitWagonSingleBranchTest extends GitWagonTest {
+
+    /**
+     * Enables single branch clones.
+     */
+    @Override
+    protected Wagon getWagon() throws Exception {
+
+        final GitWagon wagon = (GitWagon) super.getWagon();
+        wagon.setSingleBranch(true);
+        return wagon;
+    }
+
+    /**
+     * Adds a commit on master so the remote has a branch other than the one
+     * being deployed to.
+     */
+    @Override
+    protected void setupWagonTestingFixtures() throws Exception {
+
+        super.setupWagonTestingFixtures();
+        final Git remote = Git.open(getGitRemoteDirectory());
+        new FileOutputStream(new File(getGitRemoteDirectory(), "master.txt")).close();
+        remote.add()
+            .addFilepattern("master.txt")
+            .call();
+        remote.commit()
+            .setMessage("master")
+            .call();
+        remote.close();
+    }
+}
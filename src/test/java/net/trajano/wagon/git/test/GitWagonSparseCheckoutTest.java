@@ -0,0 +1,64 @@
+package net.trajano.wagon.git.test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+
+import net.trajano.wagon.git.GitWagon;
+
+import org.apache.maven.wagon.repository.Repository;
+import org.eclipse.jgit.api.Git;
+import org.junit.Test;
+
+/**
+ * Tests sparse checkout.
+ */
+public class GitWagonSparseCheckoutTest extends AbstractGitWagonTestCase {
+
+    /**
+     * Creates two project directories on the gh-pages branch.
+     */
+    @Override
+    protected void setupRemote(final Git git) throws Exception {
+
+        new File(getGitRemoteDirectory(), "project-a").mkdir();
+        new File(getGitRemoteDirectory(), "project-b").mkdir();
+        new FileOutputStream(new File(getGitRemoteDirectory(), "project-a/a.txt")).close();
+        new FileOutputStream(new File(getGitRemoteDirectory(), "project-b/b.txt")).close();
+        git.add()
+            .addFilepattern(".")
+            .call();
+        git.commit()
+            .setMessage("projects")
+            .call();
+        git.branchCreate()
+            .setName("gh-pages")
+            .call();
+    }
+
+    @Test
+    public void testSparseCheckout() throws Exception {
+
+        final File temp = File.createTempFile("temp", null);
+        new FileOutputStream(temp).close();
+
+        final GitWagon gitWagon = new GitWagon();
+        gitWagon.setSparseCheckout(true);
+        gitWagon.connect(new Repository("gh", getTestRepositoryUrl() + "project-a/"));
+        final File a = gitWagon.getFileForResource("project-a/a.txt");
+        assertNotNull(a);
+        assertTrue(a.exists());
+        assertFalse(gitWagon.getFileForResource("project-b/b.txt")
+            .exists());
+        gitWagon.put(temp, "project-a/new.txt");
+        gitWagon.disconnect();
+        temp.delete();
+
+        assertTrue(remoteHasPath("project-a/a.txt"));
+        assertTrue(remoteHasPath("project-a/new.txt"));
+        assertTrue(remoteHasPath("project-b/b.txt"));
+    }
+}
@@ -19,6 +19,16 @@ public class GitWagonTest extends StreamingWagonTestCase {
      */
     private File gitRemoteDirectory;
 
+    /**
+     * Git remote directory.
+     *
+     * @return the "remote" directory
+     */
+    protected File getGitRemoteDirectory() {
+
+        return gitRemoteDirectory;
+    }
+
     /**
      * Protocol hint.
      *
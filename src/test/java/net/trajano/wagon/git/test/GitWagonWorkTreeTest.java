@@ -0,0 +1,94 @@
+package net.trajano.wagon.git.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+
+import net.trajano.wagon.git.GitWagon;
+
+import org.codehaus.plexus.util.FileUtils;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.util.FS;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Test;
+
+/**
+ * Tests the checks that resources stay in the work tree.
+ */
+public class GitWagonWorkTreeTest extends AbstractGitWagonTestCase {
+
+    /**
+     * Directory outside of the work tree.
+     */
+    private File outsideDirectory;
+
+    @After
+    public void removeOutsideDirectory() throws Exception {
+
+        FileUtils.deleteDirectory(outsideDirectory);
+    }
+
+    /**
+     * Creates a commit on the branch with a symbolic link to a directory
+     * outside of the work tree.
+     */
+    @Override
+    protected void setupRemote(final Git git) throws Exception {
+
+        outsideDirectory = File.createTempFile("outside", null);
+        outsideDirectory.delete();
+        outsideDirectory.mkdir();
+        FileUtils.fileWrite(new File(getGitRemoteDirectory(), "index.html"), "UTF-8", "hello");
+        if (FS.DETECTED.supportsSymlinks()) {
+            FS.DETECTED.createSymLink(new File(getGitRemoteDirectory(), "outside"), outsideDirectory.getAbsolutePath());
+        }
+        git.add()
+            .addFilepattern(".")
+            .call();
+        git.commit()
+            .setMessage("initial")
+            .call();
+        git.branchCreate()
+            .setName("gh-pages")
+            .call();
+    }
+
+    @Test
+    public void testResourceInWorkTree() throws Exception {
+
+        final GitWagon gitWagon = connect(new GitWagon());
+        final File file = gitWagon.getFileForResource("css/../index.html");
+        assertEquals("index.html", file.getName());
+        gitWagon.disconnect();
+    }
+
+    @Test
+    public void testResourceOutsideWorkTree() throws Exception {
+
+        final GitWagon gitWagon = connect(new GitWagon());
+        try {
+            gitWagon.getFileForResource("css/../../escaped.html");
+            fail();
+        } catch (final IOException e) {
+            // expected
+        }
+        gitWagon.disconnect();
+    }
+
+    @Test
+    public void testResourceThroughSymbolicLink() throws Exception {
+
+        Assume.assumeTrue(FS.DETECTED.supportsSymlinks());
+        final GitWagon gitWagon = connect(new GitWagon());
+        try {
+            gitWagon.getFileForResource("outside/escaped.html");
+            fail();
+        } catch (final IOException e) {
+            // expected
+        }
+        gitWagon.disconnect();
+    }
+}
@@ -0,0 +1,136 @@
+package net.trajano.wagon.git.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.util.Random;
+import java.util.zip.DeflaterOutputStream;
+
+import net.trajano.wagon.git.internal.IncompressibleContent;
+import net.trajano.wagon.git.internal.IncompressibleContent.SamplingInputStream;
+import net.trajano.wagon.git.internal.WorkingCopy;
+
+import org.codehaus.plexus.util.FileUtils;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.util.IO;
+import org.junit.Test;
+
+/**
+ * Tests {@link IncompressibleContent}.
+ */
+public class IncompressibleContentTest {
+
+    /**
+     * Classifies content by streaming it through a {@link SamplingInputStream}.
+     *
+     * @param path
+     *            repository path
+     * @param content
+     *            content
+     * @return <code>true</code> if the content is compressed.
+     */
+    private static boolean isIncompressible(final String path,
+        final byte[] content) throws Exception {
+
+        final SamplingInputStream in = new SamplingInputStream(new ByteArrayInputStream(content));
+        IO.readFully(in, new byte[content.length], 0, content.length);
+        return in.isIncompressible(path);
+    }
+
+    /**
+     * Builds some text.
+     *
+     * @return text bytes
+     */
+    private static byte[] text() {
+
+        final StringBuilder b = new StringBuilder();
+        for (int i = 0; i < 500; ++i) {
+            b.append("<p>Line ").append(i).append(" of the site.</p>\n");
+        }
+        return b.toString().getBytes();
+    }
+
+    @Test
+    public void testCompressedExtension() throws Exception {
+
+        assertTrue(IncompressibleContent.hasCompressedExtension("images/logo.PNG"));
+        assertTrue(IncompressibleContent.hasCompressedExtension("fonts/a.woff2"));
+        assertFalse(IncompressibleContent.hasCompressedExtension("index.html"));
+        assertFalse(IncompressibleContent.hasCompressedExtension("a.zip/README"));
+        assertFalse(IncompressibleContent.hasCompressedExtension("LICENSE"));
+    }
+
+    @Test
+    public void testDeflatedContent() throws Exception {
+
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DeflaterOutputStream out = new DeflaterOutputStream(bytes);
+        final byte[] random = new byte[8192];
+        new Random(1).nextBytes(random);
+        out.write(random);
+        out.close();
+        assertTrue(isIncompressible("data.bin", bytes.toByteArray()));
+    }
+
+    @Test
+    public void testSampledWhileStreamed() throws Exception {
+
+        final byte[] random = new byte[8192];
+        new Random(1).nextBytes(random);
+        final SamplingInputStream in = new SamplingInputStream(new ByteArrayInputStream(random));
+        assertFalse(in.isIncompressible("data.bin"));
+        IO.readFully(in, new byte[random.length], 0, random.length);
+        assertTrue(in.isIncompressible("data.bin"));
+        assertFalse(new SamplingInputStream(new ByteArrayInputStream(text())).isIncompressible("index.html"));
+    }
+
+    @Test
+    public void testShortContent() throws Exception {
+
+        final byte[] random = new byte[100];
+        new Random(1).nextBytes(random);
+        assertFalse(isIncompressible("data.bin", random));
+        assertTrue(isIncompressible("empty.jpg", new byte[0]));
+    }
+
+    @Test
+    public void testTextContent() throws Exception {
+
+        assertFalse(isIncompressible("index.html", text()));
+    }
+
+    @Test
+    public void testWrittenBlobsClassified() throws Exception {
+
+        final File directory = File.createTempFile("incompressible", null);
+        directory.delete();
+        final Git git = Git.init()
+            .setBare(true)
+            .setDirectory(directory)
+            .call();
+        try {
+            final WorkingCopy workingCopy = new WorkingCopy(directory.toURI()
+                .toString(), git, directory, null);
+            final byte[] random = new byte[8192];
+            new Random(1).nextBytes(random);
+            final byte[] text = text();
+            workingCopy.insertBlob("data.bin", random.length, new ByteArrayInputStream(random));
+            workingCopy.insertBlob("index.html", text.length, new ByteArrayInputStream(text));
+            workingCopy.insertBlob("logo.png", 3, new ByteArrayInputStream(new byte[3]));
+            assertEquals(random.length + text.length + 3, workingCopy.getWrittenBytes());
+            assertEquals(random.length + 3, workingCopy.getIncompressibleBytes());
+            assertEquals(text.length, workingCopy.getLargestCompressibleLength());
+            workingCopy.stageDeletion("index.html");
+            assertEquals(-1, workingCopy.getLargestCompressibleLength());
+            assertEquals(random.length + 3, workingCopy.getWrittenBytes());
+        } finally {
+            git.close();
+            FileUtils.deleteDirectory(directory);
+        }
+    }
+}
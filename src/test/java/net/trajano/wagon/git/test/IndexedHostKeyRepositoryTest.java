@@ -0,0 +1,103 @@
+package net.trajano.wagon.git.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.io.File;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import net.trajano.wagon.git.internal.IndexedHostKeyRepository;
+
+import org.codehaus.plexus.util.FileUtils;
+import org.eclipse.jgit.util.Base64;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.jcraft.jsch.HostKeyRepository;
+
+/**
+ * Tests {@link IndexedHostKeyRepository}.
+ */
+public class IndexedHostKeyRepositoryTest {
+
+    /**
+     * Builds a fake RSA key blob.
+     *
+     * @param seed
+     *            value used to make the key distinct
+     * @return key blob
+     */
+    private static byte[] key(final int seed) {
+
+        final byte[] key = new byte[4 + 7 + 16];
+        key[3] = 7;
+        System.arraycopy("ssh-rsa".getBytes(), 0, key, 4, 7);
+        for (int i = 11; i < key.length; ++i) {
+            key[i] = (byte) (seed + i);
+        }
+        return key;
+    }
+
+    /**
+     * Known hosts file.
+     */
+    private File knownHosts;
+
+    @Before
+    public void createKnownHosts() throws Exception {
+
+        final byte[] salt = new byte[20];
+        final Mac mac = Mac.getInstance("HmacSHA1");
+        mac.init(new SecretKeySpec(salt, "HmacSHA1"));
+        final String hashedHost = "|1|" + Base64.encodeBytes(salt) + "|" + Base64.encodeBytes(mac.doFinal("hashed.example.com".getBytes("UTF-8")));
+
+        knownHosts = File.createTempFile("known_hosts", null);
+        FileUtils.fileWrite(knownHosts, "# comment\n" + "github.com,192.30.253.113 ssh-rsa " + Base64.encodeBytes(key(1)) + "\n" + hashedHost + " ssh-rsa " + Base64.encodeBytes(key(2)) + "\n" + "*.example.org,!bad.example.org ssh-rsa " + Base64.encodeBytes(key(3)) + "\n" + "@cert-authority *.example.net ssh-rsa " + Base64.encodeBytes(key(4)) + "\n" + "revoked.example.com ssh-rsa " + Base64.encodeBytes(key(6)) + "\n" + "@revoked * ssh-rsa " + Base64.encodeBytes(key(6)) + "\n");
+    }
+
+    @After
+    public void deleteKnownHosts() {
+
+        knownHosts.delete();
+    }
+
+    @Test
+    public void testCheck() throws Exception {
+
+        final IndexedHostKeyRepository repository = IndexedHostKeyRepository.getInstance(knownHosts);
+        assertSame(repository, IndexedHostKeyRepository.getInstance(knownHosts));
+        assertEquals(HostKeyRepository.OK, repository.check("github.com", key(1)));
+        assertEquals(HostKeyRepository.OK, repository.check("192.30.253.113", key(1)));
+        assertEquals(HostKeyRepository.CHANGED, repository.check("github.com", key(2)));
+        assertEquals(HostKeyRepository.OK, repository.check("hashed.example.com", key(2)));
+        assertEquals(HostKeyRepository.NOT_INCLUDED, repository.check("other.example.com", key(2)));
+        assertEquals(HostKeyRepository.OK, repository.check("www.example.org", key(3)));
+        assertEquals(HostKeyRepository.NOT_INCLUDED, repository.check("bad.example.org", key(3)));
+        assertEquals(HostKeyRepository.NOT_INCLUDED, repository.check("www.example.net", key(4)));
+        assertEquals(1, repository.getHostKey("github.com", "ssh-rsa").length);
+    }
+
+    @Test
+    public void testRevoked() throws Exception {
+
+        final IndexedHostKeyRepository repository = IndexedHostKeyRepository.getInstance(knownHosts);
+        assertEquals(HostKeyRepository.CHANGED, repository.check("revoked.example.com", key(6)));
+        assertEquals(HostKeyRepository.CHANGED, repository.check("other.example.com", key(6)));
+        assertEquals(HostKeyRepository.OK, repository.check("github.com", key(1)));
+        assertEquals(0, repository.getHostKey("revoked.example.com", "ssh-rsa").length);
+    }
+
+    @Test
+    public void testReloadWhenModified() throws Exception {
+
+        final IndexedHostKeyRepository repository = IndexedHostKeyRepository.getInstance(knownHosts);
+        assertEquals(HostKeyRepository.OK, repository.check("github.com", key(1)));
+        FileUtils.fileWrite(knownHosts, "github.com ssh-rsa " + Base64.encodeBytes(key(5)) + "\n");
+        knownHosts.setLastModified(knownHosts.lastModified() + 2000);
+        assertEquals(HostKeyRepository.CHANGED, repository.check("github.com", key(1)));
+        assertEquals(HostKeyRepository.OK, repository.check("github.com", key(5)));
+    }
+}
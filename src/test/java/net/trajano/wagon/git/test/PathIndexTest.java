@@ -0,0 +1,117 @@
+package net.trajano.wagon.git.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import net.trajano.wagon.git.internal.PathIndex;
+
+import org.eclipse.jgit.dircache.DirCache;
+import org.eclipse.jgit.dircache.DirCacheBuilder;
+import org.eclipse.jgit.dircache.DirCacheEntry;
+import org.eclipse.jgit.internal.storage.dfs.DfsRepositoryDescription;
+import org.eclipse.jgit.internal.storage.dfs.InMemoryRepository;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.junit.Test;
+
+/**
+ * Tests {@link PathIndex}.
+ */
+public class PathIndexTest {
+
+    /**
+     * Builds the index of a tree with the given files.
+     *
+     * @param paths
+     *            file paths
+     * @return index
+     */
+    private static PathIndex build(final String... paths) throws Exception {
+
+        final InMemoryRepository repository = new InMemoryRepository(new DfsRepositoryDescription("test"));
+        final ObjectInserter inserter = repository.newObjectInserter();
+        final DirCache index = DirCache.newInCore();
+        final DirCacheBuilder builder = index.builder();
+        for (final String path : paths) {
+            final DirCacheEntry entry = new DirCacheEntry(path);
+            entry.setFileMode(FileMode.REGULAR_FILE);
+            entry.setObjectId(inserter.insert(Constants.OBJ_BLOB, Constants.encode(path)));
+            builder.add(entry);
+        }
+        builder.finish();
+        final ObjectId treeId = index.writeTree(inserter);
+        inserter.flush();
+        try {
+            return PathIndex.build(repository.newObjectReader(), treeId);
+        } finally {
+            inserter.close();
+            repository.close();
+        }
+    }
+
+    @Test
+    public void testLookups() throws Exception {
+
+        final PathIndex index = build("a.txt", "a/b/c.html", "a/b/d.html", "a/e.html", "a-b/f.html", "z.txt");
+        assertNotNull(index.getBlob("a/e.html"));
+        assertNull(index.getBlob("a/b"));
+        assertNull(index.getBlob("missing.txt"));
+        assertTrue(index.isDirectory(""));
+        assertTrue(index.isDirectory("a"));
+        assertTrue(index.isDirectory("a/b"));
+        assertFalse(index.isDirectory("a/b/c.html"));
+        assertFalse(index.isDirectory("b"));
+        assertFalse(index.hasSymbolicLinks());
+    }
+
+    @Test
+    public void testNames() throws Exception {
+
+        final PathIndex index = build("a.txt", "a/b/c.html", "a/b/d.html", "a/e.html", "a-b/f.html", "z.txt");
+        final List<String> names = new ArrayList<String>();
+        assertTrue(index.addNames("", names));
+        assertArrayEquals(new String[] {
+            "a-b/",
+            "a.txt",
+            "a/",
+            "z.txt"
+        }, names.toArray());
+
+        names.clear();
+        assertTrue(index.addNames("a", names));
+        assertArrayEquals(new String[] {
+            "b/",
+            "e.html"
+        }, names.toArray());
+
+        names.clear();
+        assertFalse(index.addNames("missing", names));
+        assertTrue(names.isEmpty());
+
+        final List<String> paths = new ArrayList<String>();
+        index.addPaths("a", paths);
+        assertArrayEquals(new String[] {
+            "a/b/c.html",
+            "a/b/d.html",
+            "a/e.html"
+        }, paths.toArray());
+    }
+
+    @Test
+    public void testEmpty() throws Exception {
+
+        final List<String> names = new ArrayList<String>();
+        assertTrue(PathIndex.EMPTY.addNames("", names));
+        assertFalse(PathIndex.EMPTY.addNames("a", names));
+        assertNull(PathIndex.EMPTY.getBlob("a"));
+        assertFalse(PathIndex.EMPTY.isDirectory("a"));
+    }
+}
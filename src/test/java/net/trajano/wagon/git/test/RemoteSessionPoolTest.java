@@ -0,0 +1,166 @@
+package net.trajano.wagon.git.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.trajano.wagon.git.internal.RemoteSessionPool;
+
+import org.eclipse.jgit.transport.CredentialsProvider;
+import org.eclipse.jgit.transport.RemoteSession;
+import org.eclipse.jgit.transport.URIish;
+import org.eclipse.jgit.util.FS;
+import org.junit.Test;
+
+/**
+ * Tests {@link RemoteSessionPool}.
+ */
+public class RemoteSessionPoolTest {
+
+    /**
+     * Session that records whether it is connected.
+     */
+    private static final class FakeSession implements
+        RemoteSession {
+
+        /**
+         * Indicates the session is connected.
+         */
+        private volatile boolean connected = true;
+
+        @Override
+        public void disconnect() {
+
+            connected = false;
+        }
+
+        @Override
+        public Process exec(final String commandName,
+            final int timeout) {
+
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    /**
+     * Opener that counts the sessions it opens. Opening a session to the host
+     * "blocked" waits for {@link #unblock}.
+     */
+    private static final class FakeOpener implements
+        RemoteSessionPool.Opener {
+
+        /**
+         * Signalled when a session to the blocked host is being opened.
+         */
+        private final CountDownLatch blocked = new CountDownLatch(1);
+
+        /**
+         * Number of sessions opened.
+         */
+        private final AtomicInteger opened = new AtomicInteger();
+
+        /**
+         * Releases the session being opened to the blocked host.
+         */
+        private final CountDownLatch unblock = new CountDownLatch(1);
+
+        @Override
+        public boolean isOpen(final RemoteSession session) {
+
+            return ((FakeSession) session).connected;
+        }
+
+        @Override
+        public RemoteSession open(final URIish uri,
+            final CredentialsProvider credentialsProvider,
+            final FS fs,
+            final int tms) {
+
+            if ("blocked".equals(uri.getHost())) {
+                blocked.countDown();
+                try {
+                    unblock.await();
+                } catch (final InterruptedException e) {
+                    throw new AssertionError(e);
+                }
+            }
+            opened.incrementAndGet();
+            return new FakeSession();
+        }
+    }
+
+    @Test
+    public void testClose() throws Exception {
+
+        final FakeOpener opener = new FakeOpener();
+        final RemoteSessionPool pool = new RemoteSessionPool(opener);
+        final FakeSession session = (FakeSession) pool.getSession(new URIish("ssh://git@github.com/a.git"), null, FS.DETECTED, 0);
+        assertTrue(pool.contains(session));
+        pool.close();
+        assertFalse(session.connected);
+        assertFalse(pool.contains(session));
+        assertNotSame(session, pool.getSession(new URIish("ssh://git@github.com/a.git"), null, FS.DETECTED, 0));
+    }
+
+    @Test
+    public void testDifferentHostsOpenInParallel() throws Exception {
+
+        final FakeOpener opener = new FakeOpener();
+        final RemoteSessionPool pool = new RemoteSessionPool(opener);
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            final Future<RemoteSession> blockedSession = executor.submit(new Callable<RemoteSession>() {
+
+                @Override
+                public RemoteSession call() throws Exception {
+
+                    return pool.getSession(new URIish("ssh://git@blocked/a.git"), null, FS.DETECTED, 0);
+                }
+            });
+            assertTrue(opener.blocked.await(10, TimeUnit.SECONDS));
+            pool.getSession(new URIish("ssh://git@github.com/a.git"), null, FS.DETECTED, 0);
+            assertEquals(1, opener.opened.get());
+            opener.unblock.countDown();
+            assertTrue(pool.contains(blockedSession.get(10, TimeUnit.SECONDS)));
+            assertEquals(2, opener.opened.get());
+        } finally {
+            opener.unblock.countDown();
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testDroppedSessionIsReplaced() throws Exception {
+
+        final FakeOpener opener = new FakeOpener();
+        final RemoteSessionPool pool = new RemoteSessionPool(opener);
+        final FakeSession dropped = (FakeSession) pool.getSession(new URIish("ssh://git@github.com/a.git"), null, FS.DETECTED, 0);
+        dropped.connected = false;
+        final RemoteSession replacement = pool.getSession(new URIish("ssh://git@github.com/b.git"), null, FS.DETECTED, 0);
+        assertNotSame(dropped, replacement);
+        assertFalse(pool.contains(dropped));
+        assertTrue(pool.contains(replacement));
+        assertEquals(2, opener.opened.get());
+    }
+
+    @Test
+    public void testSessionIsReused() throws Exception {
+
+        final FakeOpener opener = new FakeOpener();
+        final RemoteSessionPool pool = new RemoteSessionPool(opener);
+        final RemoteSession session = pool.getSession(new URIish("ssh://git@github.com/a.git"), null, FS.DETECTED, 0);
+        assertSame(session, pool.getSession(new URIish("ssh://git@github.com/b.git"), null, FS.DETECTED, 0));
+        assertNotSame(session, pool.getSession(new URIish("ssh://other@github.com/a.git"), null, FS.DETECTED, 0));
+        assertEquals(2, opener.opened.get());
+    }
+}
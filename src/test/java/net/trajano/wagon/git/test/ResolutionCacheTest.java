@@ -0,0 +1,68 @@
+package net.trajano.wagon.git.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+
+import net.trajano.wagon.git.internal.ResolutionCache;
+
+import org.codehaus.plexus.util.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests {@link ResolutionCache}.
+ */
+public class ResolutionCacheTest {
+
+    /**
+     * Cache file.
+     */
+    private File cacheFile;
+
+    @Before
+    public void createFile() throws Exception {
+
+        cacheFile = File.createTempFile("cache", ".properties");
+        cacheFile.delete();
+    }
+
+    @After
+    public void deleteFile() {
+
+        cacheFile.delete();
+    }
+
+    @Test
+    public void testCorruptEntry() throws Exception {
+
+        FileUtils.fileWrite(cacheFile, "ISO-8859-1", "cname.site.trajano.net=soon trajano.github.io\n");
+        final ResolutionCache cache = new ResolutionCache(cacheFile, 60000);
+        assertNull(cache.get("cname.site.trajano.net"));
+        cache.put("cname.site.trajano.net", "trajano.github.io");
+        assertEquals("trajano.github.io", cache.get("cname.site.trajano.net"));
+    }
+
+    @Test
+    public void testExpiredEntry() throws Exception {
+
+        final ResolutionCache cache = new ResolutionCache(cacheFile, -1);
+        cache.put("cname.site.trajano.net", "trajano.github.io");
+        assertNull(cache.get("cname.site.trajano.net"));
+    }
+
+    @Test
+    public void testMissingEntry() throws Exception {
+
+        assertNull(new ResolutionCache(cacheFile, 60000).get("cname.site.trajano.net"));
+    }
+
+    @Test
+    public void testReloadFromFile() throws Exception {
+
+        new ResolutionCache(cacheFile, 60000).put("redirect.http://trajano.github.io/foo", "https://trajano.github.io/foo/");
+        assertEquals("https://trajano.github.io/foo/", new ResolutionCache(cacheFile, 60000).get("redirect.http://trajano.github.io/foo"));
+    }
+}